@@ -0,0 +1,61 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+// This class generates the database the benchmarks run on.
+// Table `marks` has the given number of rows, each of a student of table `students`,
+// so that joining them on the name gives one row per mark.
+public class BenchmarkDatabase {
+    public static final String databaseName = "bench";
+    public static final int numberOfStudents = 100;
+
+    public static DBKeeper create(int numberOfMarks) throws DBException {
+        DBKeeper keeper = new DBKeeper();
+        execute(keeper, "CREATE DATABASE " + databaseName + ";");
+        execute(keeper, "USE " + databaseName + ";");
+        execute(keeper, "CREATE TABLE students (name, age);");
+        for (int i = 0; i < numberOfStudents; ++i) {
+            execute(keeper, "INSERT INTO students VALUES ('" + getStudentName(i) + "', "
+                    + (18 + i % 10) + ");");
+        }
+        execute(keeper, "CREATE TABLE marks (name, mark, pass);");
+        for (int i = 0; i < numberOfMarks; ++i) {
+            int mark = (i * 37) % 100;
+            execute(keeper, "INSERT INTO marks VALUES ('" + getStudentName(i % numberOfStudents)
+                    + "', " + mark + ", " + (mark >= 40 ? "TRUE" : "FALSE") + ");");
+        }
+        return keeper;
+    }
+
+    public static Result execute(DBKeeper keeper, String command) throws DBException {
+        return keeper.executeTask(Grammar.parseCommand(command));
+    }
+
+    public static Table getTable(DBKeeper keeper, String tableName) throws DBException {
+        return keeper.getDatabase(databaseName).getTable(tableName);
+    }
+
+    public static Condition parseCondition(String whereClause) throws DBException {
+        Task task = Grammar.parseCommand("SELECT * FROM marks WHERE " + whereClause + ";");
+        return ((Task.SelectTask) task).getCondition();
+    }
+
+    public static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("cwdb-bench");
+    }
+
+    public static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static String getStudentName(int i) {
+        return "student" + i;
+    }
+}
@@ -0,0 +1,72 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Joining tables, and storing all the databases,
+// which is done after every command changing them
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The same join is run again and again, so results are not cached,
+// otherwise every run after the first would only look up the cache
+@Fork(value = 1, jvmArgsAppend = "-Dcwdb.resultCacheSize=0")
+public class DBKeeperBenchmark {
+    // The same sizes as TableBenchmark, as joining is linear in the rows of both tables
+    @Param({ "1000", "10000", "100000" })
+    private int size; // Rows of table `marks`
+
+    private DBKeeper keeper;
+    private Task joinTask;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DBException {
+        this.keeper = BenchmarkDatabase.create(this.size);
+        this.joinTask = Grammar.parseCommand("JOIN marks AND students ON name AND name;");
+    }
+
+    // The students are hashed by name, then each mark looks up its student
+    @Benchmark
+    public Result join() throws DBException {
+        return this.keeper.executeTask(this.joinTask);
+    }
+
+    // Tables already stored in a directory are not written again until they change,
+    // so every store is to a new directory, writing all the tables
+    @State(Scope.Thread)
+    public static class Directory {
+        private Path path;
+
+        @Setup(Level.Invocation)
+        public void create() throws IOException {
+            this.path = BenchmarkDatabase.createTempDirectory();
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            BenchmarkDatabase.deleteDirectory(this.path);
+        }
+    }
+
+    @Benchmark
+    public void storeToDirectory(Directory directory) throws DBException, IOException {
+        this.keeper.storeToDirectory(directory.path.toString());
+    }
+}
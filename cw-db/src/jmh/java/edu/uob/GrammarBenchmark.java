@@ -0,0 +1,62 @@
+package edu.uob;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing and comparing values, which every command goes through
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrammarBenchmark {
+    private String selectCommand = "SELECT name, mark FROM marks "
+            + "WHERE (pass == TRUE) AND ((mark > 40) OR (name LIKE 'stu'));";
+    private String insertCommand = "INSERT INTO marks VALUES ('student42', 57.5, TRUE);";
+    private String joinCommand = "JOIN marks AND students ON name AND name;";
+
+    @Benchmark
+    public Task parseSelect() throws DBException {
+        return Grammar.parseCommand(this.selectCommand);
+    }
+
+    @Benchmark
+    public Task parseInsert() throws DBException {
+        return Grammar.parseCommand(this.insertCommand);
+    }
+
+    @Benchmark
+    public Task parseJoin() throws DBException {
+        return Grammar.parseCommand(this.joinCommand);
+    }
+
+    @Benchmark
+    public boolean compareIntegers() throws DBException {
+        return Grammar.compareValue("1234", Grammar.Keyword.GT, "987");
+    }
+
+    @Benchmark
+    public boolean compareIntegerToFloat() throws DBException {
+        return Grammar.compareValue("57", Grammar.Keyword.EQ, "57.0");
+    }
+
+    @Benchmark
+    public boolean compareStrings() throws DBException {
+        return Grammar.compareValue("'student42'", Grammar.Keyword.EQ, "'student24'");
+    }
+
+    @Benchmark
+    public boolean compareLike() throws DBException {
+        return Grammar.compareValue("'student42'", Grammar.Keyword.LIKE, "'dent'");
+    }
+}
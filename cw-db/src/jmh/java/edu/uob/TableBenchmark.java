@@ -0,0 +1,82 @@
+package edu.uob;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Choosing the entities of a table, and loading a table from its file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableBenchmark {
+    @Param({ "1000", "10000", "100000" })
+    private int size; // Rows of the table
+
+    private Table table;
+    private Condition rangeCondition;
+    private Condition equalityCondition;
+    private Condition pointCondition;
+    private Path directory;
+    private File tableFile;
+    private String tableMeta;
+
+    @Setup(Level.Trial)
+    public void setUp() throws DBException, IOException {
+        DBKeeper keeper = BenchmarkDatabase.create(this.size);
+        this.table = BenchmarkDatabase.getTable(keeper, "marks");
+        this.rangeCondition = BenchmarkDatabase.parseCondition(
+                "(mark >= 40) AND (name LIKE '7')");
+        this.equalityCondition = BenchmarkDatabase.parseCondition("pass == TRUE");
+        this.pointCondition = BenchmarkDatabase.parseCondition("id == " + (this.size / 2));
+        this.directory = BenchmarkDatabase.createTempDirectory();
+        Path tableFilePath = this.directory.resolve("marks.tab");
+        this.tableMeta = this.table.storeToFile(tableFilePath);
+        this.tableFile = tableFilePath.toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkDatabase.deleteDirectory(this.directory);
+    }
+
+    @Benchmark
+    public List<Table.Entity> chooseByRange() throws DBException {
+        return this.table.chooseEntities(this.rangeCondition);
+    }
+
+    @Benchmark
+    public List<Table.Entity> chooseByEquality() throws DBException {
+        return this.table.chooseEntities(this.equalityCondition);
+    }
+
+    @Benchmark
+    public List<Table.Entity> chooseById() throws DBException {
+        return this.table.chooseEntities(this.pointCondition);
+    }
+
+    @Benchmark
+    public Table loadFromFile() throws DBException, IOException {
+        Table loaded = Table.createFromMetaString(this.tableMeta);
+        loaded.loadFromFile(this.tableFile);
+        return loaded;
+    }
+}
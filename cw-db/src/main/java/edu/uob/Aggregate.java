@@ -0,0 +1,185 @@
+package edu.uob;
+
+import java.math.BigDecimal;
+
+// This class represents a selected item of an aggregate query:
+// either an aggregate function over an attribute, e.g., `SUM(mark)`,
+// or a plain attribute which the query is grouped by.
+public class Aggregate {
+    public static enum Function {
+        COUNT, SUM, AVG, MIN, MAX;
+
+        // Function names are not keywords, so they are still valid attribute names
+        public static Function getByName(String name) {
+            if (name == null) {
+                return null;
+            }
+            for (Function function : Function.values()) {
+                if (function.toString().equals(name.toUpperCase())) {
+                    return function;
+                }
+            }
+            return null;
+        }
+    }
+
+    private Function function; // null for a grouping attribute
+    private String attrName; // null for `COUNT(*)`
+
+    public Aggregate(Function function, String attrName) {
+        this.function = function;
+        this.attrName = attrName;
+    }
+
+    public static Aggregate ofAttribute(String attrName) {
+        return new Aggregate(null, attrName);
+    }
+
+    public boolean isGroupingAttribute() {
+        return this.function == null;
+    }
+
+    public Function getFunction() {
+        return this.function;
+    }
+
+    // For `COUNT(*)`, the id is what it counts
+    public String getAttrName() {
+        if (this.attrName == null) {
+            return Grammar.getIdAttrName();
+        }
+        return this.attrName;
+    }
+
+    // The name shown in result header
+    public String getName() {
+        if (isGroupingAttribute()) {
+            return this.attrName;
+        }
+        String argument = this.attrName == null ? Grammar.Keyword.STAR.toString() : this.attrName;
+        return this.function + "(" + argument + ")";
+    }
+
+    public Accumulator createAccumulator() {
+        return new Accumulator();
+    }
+
+    // This class accumulates the values of one group.
+    // NULL values are ignored, except by `COUNT(*)`.
+    // SUM and AVG only take numbers, other values are ignored.
+    public class Accumulator {
+        private String firstValue; // For grouping attribute
+        private long count;
+        private long numberCount;
+        private boolean sumIsLong;
+        private long longSum;
+        private double doubleSum;
+        private String extremeValue; // For MIN/MAX
+        private Grammar.SortKey extremeKey;
+
+        private Accumulator() {
+            this.firstValue = null;
+            this.count = 0;
+            this.numberCount = 0;
+            this.sumIsLong = true;
+            this.longSum = 0;
+            this.doubleSum = 0;
+            this.extremeValue = null;
+            this.extremeKey = null;
+        }
+
+        public void add(String value) throws DBException {
+            if (this.firstValue == null) {
+                this.firstValue = value;
+            }
+            if (function == Function.COUNT && attrName == null) {
+                this.count++;
+                return;
+            }
+            if (function == null || Grammar.isNullLiteral(value)) {
+                return;
+            }
+            this.count++;
+            switch (function) {
+                case SUM: case AVG:
+                    addNumber(value);
+                    break;
+                case MIN: case MAX:
+                    addExtreme(value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void addNumber(String value) {
+            boolean isInteger = Grammar.isIntegerLiteral(value);
+            if (!isInteger && !Grammar.isFloatLiteral(value)) {
+                return;
+            }
+            this.numberCount++;
+            this.doubleSum += Double.parseDouble(value);
+            if (!isInteger) {
+                this.sumIsLong = false;
+            }
+            if (!this.sumIsLong) {
+                return;
+            }
+            try {
+                this.longSum = Math.addExact(this.longSum, Long.parseLong(value));
+            } catch (ArithmeticException | NumberFormatException outOfRange) {
+                this.sumIsLong = false;
+            }
+        }
+
+        private void addExtreme(String value) throws DBException {
+            Grammar.SortKey key = Grammar.SortKey.of(value);
+            if (this.extremeKey == null) {
+                this.extremeKey = key;
+                this.extremeValue = value;
+                return;
+            }
+            int cmp = key.compareTo(this.extremeKey);
+            if ((function == Function.MIN && cmp < 0) || (function == Function.MAX && cmp > 0)) {
+                this.extremeKey = key;
+                this.extremeValue = value;
+            }
+        }
+
+        public String getResult() {
+            String nullStr = Grammar.Keyword.NULL.toString();
+            if (function == null) {
+                return this.firstValue == null ? nullStr : this.firstValue;
+            }
+            switch (function) {
+                case COUNT:
+                    return String.valueOf(this.count);
+                case SUM:
+                    if (this.numberCount == 0) {
+                        return nullStr;
+                    }
+                    return this.sumIsLong ? String.valueOf(this.longSum)
+                            : formatDouble(this.doubleSum);
+                case AVG:
+                    if (this.numberCount == 0) {
+                        return nullStr;
+                    }
+                    return formatDouble(this.doubleSum / this.numberCount);
+                default: // MIN, MAX
+                    return this.extremeValue == null ? nullStr : this.extremeValue;
+            }
+        }
+    }
+
+    // Format as a float literal where possible, e.g., 2.5, 100.0
+    private static String formatDouble(double d) {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            return String.valueOf(d);
+        }
+        String str = BigDecimal.valueOf(d).toPlainString();
+        if (str.indexOf('.') < 0) {
+            str += ".0";
+        }
+        return str;
+    }
+}
@@ -0,0 +1,276 @@
+package edu.uob;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// This class encodes the binary protocol, for clients that parse the responses.
+// A connection is switched to it by sending `handshake` as its first line,
+// which the server echoes back before anything else.
+// Then every command and every response is a frame:
+// the length of the payload as a 4-byte big-endian integer, then the payload.
+// A response payload longer than `maxFrameLength` is split over several frames,
+// the top bit of the length marking each frame but the last as continued by the next.
+// A command payload is the command in UTF-8.
+// A response payload is a status byte, then for an error its message,
+// or for a result the number of columns, the number of rows, the column names,
+// and each row as a typed value per column, without any padding.
+// Strings are a 4-byte length then UTF-8 bytes.
+public class BinaryProtocol {
+    public static final String handshake = "CWDB-BINARY/1";
+    public static final int maxFrameLength = 16 * 1024 * 1024;
+    private static final int continuedFlag = 0x80000000;
+
+    private static final byte statusOk = 0;
+    private static final byte statusError = 1;
+
+    // Tags of typed values
+    private static final byte nullTag = 0; // NULL or no value
+    private static final byte longTag = 1; // 8 bytes
+    private static final byte doubleTag = 2; // 8 bytes
+    private static final byte booleanTag = 3; // 1 byte
+    private static final byte stringTag = 4; // A string literal, without quotes
+    private static final byte textTag = 5; // Any other text, e.g., a name
+
+    // A decoded response.
+    // Values are Long, Double, Boolean, String, or null.
+    public static class Response {
+        private final String errorMessage; // null if OK
+        private final List<String> columnNames;
+        private final List<List<Object>> rows;
+
+        private Response(String errorMessage, List<String> columnNames, List<List<Object>> rows) {
+            this.errorMessage = errorMessage;
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        public boolean isOk() {
+            return this.errorMessage == null;
+        }
+
+        public String getErrorMessage() {
+            return this.errorMessage;
+        }
+
+        public List<String> getColumnNames() {
+            return Collections.unmodifiableList(this.columnNames);
+        }
+
+        // Excluding the header row
+        public List<List<Object>> getRows() {
+            return Collections.unmodifiableList(this.rows);
+        }
+    }
+
+    // The header row of a result names the columns
+    public static byte[] encodeResult(Result result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0); // Length, filled in at the end
+        output.writeByte(statusOk);
+        List<List<String>> rows = result.getRows();
+        int numberOfColumns = rows.isEmpty() ? 0 : rows.get(0).size();
+        output.writeInt(numberOfColumns);
+        output.writeInt(Math.max(0, rows.size() - 1));
+        for (int i = 0; i < rows.size(); ++i) {
+            List<String> row = rows.get(i);
+            for (int col = 0; col < numberOfColumns; ++col) {
+                String value = col < row.size() ? row.get(col) : null;
+                if (i == 0) {
+                    writeString(output, value == null ? "" : value);
+                } else {
+                    writeValue(output, value);
+                }
+            }
+        }
+        return toResponseFrames(bytes);
+    }
+
+    public static byte[] encodeError(String message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        output.writeByte(statusError);
+        writeString(output, message == null ? "" : message);
+        return toResponseFrames(bytes);
+    }
+
+    public static byte[] encodeCommand(String command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        output.write(command.getBytes(StandardCharsets.UTF_8));
+        return toFrame(bytes);
+    }
+
+    // Fill in the length of the payload after the length itself
+    private static byte[] toFrame(ByteArrayOutputStream bytes) throws IOException {
+        byte[] frame = bytes.toByteArray();
+        int length = frame.length - 4;
+        if (length > maxFrameLength) {
+            throw new IOException("frame too long " + length);
+        }
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        return frame;
+    }
+
+    // Like `toFrame`, but a payload too long for one frame is split over several
+    private static byte[] toResponseFrames(ByteArrayOutputStream bytes) throws IOException {
+        if (bytes.size() - 4 <= maxFrameLength) {
+            return toFrame(bytes);
+        }
+        byte[] payload = bytes.toByteArray();
+        int numberOfFrames = (payload.length - 4 + maxFrameLength - 1) / maxFrameLength;
+        ByteArrayOutputStream frames = new ByteArrayOutputStream(payload.length
+                + 4 * numberOfFrames);
+        DataOutputStream output = new DataOutputStream(frames);
+        for (int offset = 4; offset < payload.length; offset += maxFrameLength) {
+            int length = Math.min(maxFrameLength, payload.length - offset);
+            boolean last = offset + length == payload.length;
+            output.writeInt(last ? length : length | continuedFlag);
+            output.write(payload, offset, length);
+        }
+        return frames.toByteArray();
+    }
+
+    private static void writeValue(DataOutputStream output, String value) throws IOException {
+        if (value == null || Grammar.isNullLiteral(value)) {
+            output.writeByte(nullTag);
+        } else if (Grammar.isBooleanLiteral(value)) {
+            output.writeByte(booleanTag);
+            output.writeBoolean(Grammar.Keyword.getByString(value) == Grammar.Keyword.TRUE);
+        } else if (Grammar.isIntegerLiteral(value) && isLong(value)) {
+            output.writeByte(longTag);
+            output.writeLong(Long.parseLong(value));
+        } else if (Grammar.isFloatLiteral(value)) {
+            output.writeByte(doubleTag);
+            output.writeDouble(Double.parseDouble(value));
+        } else if (value.length() >= 2 && value.startsWith("'") && value.endsWith("'")) {
+            output.writeByte(stringTag);
+            writeString(output, value.substring(1, value.length() - 1));
+        } else {
+            output.writeByte(textTag);
+            writeString(output, value);
+        }
+    }
+
+    // Integers out of the range of long are sent as text
+    private static boolean isLong(String value) {
+        try {
+            Long.parseLong(value);
+            return true;
+        } catch (NumberFormatException outOfRange) {
+            return false;
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    // The payload of a command frame
+    public static String decodeCommand(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+
+    // The payload of a response frame
+    public static Response decodeResponse(byte[] payload) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        byte status = input.readByte();
+        if (status == statusError) {
+            return new Response(readString(input), new ArrayList<String>(),
+                    new ArrayList<List<Object>>());
+        }
+        if (status != statusOk) {
+            throw new IOException("unknown response status " + status);
+        }
+        int numberOfColumns = input.readInt();
+        int numberOfRows = input.readInt();
+        List<String> columnNames = new ArrayList<String>();
+        for (int col = 0; col < numberOfColumns; ++col) {
+            columnNames.add(readString(input));
+        }
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int i = 0; i < numberOfRows; ++i) {
+            List<Object> row = new ArrayList<Object>();
+            for (int col = 0; col < numberOfColumns; ++col) {
+                row.add(readValue(input));
+            }
+            rows.add(row);
+        }
+        return new Response(null, columnNames, rows);
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte tag = input.readByte();
+        switch (tag) {
+            case nullTag:
+                return null;
+            case longTag:
+                return input.readLong();
+            case doubleTag:
+                return input.readDouble();
+            case booleanTag:
+                return input.readBoolean();
+            case stringTag: case textTag:
+                return readString(input);
+            default:
+                throw new IOException("unknown value tag " + tag);
+        }
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > maxFrameLength) {
+            throw new IOException("invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // The payload of the next frame, joined with those of the frames continuing it,
+    // or null at the end of the stream
+    public static byte[] readFrame(DataInputStream input) throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException end) {
+            return null;
+        }
+        ByteArrayOutputStream joinedPayload = null;
+        while (true) {
+            boolean continued = (length & continuedFlag) != 0;
+            length &= ~continuedFlag;
+            if (length > maxFrameLength) {
+                throw new IOException("invalid frame length " + length);
+            }
+            byte[] payload = new byte[length];
+            input.readFully(payload);
+            if (!continued && joinedPayload == null) {
+                return payload;
+            }
+            if (joinedPayload == null) {
+                joinedPayload = new ByteArrayOutputStream();
+            }
+            joinedPayload.write(payload);
+            if (!continued) {
+                return joinedPayload.toByteArray();
+            }
+            length = input.readInt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package edu.uob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// This class compresses table files block by block.
+// A compressed file starts with `magic`, followed by blocks of the form
+//   <uncompressed length> <compressed length> <deflated bytes>
+// with lengths as 4-byte integers. Blocks end at line ends,
+// so each block can be inflated on its own, and in parallel with the others.
+public class BlockCompression {
+    private static final byte[] magic = {0, 'C', 'W', 'Z', 1};
+    private static final int blockSize = 64 * 1024; // In bytes before compression
+
+    public static boolean isCompressed(byte[] data) {
+        return data.length >= magic.length
+                && Arrays.equals(data, 0, magic.length, magic, 0, magic.length);
+    }
+
+    public static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteStream);
+        out.write(magic);
+        Deflater deflater = new Deflater();
+        byte[] buffer = new byte[blockSize];
+        try {
+            int startIdx = 0;
+            while (startIdx < data.length) {
+                int endIdx = getBlockEnd(data, startIdx);
+                deflater.reset();
+                deflater.setInput(data, startIdx, endIdx - startIdx);
+                deflater.finish();
+                ByteArrayOutputStream block = new ByteArrayOutputStream();
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    block.write(buffer, 0, length);
+                }
+                out.writeInt(endIdx - startIdx);
+                out.writeInt(block.size());
+                block.writeTo(out);
+                startIdx = endIdx;
+            }
+        } finally {
+            deflater.end();
+        }
+        out.flush();
+        return byteStream.toByteArray();
+    }
+
+    // A block ends after the first line end beyond the block size
+    private static int getBlockEnd(byte[] data, int startIdx) {
+        int idx = Math.min(startIdx + blockSize, data.length);
+        while (idx < data.length && data[idx - 1] != '\n') {
+            idx++;
+        }
+        return idx;
+    }
+
+    public static byte[] decompress(byte[] data) throws DBException {
+        if (!isCompressed(data)) {
+            throw new DBException.DatabaseStorageException("data not block compressed");
+        }
+        List<Integer> blockOffsets = new ArrayList<Integer>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.position(magic.length);
+        long totalLength = 0;
+        while (buffer.hasRemaining()) {
+            blockOffsets.add(buffer.position());
+            if (buffer.remaining() < 2 * Integer.BYTES) {
+                throw new DBException.DatabaseStorageException("truncated block header");
+            }
+            int length = buffer.getInt();
+            int compressedLength = buffer.getInt();
+            if (length < 0 || compressedLength < 0 || compressedLength > buffer.remaining()) {
+                throw new DBException.DatabaseStorageException("invalid block header");
+            }
+            buffer.position(buffer.position() + compressedLength);
+            totalLength += length;
+        }
+        if (totalLength > Integer.MAX_VALUE) {
+            throw new DBException.DatabaseStorageException("decompressed data too large");
+        }
+        byte[][] blocks = new byte[blockOffsets.size()][];
+        IntStream.range(0, blocks.length).parallel().forEach((i) -> {
+            blocks[i] = inflateBlock(data, blockOffsets.get(i));
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) totalLength);
+        for (byte[] block : blocks) {
+            if (block == null) {
+                throw new DBException.DatabaseStorageException("corrupted compressed block");
+            }
+            out.write(block, 0, block.length);
+        }
+        return out.toByteArray();
+    }
+
+    // Returns null if the block is corrupted
+    private static byte[] inflateBlock(byte[] data, int offset) {
+        ByteBuffer header = ByteBuffer.wrap(data, offset, 2 * Integer.BYTES);
+        int length = header.getInt();
+        int compressedLength = header.getInt();
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset + 2 * Integer.BYTES, compressedLength);
+            byte[] block = new byte[length];
+            int inflatedLength = 0;
+            while (inflatedLength < length && !inflater.finished()) {
+                int n = inflater.inflate(block, inflatedLength, length - inflatedLength);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                inflatedLength += n;
+            }
+            return inflatedLength == length && inflater.finished() ? block : null;
+        } catch (DataFormatException corrupted) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+// This class keeps the most recent records appended, numbered from 1,
+// for readers on other threads to wait for the records after those they have.
+// Only `capacity` records are kept, so a reader falling too far behind gets an error.
+// It is the log of both replication and change streams,
+// and its Publisher serves it to readers connecting on a port.
+public class BoundedLog<T extends BoundedLog.Record> {
+    private static final long heartbeatMillis = 1000;
+
+    // A record knows its number in the log
+    public static interface Record {
+        public long getSeq();
+    }
+
+    private final String name; // For error messages, e.g., `replication log`
+    private final int capacity;
+    private final ArrayDeque<T> records;
+    private long lastSeq;
+
+    public BoundedLog(String name, int capacity) {
+        this(name, capacity, 0);
+    }
+
+    // A log going on after `lastSeq`, whose records up to it are no longer kept
+    public BoundedLog(String name, int capacity, long lastSeq) {
+        this.name = name;
+        this.capacity = capacity;
+        this.records = new ArrayDeque<T>();
+        this.lastSeq = lastSeq;
+    }
+
+    // Returns the seq given to the record made by `recordOfSeq`
+    protected synchronized long append(LongFunction<T> recordOfSeq) {
+        this.lastSeq++;
+        this.records.addLast(recordOfSeq.apply(this.lastSeq));
+        if (this.records.size() > this.capacity) {
+            this.records.removeFirst();
+        }
+        notifyAll();
+        return this.lastSeq;
+    }
+
+    public synchronized long getLastSeq() {
+        return this.lastSeq;
+    }
+
+    // Wait at most `timeoutMillis` for records after `seq`, and returns them
+    public synchronized List<T> getRecordsAfter(long seq, long timeoutMillis)
+            throws DBException, InterruptedException {
+        if (seq > this.lastSeq) {
+            throw new DBException("reader is ahead of " + this.name + " at record " + seq);
+        }
+        if (seq == this.lastSeq) {
+            wait(timeoutMillis);
+        }
+        long firstSeq = this.lastSeq - this.records.size() + 1;
+        if (seq + 1 < firstSeq) {
+            throw new DBException(this.name + " no longer has record " + (seq + 1));
+        }
+        List<T> newRecords = new ArrayList<T>();
+        for (T record : this.records) {
+            if (record.getSeq() > seq) {
+                newRecords.add(record);
+            }
+        }
+        return newRecords;
+    }
+
+    // How records are sent to a reader
+    public static interface Sender<T> {
+        // Returns whether anything was sent for the record
+        public boolean sendRecord(DataOutputStream out, T record) throws IOException;
+
+        public void sendHeartbeat(DataOutputStream out) throws IOException;
+
+        public void sendError(DataOutputStream out, String message) throws IOException;
+    }
+
+    // Serve the log to readers connecting on a port, one thread for each reader
+    public static class Publisher<T extends Record> implements Closeable {
+        // Talk to a reader until it is done, or the publisher is closed
+        @FunctionalInterface
+        public static interface Handler {
+            public void serve(DataInputStream in, DataOutputStream out)
+                    throws IOException, InterruptedException;
+        }
+
+        private final BoundedLog<T> log;
+        private final String name; // Of the threads
+        private final Handler handler;
+        private final ServerSocket serverSocket;
+        private final Thread acceptThread;
+        private final Set<Socket> readerSockets;
+        private volatile boolean closed;
+
+        public Publisher(BoundedLog<T> log, int port, String name, Handler handler)
+                throws IOException {
+            this.log = log;
+            this.name = name;
+            this.handler = handler;
+            this.serverSocket = new ServerSocket(port);
+            this.readerSockets = Collections.synchronizedSet(new HashSet<Socket>());
+            this.closed = false;
+            this.acceptThread = startDaemon(this::acceptReaders, name);
+        }
+
+        private void acceptReaders() {
+            while (!this.closed) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    this.readerSockets.add(socket);
+                    startDaemon(() -> serveReader(socket), this.name + "-sender");
+                } catch (IOException e) {
+                    if (!this.closed) {
+                        System.err.println(this.name + " accept error: " + e);
+                    }
+                }
+            }
+        }
+
+        private void serveReader(Socket socket) {
+            try (socket;
+                    DataInputStream in = new DataInputStream(
+                            new BufferedInputStream(socket.getInputStream()));
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(socket.getOutputStream()))) {
+                this.handler.serve(in, out);
+            } catch (IOException | InterruptedException readerGone) {
+            } finally {
+                this.readerSockets.remove(socket);
+            }
+        }
+
+        // Send the records after `seq` as they are appended, until the publisher is closed.
+        // A heartbeat is sent when nothing has been sent for a while,
+        // which also finds out whether the reader is gone.
+        public void sendRecordsAfter(long seq, DataOutputStream out, Sender<T> sender)
+                throws IOException, InterruptedException {
+            long lastSentMillis = System.currentTimeMillis();
+            while (!this.closed) {
+                List<T> records;
+                try {
+                    records = this.log.getRecordsAfter(seq, heartbeatMillis);
+                } catch (DBException e) {
+                    sender.sendError(out, e.getMessage());
+                    out.flush();
+                    return;
+                }
+                for (T record : records) {
+                    seq = record.getSeq();
+                    if (sender.sendRecord(out, record)) {
+                        lastSentMillis = System.currentTimeMillis();
+                    }
+                }
+                if (System.currentTimeMillis() - lastSentMillis >= heartbeatMillis) {
+                    sender.sendHeartbeat(out);
+                    lastSentMillis = System.currentTimeMillis();
+                }
+                out.flush();
+            }
+        }
+
+        // The port is only released once the thread accepting on it has stopped,
+        // so this waits for that, and a server started again can listen on the port
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            this.serverSocket.close();
+            synchronized (this.readerSockets) {
+                for (Socket socket : this.readerSockets) {
+                    socket.close();
+                }
+            }
+            try {
+                this.acceptThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static Thread startDaemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,213 @@
+package edu.uob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// This class pushes the changes to entities of subscribed tables to clients,
+// so they need not poll with SELECTs to find out what has changed.
+//
+// A subscriber connects to the change stream port as a client of the binary protocol,
+// and sends a command naming the tables, e.g., `SUBSCRIBE t, u FROM db;`.
+// The server answers with an empty result, or an error, then sends a result of one row
+// for each insert, update or delete of an entity of those tables from then on.
+// The columns of the row are `seq`, `operation`, `table`, `id`,
+// then the attributes inserted or updated, with their new values.
+// An empty result is sent as a heartbeat when there have been no changes for a while.
+// Only the most recent changes are kept,
+// so a subscriber falling too far behind gets an error and is disconnected.
+public class ChangeStream {
+    private static final int maxHandshakeLength = 64;
+
+    // A change to an entity, with the attributes set by it
+    public static class Change implements BoundedLog.Record {
+        private final long seq;
+        private final String databaseName;
+        private final String tableName;
+        private final String operation; // insert, update or delete
+        private final long id;
+        private final List<String> attrNames;
+        private final List<String> values;
+
+        private Change(long seq, String databaseName, String tableName, String operation,
+                long id, List<String> attrNames, List<String> values) {
+            this.seq = seq;
+            this.databaseName = databaseName;
+            this.tableName = tableName;
+            this.operation = operation;
+            this.id = id;
+            this.attrNames = attrNames;
+            this.values = values;
+        }
+
+        @Override
+        public long getSeq() {
+            return this.seq;
+        }
+
+        public String getDatabaseName() {
+            return this.databaseName;
+        }
+
+        public String getTableName() {
+            return this.tableName;
+        }
+
+        // The header row then the row of the change
+        public Result toResult() {
+            List<String> header = new ArrayList<String>(
+                    List.of("seq", "operation", "table", Grammar.getIdAttrName()));
+            header.addAll(this.attrNames);
+            List<String> row = new ArrayList<String>(List.of(String.valueOf(this.seq),
+                    this.operation, this.tableName, String.valueOf(this.id)));
+            row.addAll(this.values);
+            Result result = new Result();
+            result.addRow(header);
+            result.addRow(row);
+            return result;
+        }
+    }
+
+    // The most recent changes, numbered from 1, and the tables subscribed to.
+    // Tables are named by `[database].[table]` in lower case.
+    public static class Log extends BoundedLog<Change> {
+        private final HashMap<String, Integer> numberOfSubscribers;
+
+        public Log(int capacity) {
+            super("change log", capacity);
+            this.numberOfSubscribers = new HashMap<String, Integer>();
+        }
+
+        private static String getKey(String databaseName, String tableName) {
+            return (databaseName + "." + tableName).toLowerCase();
+        }
+
+        // Changes of tables nobody subscribes to need not be appended
+        public synchronized boolean isSubscribed(String databaseName, String tableName) {
+            return this.numberOfSubscribers.containsKey(getKey(databaseName, tableName));
+        }
+
+        // Returns the seq of the last change before the subscription
+        private synchronized long subscribe(Set<String> keys) {
+            for (String key : keys) {
+                this.numberOfSubscribers.merge(key, 1, Integer::sum);
+            }
+            return getLastSeq();
+        }
+
+        private synchronized void unsubscribe(Set<String> keys) {
+            for (String key : keys) {
+                this.numberOfSubscribers.computeIfPresent(key,
+                        (k, n) -> n == 1 ? null : n - 1);
+            }
+        }
+
+        public long append(String databaseName, String tableName, String operation,
+                long id, List<String> attrNames, List<String> values) {
+            return append((seq) -> new Change(seq, databaseName.toLowerCase(),
+                    tableName.toLowerCase(), operation, id, attrNames, values));
+        }
+    }
+
+    // Serve the log to subscribers, one thread for each subscriber
+    public static class Publisher implements Closeable {
+        private final Log log;
+        private final BoundedLog.Publisher<Change> publisher;
+
+        public Publisher(Log log, int port) throws IOException {
+            this.log = log;
+            this.publisher = new BoundedLog.Publisher<Change>(log, port, "change-publisher",
+                    this::serveSubscriber);
+        }
+
+        private void serveSubscriber(DataInputStream in, DataOutputStream out)
+                throws IOException, InterruptedException {
+            if (!readLine(in).equals(BinaryProtocol.handshake)) {
+                return;
+            }
+            out.write((BinaryProtocol.handshake + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            byte[] payload = BinaryProtocol.readFrame(in);
+            if (payload == null) {
+                return;
+            }
+            Set<String> keys;
+            try {
+                keys = getSubscribedKeys(BinaryProtocol.decodeCommand(payload));
+            } catch (DBException e) {
+                out.write(BinaryProtocol.encodeError(e.getMessage()));
+                out.flush();
+                return;
+            }
+            long seq = this.log.subscribe(keys);
+            try {
+                out.write(BinaryProtocol.encodeResult(new Result()));
+                out.flush();
+                this.publisher.sendRecordsAfter(seq, out, new BoundedLog.Sender<Change>() {
+                    @Override
+                    public boolean sendRecord(DataOutputStream out, Change change)
+                            throws IOException {
+                        if (!keys.contains(Log.getKey(change.getDatabaseName(),
+                                change.getTableName()))) {
+                            return false;
+                        }
+                        out.write(BinaryProtocol.encodeResult(change.toResult()));
+                        return true;
+                    }
+
+                    @Override
+                    public void sendHeartbeat(DataOutputStream out) throws IOException {
+                        out.write(BinaryProtocol.encodeResult(new Result()));
+                    }
+
+                    @Override
+                    public void sendError(DataOutputStream out, String message)
+                            throws IOException {
+                        out.write(BinaryProtocol.encodeError(message));
+                    }
+                });
+            } finally {
+                this.log.unsubscribe(keys);
+            }
+        }
+
+        private static Set<String> getSubscribedKeys(String command) throws DBException {
+            Task task = Grammar.parseCommand(command);
+            if (!(task instanceof Task.SubscribeTask)) {
+                throw new DBException("expect a SUBSCRIBE command on the change stream");
+            }
+            Task.SubscribeTask subscribeTask = (Task.SubscribeTask) task;
+            Set<String> keys = new HashSet<String>();
+            for (String tableName : subscribeTask.getTableNames()) {
+                keys.add(Log.getKey(subscribeTask.getDatabaseName(), tableName));
+            }
+            return keys;
+        }
+
+        // The handshake line, or any other text up to a limited length
+        private static String readLine(DataInputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n' && line.size() < maxHandshakeLength) {
+                if (b < 0) {
+                    throw new IOException("subscriber disconnected");
+                }
+                line.write(b);
+            }
+            return new String(line.toByteArray(), StandardCharsets.UTF_8).trim();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.publisher.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package edu.uob;
 
+import java.util.BitSet;
+
 // This class represents a condition by which table entities are chosen.
 public interface Condition {
     // Conditions are combinations of the form "attributeName op targetValue".
@@ -9,11 +11,66 @@ public interface Condition {
     // Obviously, a value mapper is associated with a table entity.
     public boolean evaluate(ValueMapper valueMapper) throws DBException;
 
+    // Replace the placeholders inside a prepared condition with actual values.
+    // Conditions without placeholders are returned as they are.
+    public default Condition bindParameters(Parameters parameters) throws DBException {
+        return this;
+    }
+
+    // Evaluate the condition over a block of entities at once.
+    // On entry, `selection` marks the rows of the block still to be checked;
+    // on return, only the marked rows for which the condition holds are left.
+    // By default the rows are evaluated one by one.
+    public default void evaluateBlock(Block block, BitSet selection) throws DBException {
+        for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+            if (!evaluate(block.getValueMapper(i))) {
+                selection.clear(i);
+            }
+        }
+    }
+
+    // A value the key must equal for the condition to hold, or null if there is none.
+    // It lets a table look only where entities with that value are kept.
+    public default String getRequiredValue(String key) {
+        return null;
+    }
+
     @FunctionalInterface
     public static interface ValueMapper {
         public String getValueByKey(String key) throws DBException;
     }
 
+    // A block of table entities, whose values are read column by column
+    public static interface Block {
+        public int size();
+
+        // Values of the key for every row of the block
+        public String[] getColumn(String key) throws DBException;
+
+        public default ValueMapper getValueMapper(int row) {
+            return (key) -> getColumn(key)[row];
+        }
+
+        // The dictionary of the key, if its values are dictionary encoded,
+        // otherwise null
+        public default Dictionary getDictionary(String key) throws DBException {
+            return null;
+        }
+
+        // Dictionary codes of the key for every row of the block,
+        // i.e., the value of row i is `getDictionary(key).getValue(getCodes(key)[i])`
+        public default int[] getCodes(String key) throws DBException {
+            return null;
+        }
+    }
+
+    // Distinct values of a column, each identified by an int code
+    public static interface Dictionary {
+        public int size();
+
+        public String getValue(int code);
+    }
+
     // Turns a condition cond into `!cond`.
     // Be careful with negation, e.g., should `NULL < 0` == !`NULL >= 0` or not
     public static Condition negate(Condition cond) {
@@ -24,6 +81,16 @@ public interface Condition {
                 }
                 return !cond.evaluate(valueMapper);
             }
+
+            @Override
+            public void evaluateBlock(Block block, BitSet selection) throws DBException {
+                if (cond == null) {
+                    throw new DBException.NullObjectException("negating null condition");
+                }
+                BitSet holds = (BitSet) selection.clone();
+                cond.evaluateBlock(block, holds);
+                selection.andNot(holds);
+            }
         };
     }
 }
@@ -0,0 +1,118 @@
+package edu.uob;
+
+// This class reads server options from system properties,
+// e.g., `-Dcwdb.offHeapStorage=true`.
+// Options are read when needed, so they can be changed between tables or servers.
+public class Config {
+    private static final String propertyPrefix = "cwdb.";
+
+    // Whether new tables keep their rows outside the Java heap
+    public static boolean isOffHeapStorage() {
+        return getBoolean("offHeapStorage", false);
+    }
+
+    // Whether table files are stored block compressed.
+    // Compressed files are recognised when loading, whatever this option is.
+    public static boolean isTableCompression() {
+        return getBoolean("compressTables", false);
+    }
+
+    // How many threads run the commands of non-blocking connections
+    public static int getNumberOfWorkers() {
+        return getInt("workerThreads", Runtime.getRuntime().availableProcessors());
+    }
+
+    // The port a primary server ships its changes on, or 0 if it does not replicate
+    public static int getReplicationPort() {
+        return getInt("replicationPort", 0);
+    }
+
+    // How many recent changes a primary keeps for followers to catch up with
+    public static int getReplicationLogCapacity() {
+        return getInt("replicationLogCapacity", 100000);
+    }
+
+    // `host:port` of the primary server to follow, or null if this is not a follower
+    public static String getPrimaryAddress() {
+        return getProperty("primary");
+    }
+
+    // The port changes of tables are pushed to subscribers on, or 0 if they are not
+    public static int getChangeStreamPort() {
+        return getInt("changeStreamPort", 0);
+    }
+
+    // How many recent changes are kept for subscribers to catch up with
+    public static int getChangeLogCapacity() {
+        return getInt("changeLogCapacity", 100000);
+    }
+
+    // The file metrics are dumped to periodically, or null if they are not dumped
+    public static String getStatsFile() {
+        return getProperty("statsFile");
+    }
+
+    // Seconds between dumps of metrics
+    public static int getStatsInterval() {
+        return getInt("statsInterval", 60);
+    }
+
+    // Bytes of rows a join or sort keeps in memory before spilling to files
+    public static int getOperatorMemory() {
+        return getInt("operatorMemory", 64 * 1024 * 1024);
+    }
+
+    // Bytes a joined or sorted result may take in memory before its command fails
+    public static int getMaxResultSize() {
+        return getInt("maxResultSize", 256 * 1024 * 1024);
+    }
+
+    // Bytes of results kept by the result cache, none if not positive
+    public static int getResultCacheSize() {
+        return getInt("resultCacheSize", 16 * 1024 * 1024);
+    }
+
+    // Commands taking at least this many milliseconds are logged, none if negative
+    public static int getSlowQueryThreshold() {
+        return getInt("slowQueryThreshold", -1);
+    }
+
+    // The slow query log file, or null for `slow-queries.log` in the storage folder
+    public static String getSlowQueryLogFile() {
+        return getProperty("slowQueryLog");
+    }
+
+    // Bytes of the slow query log before it is rotated
+    public static int getSlowQueryLogSize() {
+        return getInt("slowQueryLogSize", 10 * 1024 * 1024);
+    }
+
+    // Rotated slow query logs kept, as `[log].1` (the newest) to `[log].[n]`
+    public static int getSlowQueryLogFiles() {
+        return getInt("slowQueryLogFiles", 5);
+    }
+
+    private static String getProperty(String name) {
+        return System.getProperty(propertyPrefix + name);
+    }
+
+    private static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    private static int getInt(String name, int defaultValue) {
+        String value = getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// This class is a cursor declared over a SELECT, whose rows are fetched a batch at a time.
+// It keeps the range of ids still to fetch rather than any rows,
+// so its memory does not grow with the number of rows the SELECT returns.
+// Rows are fetched in id order, or descending if the SELECT orders by id descending.
+// Entities inserted after the cursor is declared are not fetched,
+// but those updated or deleted before they are fetched are fetched as they are then.
+public class Cursor {
+    private static final long skipBatchSize = 1024; // Entities skipped for OFFSET at once
+
+    private final String name;
+    private final Task.SelectTask task;
+    private final Database database;
+    private final Table table; // The cursor is invalid once the table is dropped
+    private long fromId;
+    private long toId; // Exclusive
+    private long numberToSkip;
+    private long numberLeft; // Negative means no limit
+
+    public Cursor(String name, Task.SelectTask task, Database database, Table table) {
+        this.name = name;
+        this.task = task;
+        this.database = database;
+        this.table = table;
+        this.fromId = 0;
+        this.toId = table.getNextId();
+        this.numberToSkip = task.getOffset();
+        this.numberLeft = task.getLimit();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Task.SelectTask getTask() {
+        return this.task;
+    }
+
+    public Database getDatabase() {
+        return this.database;
+    }
+
+    public Table getTable() {
+        return this.table;
+    }
+
+    public boolean isExhausted() {
+        return this.fromId >= this.toId || this.numberLeft == 0;
+    }
+
+    // The next at most `count` entities, which are not fetched again
+    public List<Table.Entity> fetch(long count) throws DBException {
+        while (this.numberToSkip > 0 && !isExhausted()) {
+            this.numberToSkip -= choose(Math.min(this.numberToSkip, skipBatchSize)).size();
+        }
+        if (isExhausted() || count <= 0) {
+            return new ArrayList<Table.Entity>();
+        }
+        if (this.numberLeft >= 0) {
+            count = Math.min(count, this.numberLeft);
+        }
+        List<Table.Entity> entities = choose(count);
+        if (this.numberLeft >= 0) {
+            this.numberLeft -= entities.size();
+        }
+        return entities;
+    }
+
+    // Choose the next entities in the range, then move the range past them.
+    // If fewer are chosen than asked for, none are left.
+    private List<Table.Entity> choose(long count) throws DBException {
+        boolean descending = this.task.isDescending();
+        List<Table.Entity> entities = this.table.chooseEntitiesInIdRange(
+                this.task.getCondition(), this.fromId, this.toId, descending, count);
+        if (entities.size() < count) {
+            this.fromId = this.toId;
+        } else if (descending) {
+            this.toId = entities.get(entities.size() - 1).getId();
+        } else {
+            this.fromId = entities.get(entities.size() - 1).getId() + 1;
+        }
+        return entities;
+    }
+}
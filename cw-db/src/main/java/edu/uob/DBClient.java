@@ -1,17 +1,47 @@
 package edu.uob;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DBClient {
 
     private static final char END_OF_TRANSMISSION = 4;
 
+    // Usage: DBClient [--batch [command file]]
+    // In batch mode, the commands (one per line, from the file or standard input)
+    // are sent without waiting for responses, and the responses are printed in order.
     public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            BufferedReader batchInput = args.length > 1
+                    ? Files.newBufferedReader(Paths.get(args[1]))
+                    : new BufferedReader(new InputStreamReader(System.in));
+            List<String> commands = new ArrayList<String>();
+            String command;
+            while ((command = batchInput.readLine()) != null) {
+                if (command.trim().length() > 0) {
+                    commands.add(command);
+                }
+            }
+            for (String response : sendBatch("localhost", 8888, commands)) {
+                System.out.print(response);
+            }
+            return;
+        }
         BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
         try (Socket socket = new Socket("localhost", 8888);
         BufferedReader socketReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
@@ -37,4 +67,131 @@ public class DBClient {
             incomingMessage = socketReader.readLine();
         }
     }
+
+    // Send all the commands back to back, and return their responses in order.
+    // Responses are read while commands are still being sent,
+    // so neither side waits for the other to drain the connection.
+    public static List<String> sendBatch(String host, int port, List<String> commands)
+            throws IOException {
+        try (Socket socket = new Socket(host, port);
+                BufferedReader socketReader = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream()));
+                BufferedWriter socketWriter = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream()))) {
+            List<IOException> sendFailures = new ArrayList<IOException>();
+            Thread sender = new Thread(() -> {
+                try {
+                    for (String command : commands) {
+                        socketWriter.write(command + "\n");
+                    }
+                    socketWriter.flush();
+                } catch (IOException e) {
+                    synchronized (sendFailures) {
+                        sendFailures.add(e);
+                    }
+                }
+            });
+            sender.start();
+            List<String> responses = new ArrayList<String>();
+            for (int i = 0; i < commands.size(); ++i) {
+                responses.add(readResponse(socketReader));
+            }
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while sending commands", e);
+            }
+            synchronized (sendFailures) {
+                if (!sendFailures.isEmpty()) {
+                    throw sendFailures.get(0);
+                }
+            }
+            return responses;
+        }
+    }
+
+    // A connection speaking the binary protocol, for clients that process the results.
+    // Commands may be sent ahead of reading their responses, which come back in order.
+    public static class BinaryConnection implements Closeable {
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        // The handshake is sent, and the connection fails unless the server echoes it
+        public BinaryConnection(String host, int port) throws IOException {
+            this.socket = new Socket(host, port);
+            try {
+                this.input = new DataInputStream(
+                        new BufferedInputStream(this.socket.getInputStream()));
+                this.output = new DataOutputStream(
+                        new BufferedOutputStream(this.socket.getOutputStream()));
+                this.output.write((BinaryProtocol.handshake + "\n")
+                        .getBytes(StandardCharsets.UTF_8));
+                this.output.flush();
+                String reply = readHandshakeReply();
+                if (!reply.equals(BinaryProtocol.handshake)) {
+                    throw new IOException("server does not speak the binary protocol: " + reply);
+                }
+            } catch (IOException e) {
+                this.socket.close();
+                throw e;
+            }
+        }
+
+        private String readHandshakeReply() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = this.input.read()) != '\n') {
+                if (b < 0) {
+                    throw new IOException("Server disconnected (end-of-stream)");
+                }
+                if (line.size() > BinaryProtocol.handshake.length()) {
+                    break; // Not the handshake, e.g., an error in text
+                }
+                line.write(b);
+            }
+            return new String(line.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        public BinaryProtocol.Response execute(String command) throws IOException {
+            send(command);
+            flush();
+            return receive();
+        }
+
+        public void send(String command) throws IOException {
+            this.output.write(BinaryProtocol.encodeCommand(command));
+        }
+
+        public void flush() throws IOException {
+            this.output.flush();
+        }
+
+        public BinaryProtocol.Response receive() throws IOException {
+            byte[] payload = BinaryProtocol.readFrame(this.input);
+            if (payload == null) {
+                throw new IOException("Server disconnected (end-of-stream)");
+            }
+            return BinaryProtocol.decodeResponse(payload);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.socket.close();
+        }
+    }
+
+    // A response is the lines up to the END_OF_TRANSMISSION line
+    static String readResponse(BufferedReader socketReader) throws IOException {
+        StringBuilder response = new StringBuilder();
+        String line = socketReader.readLine();
+        while (line != null && !line.contains("" + END_OF_TRANSMISSION)) {
+            response.append(line).append("\n");
+            line = socketReader.readLine();
+        }
+        if (line == null) {
+            throw new IOException("Server disconnected (end-of-stream)");
+        }
+        return response.toString();
+    }
 }
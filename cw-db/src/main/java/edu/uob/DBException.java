@@ -28,6 +28,16 @@ public class DBException extends Exception {
         }
     }
 
+    public static class ResultTooLargeException extends DBException {
+        @Serial
+        private static final long serialVersionUID = 1;
+
+        public ResultTooLargeException(long maxSize) {
+            super("result takes more than " + maxSize
+                    + " bytes, ask for fewer rows by LIMIT or fetch them by a cursor");
+        }
+    }
+
     public static class InvalidDatabaseNameException extends DBException {
         @Serial
         private static final long serialVersionUID = 1;
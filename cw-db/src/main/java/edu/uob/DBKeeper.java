@@ -4,31 +4,68 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 // This class represents a collection of databases.
 // It is also the executor of user commands.
 public class DBKeeper {
     private static final String databasesMetaFileName = "databases.meta";
+    private static final String snapshotsDirName = "snapshots";
+    private static final String spillDirName = "spill"; // Temporary files of joins and sorts
     private static final char metaFormatBracketLeft = '{';
     private static final char metaFormatBracketRight = '}';
     private static final String metaFormatDelim = ";";
+    private static final String replicatedMetaPrefix = "replicated:";
 
     private HashMap<String, Database> databases;
-    private Database currentDb;
+    private Session session; // Of the connection whose command is executed
     private boolean updatedByTask; // Whether databases changed by user command
+    private String storageDirectoryPath; // Where databases are loaded from or stored to
+    private boolean readOnly; // Whether commands changing databases are refused
+    private Replication.Status replicationStatus; // null if not replicating
+    private Metrics metrics; // Shown by `SHOW STATS`, null if not collected
+    private long rowsScanned; // By the last task
+    private ResultCache resultCache; // null if results are not cached
+    private final long operatorMemory; // Bytes of rows a join or sort keeps in memory
+    private final long maxResultSize; // Bytes a joined or sorted result may take
+    private int lastJoinPartitions; // Spilled by the last join, 0 if joined in memory
+    private ChangeStream.Log changeLog; // Changes pushed to subscribers, null if none
+    private final List<Runnable> unpublishedChanges; // Appends to the log once stored
+    private Long replicatedEpoch; // Of the primary the databases are of, null if none
+    private long replicatedSeq; // Of the last entry of the primary included in the databases
+    // Databases replaced by reloading, by name, for sessions still using them
+    private final WeakHashMap<Database, String> replacedDatabases;
 
     public DBKeeper() {
         this.databases = new HashMap<String, Database>();
-        this.currentDb = null;
+        this.session = new Session();
         this.updatedByTask = false;
+        this.storageDirectoryPath = null;
+        this.readOnly = false;
+        this.replicationStatus = null;
+        this.metrics = null;
+        this.rowsScanned = 0;
+        long resultCacheSize = Config.getResultCacheSize();
+        this.resultCache = resultCacheSize > 0 ? new ResultCache(resultCacheSize) : null;
+        this.operatorMemory = Config.getOperatorMemory();
+        this.maxResultSize = Config.getMaxResultSize();
+        this.lastJoinPartitions = 0;
+        this.changeLog = null;
+        this.unpublishedChanges = new ArrayList<Runnable>();
+        this.replicatedEpoch = null;
+        this.replicatedSeq = 0;
+        this.replacedDatabases = new WeakHashMap<Database, String>();
     }
 
     // Load all the databases from given directory.
@@ -38,6 +75,7 @@ public class DBKeeper {
             throw new DBException.NullObjectException(
                     "loading database keeper from null directory");
         }
+        this.storageDirectoryPath = directoryPath;
         Path metaFilePath = Paths.get(directoryPath, databasesMetaFileName);
         if (!metaFilePath.toFile().isFile()) {
             throw new DBException.DatabaseStorageException(
@@ -48,6 +86,8 @@ public class DBKeeper {
 
     // A meta file contains a meta string.
     // A meta string describes all existing databases.
+    // On a replication primary or follower, it is followed by the last entry stored,
+    // e.g., `replicated: [epoch] [seq]`.
     // Files.readAllBytes also throws Error.
     // Files.readAllBytes also throws RuntimeException.
     public void loadByMetaFile(Path metaFilePath) throws DBException, IOException {
@@ -56,7 +96,28 @@ public class DBKeeper {
                     "loading database keeper from null meta file");
         }
         String meta = new String(Files.readAllBytes(metaFilePath));
-        loadByMetaString(meta, metaFilePath.getParent());
+        int endIdx = meta.lastIndexOf(metaFormatBracketRight) + 1;
+        loadByMetaString(meta.substring(0, endIdx), metaFilePath.getParent());
+        loadReplicatedPosition(meta.substring(endIdx).trim());
+    }
+
+    private void loadReplicatedPosition(String position) throws DBException {
+        this.replicatedEpoch = null;
+        this.replicatedSeq = 0;
+        if (position.length() == 0) {
+            return;
+        }
+        String[] fields = position.split("\\s+");
+        try {
+            if (fields.length == 3 && fields[0].equals(replicatedMetaPrefix)) {
+                this.replicatedEpoch = Long.parseLong(fields[1]);
+                this.replicatedSeq = Long.parseLong(fields[2]);
+                return;
+            }
+        } catch (NumberFormatException notNumber) {
+        }
+        throw new DBException.DatabaseStorageException(
+                "ill-formatted replication position: " + position);
     }
 
     public void loadByMetaString(String meta, Path databasesDirPath)
@@ -110,6 +171,7 @@ public class DBKeeper {
             throw new DBException.NullObjectException(
                     "storing database keeper to null directory");
         }
+        this.storageDirectoryPath = directoryPath;
         Path metaFilePath = Paths.get(directoryPath, databasesMetaFileName);
         Files.createDirectories(metaFilePath.getParent());
         ArrayList<String> dbDescriptions = new ArrayList<String>();
@@ -125,12 +187,68 @@ public class DBKeeper {
         }
         meta = meta.replace("\n", "\n  ") + "\n";
         meta = String.valueOf(metaFormatBracketLeft) + meta + metaFormatBracketRight;
-        Files.write(metaFilePath, meta.getBytes(), StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING);
+        if (this.replicatedEpoch != null) {
+            meta += "\n" + replicatedMetaPrefix + " " + this.replicatedEpoch + " "
+                    + this.replicatedSeq + "\n";
+        }
+        StorageFiles.writeAtomically(metaFilePath, meta.getBytes());
+    }
+
+    // Files of the stored databases, with the meta file last
+    private List<String> getStoredFileNames() throws DBException {
+        List<String> fileNames = new ArrayList<String>();
+        for (Map.Entry<String, Database> entry : this.databases.entrySet()) {
+            fileNames.addAll(entry.getValue().getTableFileNames(entry.getKey()));
+        }
+        fileNames.add(databasesMetaFileName);
+        return fileNames;
+    }
+
+    public static Path getSnapshotPath(String directoryPath, String snapshotName) {
+        return Paths.get(directoryPath, snapshotsDirName, snapshotName.toLowerCase());
+    }
+
+    // Replace the databases stored in given directory by those of a snapshot.
+    // This is done before a server loads the directory.
+    public static void restoreSnapshot(String directoryPath, String snapshotName)
+            throws DBException, IOException {
+        if (directoryPath == null || snapshotName == null) {
+            throw new DBException.NullObjectException("restoring null snapshot");
+        }
+        Path snapshotPath = getSnapshotPath(directoryPath, snapshotName);
+        if (!snapshotPath.resolve(databasesMetaFileName).toFile().isFile()) {
+            throw new DBException.DatabaseStorageException(
+                    "cannot find complete snapshot " + snapshotPath.toString());
+        }
+        List<String> fileNames = new ArrayList<String>();
+        try (Stream<Path> files = Files.list(snapshotPath)) {
+            files.map((file) -> file.getFileName().toString())
+                    .filter((fileName) -> !fileName.equals(databasesMetaFileName))
+                    .forEach(fileNames::add);
+        }
+        fileNames.add(databasesMetaFileName);
+        StorageFiles.linkOrCopy(snapshotPath, Paths.get(directoryPath), fileNames);
     }
 
     public Result executeTask(Task task) throws DBException {
+        if (this.readOnly && task.isMutating()) {
+            throw new DBException("databases are read-only on a replication follower");
+        }
+        this.rowsScanned = 0;
+        Database currentDb = this.session.getCurrentDatabase();
+        long numberOfScannedRows = currentDb == null ? 0 : currentDb.getNumberOfScannedRows();
+        try {
+            return executeAnyTask(task);
+        } finally {
+            // Tables dropped by the task are no longer counted
+            if (currentDb != null) {
+                this.rowsScanned = Math.max(0,
+                        currentDb.getNumberOfScannedRows() - numberOfScannedRows);
+            }
+        }
+    }
+
+    private Result executeAnyTask(Task task) throws DBException {
         if (task instanceof Task.UseTask) {
             return executeUse((Task.UseTask) task);
         } else if (task instanceof Task.CreateDatabaseTask) {
@@ -146,18 +264,68 @@ public class DBKeeper {
         } else if (task instanceof Task.InsertTask) {
             return executeInsert((Task.InsertTask) task);
         } else if (task instanceof Task.SelectTask) {
-            return executeSelect((Task.SelectTask) task);
+            Task.SelectTask selectTask = (Task.SelectTask) task;
+            return executeCached(task, Arrays.asList(selectTask.getTableName()),
+                    () -> executeSelect(selectTask));
         } else if (task instanceof Task.UpdateTask) {
             return executeUpdate((Task.UpdateTask) task);
         } else if (task instanceof Task.DeleteTask) {
             return executeDelete((Task.DeleteTask) task);
         } else if (task instanceof Task.JoinTask) {
-            return executeJoin((Task.JoinTask) task);
+            Task.JoinTask joinTask = (Task.JoinTask) task;
+            return executeCached(task, Arrays.asList(joinTask.getTableNameOne(),
+                    joinTask.getTableNameTwo()), () -> executeJoin(joinTask));
+        } else if (task instanceof Task.PrepareTask) {
+            return executePrepare((Task.PrepareTask) task);
+        } else if (task instanceof Task.ExecuteTask) {
+            return executeExecute((Task.ExecuteTask) task);
+        } else if (task instanceof Task.SnapshotTask) {
+            return executeSnapshot((Task.SnapshotTask) task);
+        } else if (task instanceof Task.ShowTask) {
+            return executeShow((Task.ShowTask) task);
+        } else if (task instanceof Task.DeclareTask) {
+            return executeDeclare((Task.DeclareTask) task);
+        } else if (task instanceof Task.FetchTask) {
+            return executeFetch((Task.FetchTask) task);
+        } else if (task instanceof Task.CloseTask) {
+            return executeClose((Task.CloseTask) task);
+        } else if (task instanceof Task.SubscribeTask) {
+            throw new DBException("subscriptions are only accepted on the change stream port");
         } else {
             throw new DBException("executing unknown type of task");
         }
     }
 
+    // The databases are stored again, then the stored files are hard linked
+    // into `snapshots/[name]` of the storage directory.
+    // Stored files are replaced rather than rewritten, so links keep the snapshot intact,
+    // and no table is copied unless the file system does not support links.
+    private Result executeSnapshot(Task.SnapshotTask task) throws DBException {
+        takeSnapshot(task.getSnapshotName());
+        return new Result();
+    }
+
+    // Returns the names of the files of the snapshot, with the meta file last
+    public List<String> takeSnapshot(String snapshotName) throws DBException {
+        if (this.storageDirectoryPath == null) {
+            throw new DBException("no storage directory to take snapshot of");
+        }
+        Path snapshotPath = getSnapshotPath(this.storageDirectoryPath, snapshotName);
+        if (snapshotPath.toFile().exists()) {
+            throw new DBException.DatabaseStorageException(
+                    "snapshot " + snapshotName + " already exists");
+        }
+        try {
+            storeToDirectory(this.storageDirectoryPath);
+            List<String> fileNames = getStoredFileNames();
+            StorageFiles.linkOrCopy(Paths.get(this.storageDirectoryPath), snapshotPath,
+                    fileNames);
+            return fileNames;
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException("cannot take snapshot: " + e);
+        }
+    }
+
     private Result executeUse(Task.UseTask task) throws DBException {
         setCurrentDatabase(task.getDatabaseName());
         return new Result();
@@ -175,6 +343,9 @@ public class DBKeeper {
         String tableName = task.getTableName();
         Table table = new Table();
         table.addAttrFields(task.getAttrNames());
+        if (task.getPartitionKey() != null) {
+            table.partitionBy(task.getPartitionKey(), task.getNumberOfPartitions());
+        }
         getCurrentDatabase().addTable(tableName, table);
         setUpdatedByTask();
         return new Result();
@@ -183,15 +354,50 @@ public class DBKeeper {
     private Result executeDropDatabase(Task.DropDatabaseTask task) throws DBException {
         dropDatabase(task.getDatabaseName());
         setUpdatedByTask();
+        clearResultCache(); // Dropped tables are not kept by cached results
         return new Result();
     }
 
     private Result executeDropTable(Task.DropTableTask task) throws DBException {
         getCurrentDatabase().dropTable(task.getTableName());
         setUpdatedByTask();
+        clearResultCache();
         return new Result();
     }
 
+    // A task read from tables is executed once for as long as they are unchanged,
+    // and the same task in the same database is then served from the result cache.
+    // Tasks not parsed from a command, e.g., those bound to parameters, are not cached.
+    private Result executeCached(Task task, List<String> tableNames, Execution execution)
+            throws DBException {
+        String normalisedCommand = task.getNormalisedCommand();
+        if (this.resultCache == null || normalisedCommand == null) {
+            return execution.execute();
+        }
+        List<Table> tables = new ArrayList<Table>();
+        for (String tableName : tableNames) {
+            tables.add(getCurrentDatabase().getTable(tableName));
+        }
+        String key = getCurrentDatabaseName() + "\n" + normalisedCommand;
+        Result result = this.resultCache.get(key, tables);
+        if (result == null) {
+            result = execution.execute();
+            this.resultCache.put(key, tables, result);
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private static interface Execution {
+        public Result execute() throws DBException;
+    }
+
+    private void clearResultCache() {
+        if (this.resultCache != null) {
+            this.resultCache.clear();
+        }
+    }
+
     private Result executeAlter(Task.AlterTask task) throws DBException {
         Table table = getCurrentDatabase().getTable(task.getTableName());
         if (task.isAdding()) {
@@ -205,15 +411,36 @@ public class DBKeeper {
 
     private Result executeInsert(Task.InsertTask task) throws DBException {
         Table table = getCurrentDatabase().getTable(task.getTableName());
+        long id = table.getNextId();
         table.addEntity(task.getValues());
         setUpdatedByTask();
+        String databaseName = getSubscribedDatabaseName(task.getTableName());
+        if (databaseName != null) {
+            List<String> attrNames = new ArrayList<String>(table.getAttributeNames());
+            List<String> values = new ArrayList<String>(task.getValues());
+            this.unpublishedChanges.add(() -> this.changeLog.append(databaseName,
+                    task.getTableName(), "insert", id, attrNames, values));
+        }
         return new Result();
     }
 
     private Result executeSelect(Task.SelectTask task) throws DBException {
+        if (task.isAggregating()) {
+            return executeAggregate(task);
+        }
         // Better to implement inside Table class
         Table table = getCurrentDatabase().getTable(task.getTableName());
-        List<Table.Entity> chosenEntities = table.chooseEntities(task.getCondition());
+        List<Table.Entity> chosenEntities;
+        if (task.getOrderAttrName() == null) {
+            chosenEntities = table.chooseEntities(task.getCondition(),
+                    task.getOffset(), task.getLimit());
+        } else if (table.needsSort(task.getOrderAttrName(), task.getOffset(), task.getLimit())) {
+            return executeSortedSelect(task, table);
+        } else {
+            chosenEntities = table.chooseOrderedEntities(task.getCondition(),
+                    task.getOrderAttrName(), task.isDescending(),
+                    task.getOffset(), task.getLimit());
+        }
         List<String> attrSelection = task.getSelection();
         Table.AttrIdFieldGetter attrGetter = table.getAttrIdFieldGetter(attrSelection);
         Result result = new Result();
@@ -224,6 +451,89 @@ public class DBKeeper {
         return result;
     }
 
+    // Hash aggregation over the chosen entities
+    private Result executeAggregate(Task.SelectTask task) throws DBException {
+        Table table = getCurrentDatabase().getTable(task.getTableName());
+        List<Aggregate> aggregates = task.getAggregates();
+        List<String> groupAttrNames = task.getGroupAttrNames();
+        Table.AttrIdFieldGetter groupGetter = table.getAttrIdFieldGetter(groupAttrNames);
+        Table.AttrIdFieldGetter valueGetter = table.getAttrIdFieldGetter(aggregates.stream()
+                .map((aggregate) -> aggregate.getAttrName()).collect(Collectors.toList()));
+        // Groups are kept in the order they are met
+        LinkedHashMap<List<String>, List<Aggregate.Accumulator>> groups =
+                new LinkedHashMap<List<String>, List<Aggregate.Accumulator>>();
+        for (Table.Entity e : table.chooseEntities(task.getCondition())) {
+            List<String> groupKey = new ArrayList<String>();
+            for (String value : groupGetter.getSelectedValues(e)) {
+                groupKey.add(Grammar.getGroupingKey(value));
+            }
+            List<Aggregate.Accumulator> accumulators = groups.get(groupKey);
+            if (accumulators == null) {
+                accumulators = createAccumulators(aggregates);
+                groups.put(groupKey, accumulators);
+            }
+            List<String> values = valueGetter.getSelectedValues(e);
+            for (int i = 0; i < values.size(); ++i) {
+                accumulators.get(i).add(values.get(i));
+            }
+        }
+        if (groups.isEmpty() && groupAttrNames.isEmpty()) {
+            // Without grouping, there is always one row, even for an empty table
+            groups.put(new ArrayList<String>(), createAccumulators(aggregates));
+        }
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (List<Aggregate.Accumulator> accumulators : groups.values()) {
+            rows.add(accumulators.stream().map((accumulator) -> accumulator.getResult())
+                    .collect(Collectors.toList()));
+        }
+        List<String> header = aggregates.stream()
+                .map((aggregate) -> aggregate.getName()).collect(Collectors.toList());
+        Result result = new Result();
+        result.addRow(header);
+        for (List<String> row : orderAggregateRows(rows, header, task)) {
+            result.addRow(row);
+        }
+        return result;
+    }
+
+    private List<Aggregate.Accumulator> createAccumulators(List<Aggregate> aggregates) {
+        return aggregates.stream().map((aggregate) -> aggregate.createAccumulator())
+                .collect(Collectors.toList());
+    }
+
+    // Aggregate rows can only be ordered by a selected grouping attribute
+    private List<List<String>> orderAggregateRows(List<List<String>> rows, List<String> header,
+            Task.SelectTask task) throws DBException {
+        String orderAttrName = task.getOrderAttrName();
+        if (orderAttrName != null) {
+            int orderIdx = 0;
+            while (orderIdx < header.size()
+                    && !header.get(orderIdx).equalsIgnoreCase(orderAttrName)) {
+                ++orderIdx;
+            }
+            if (orderIdx == header.size()) {
+                throw new DBException("can not order aggregate query by " + orderAttrName);
+            }
+            List<Map.Entry<Grammar.SortKey, List<String>>> sortedRows =
+                    new ArrayList<Map.Entry<Grammar.SortKey, List<String>>>();
+            for (List<String> row : rows) {
+                sortedRows.add(new AbstractMap.SimpleEntry<Grammar.SortKey, List<String>>(
+                        Grammar.SortKey.of(row.get(orderIdx)), row));
+            }
+            java.util.Comparator<Map.Entry<Grammar.SortKey, List<String>>> order =
+                    Map.Entry.comparingByKey();
+            sortedRows.sort(task.isDescending() ? order.reversed() : order); // Stable
+            rows = sortedRows.stream().map((entry) -> entry.getValue())
+                    .collect(Collectors.toList());
+        }
+        long fromIdx = Math.min(task.getOffset(), rows.size());
+        long toIdx = rows.size();
+        if (task.getLimit() >= 0) {
+            toIdx = fromIdx + Math.min(task.getLimit(), toIdx - fromIdx);
+        }
+        return rows.subList((int) fromIdx, (int) toIdx);
+    }
+
     private Result executeUpdate(Task.UpdateTask task) throws DBException {
         // Better to implement inside Table class
         Table table = getCurrentDatabase().getTable(task.getTableName());
@@ -239,17 +549,93 @@ public class DBKeeper {
         for (Table.Entity entity : chosenEntities) {
             attrSetter.setSelectedAttrValues(entity); // Shall not throw here
         }
+        String databaseName = getSubscribedDatabaseName(task.getTableName());
+        if (databaseName != null) {
+            List<String> modifiedAttrNames = new ArrayList<String>();
+            task.getModification().forEach((entry) -> modifiedAttrNames.add(entry.getKey()));
+            Table.AttrIdFieldGetter modifiedGetter = table.getAttrIdFieldGetter(modifiedAttrNames);
+            for (Table.Entity entity : chosenEntities) {
+                long id = entity.getId();
+                List<String> values = modifiedGetter.getSelectedValues(entity);
+                this.unpublishedChanges.add(() -> this.changeLog.append(databaseName,
+                        task.getTableName(), "update", id, modifiedAttrNames, values));
+            }
+        }
         return result;
     }
 
     private Result executeDelete(Task.DeleteTask task) throws DBException {
         Table table = getCurrentDatabase().getTable(task.getTableName());
+        // Ids are taken before the deletion, which invalidates entities
+        String databaseName = getSubscribedDatabaseName(task.getTableName());
+        List<Long> deletedIds = new ArrayList<Long>();
+        if (databaseName != null) {
+            for (Table.Entity entity : table.chooseEntities(task.getCondition())) {
+                deletedIds.add(entity.getId());
+            }
+        }
         if (table.deleteEntities(task.getCondition())) {
             setUpdatedByTask();
         }
+        for (Long id : deletedIds) {
+            this.unpublishedChanges.add(() -> this.changeLog.append(databaseName,
+                    task.getTableName(), "delete", id,
+                    new ArrayList<String>(), new ArrayList<String>()));
+        }
         return new Result();
     }
 
+    // The database in use if anyone subscribes to changes of the table in it, otherwise null
+    private String getSubscribedDatabaseName(String tableName) {
+        if (this.changeLog == null) {
+            return null;
+        }
+        String databaseName = getCurrentDatabaseName();
+        if (databaseName == null || !this.changeLog.isSubscribed(databaseName, tableName)) {
+            return null;
+        }
+        return databaseName;
+    }
+
+    // Selected rows are sorted within the operator memory, spilling to files beyond it.
+    // Each row is sorted with the value it is ordered by in front.
+    // The sorted rows are returned in memory, up to the limit of a result.
+    private Result executeSortedSelect(Task.SelectTask task, Table table) throws DBException {
+        int orderIdx = table.getAttrIdFieldIndexMapper().getIndexOf(task.getOrderAttrName());
+        Table.AttrIdFieldGetter attrGetter = table.getAttrIdFieldGetter(task.getSelection());
+        Comparator<Grammar.SortKey> order = task.isDescending()
+                ? Comparator.<Grammar.SortKey>reverseOrder()
+                : Comparator.<Grammar.SortKey>naturalOrder();
+        Result result = new Result();
+        result.addRow(attrGetter.getSelectedAttrNames());
+        try (ExternalSorter<Grammar.SortKey> sorter = new ExternalSorter<Grammar.SortKey>(
+                getSpillDirectoryPath(), this.operatorMemory,
+                (row) -> Grammar.SortKey.of(row.get(0)), order)) {
+            for (Table.Entity e : table.chooseEntitiesToSort(task.getCondition())) {
+                List<String> row = new ArrayList<String>();
+                row.add(e.getAttributeOrId(orderIdx));
+                row.addAll(attrGetter.getSelectedValues(e));
+                sorter.add(row);
+            }
+            long limit = task.getLimit() < 0 ? Long.MAX_VALUE : task.getLimit();
+            List<String> row;
+            for (long i = 0; i < task.getOffset() + limit && (row = sorter.next()) != null; ++i) {
+                if (i >= task.getOffset()) {
+                    result.addRow(row.subList(1, row.size()), this.maxResultSize);
+                }
+            }
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException("cannot spill sorted rows: " + e);
+        }
+        return result;
+    }
+
+    private Path getSpillDirectoryPath() {
+        String directoryPath = this.storageDirectoryPath != null ? this.storageDirectoryPath
+                : System.getProperty("java.io.tmpdir");
+        return Paths.get(directoryPath, spillDirName);
+    }
+
     private Result executeJoin(Task.JoinTask task) throws DBException {
         // Better to implement inside Database class
         String tableName1 = task.getTableNameOne();
@@ -276,35 +662,172 @@ public class DBKeeper {
                     newHeader.add(tableName2 + "." + attrName2);
                 });
         result.addRow(newHeader);
-        joinTableEntities(table1, table2, attrGetter1, attrGetter2, result);
+        HashJoin join = new HashJoin(getSpillDirectoryPath(), this.operatorMemory,
+                this.maxResultSize);
+        try {
+            join.join(table1, table2, attrGetter1, attrGetter2, result);
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException("cannot spill joined rows: " + e);
+        }
+        this.lastJoinPartitions = join.getNumberOfSpilledPartitions();
         return result;
     }
 
-    private void joinTableEntities(Table table1, Table table2, Table.AttrIdFieldGetter attrGetter1,
-            Table.AttrIdFieldGetter attrGetter2, Result result) throws DBException {
-        Table.AttrIdFieldGetter displayAttrGetter1 = attrGetter1.complement();
-        Table.AttrIdFieldGetter displayAttrGetter2 = attrGetter2.complement();
-        int nextId = 0;
-        // O(n^2) time complexity
-        for (Table.Entity e1 : table1) {
-            for (Table.Entity e2 : table2) {
-                String cmpValue1 = attrGetter1.getSelectedValues(e1).get(0);
-                String cmpValue2 = attrGetter2.getSelectedValues(e2).get(0);
-                if (Grammar.compareValue(cmpValue1, Grammar.Keyword.EQ, cmpValue2)) {
-                    List<String> valueRow = new ArrayList<String>();
-                    valueRow.add(String.valueOf(nextId++));
-                    displayAttrGetter1.getSelectedValues(e1).forEach(
-                            (v1) -> {
-                                valueRow.add(v1);
-                            });
-                    displayAttrGetter2.getSelectedValues(e2).forEach(
-                            (v2) -> {
-                                valueRow.add(v2);
-                            });
-                    result.addRow(valueRow);
-                }
+    // Cursors fetch in id order, so a SELECT ordered by anything else is refused
+    private Result executeDeclare(Task.DeclareTask task) throws DBException {
+        Task.SelectTask selectTask = task.getSelectTask();
+        if (selectTask.isAggregating()) {
+            throw new DBException("cursor can not be declared for an aggregate query");
+        }
+        String orderAttrName = selectTask.getOrderAttrName();
+        if (orderAttrName != null && !Grammar.isIdAttrName(orderAttrName)) {
+            throw new DBException("cursor can only fetch rows ordered by "
+                    + Grammar.getIdAttrName());
+        }
+        Database database = getCurrentDatabase();
+        Table table = database.getTable(selectTask.getTableName());
+        table.getAttrIdFieldGetter(selectTask.getSelection()); // Check the selection
+        this.session.putCursor(new Cursor(task.getCursorName(), selectTask, database, table));
+        return new Result();
+    }
+
+    // The header row, then the rows fetched
+    private Result executeFetch(Task.FetchTask task) throws DBException {
+        Cursor cursor = getCursor(task.getCursorName());
+        Database database = cursor.getDatabase();
+        // The table may be dropped, even with its database, since the cursor is declared
+        if (!this.databases.containsValue(database) || !database.containsTable(cursor.getTable())) {
+            this.session.removeCursor(task.getCursorName());
+            throw new DBException("table of cursor " + task.getCursorName()
+                    + " has been dropped");
+        }
+        Table.AttrIdFieldGetter attrGetter =
+                cursor.getTable().getAttrIdFieldGetter(cursor.getTask().getSelection());
+        Result result = new Result();
+        result.addRow(attrGetter.getSelectedAttrNames());
+        for (Table.Entity e : cursor.fetch(task.getCount())) {
+            result.addRow(attrGetter.getSelectedValues(e));
+        }
+        return result;
+    }
+
+    private Result executeClose(Task.CloseTask task) throws DBException {
+        if (this.session.removeCursor(task.getCursorName()) == null) {
+            throw new DBException("cursor " + task.getCursorName() + " not exists");
+        }
+        return new Result();
+    }
+
+    private Cursor getCursor(String name) throws DBException {
+        Cursor cursor = this.session.getCursor(name);
+        if (cursor == null) {
+            throw new DBException("cursor " + name + " not exists");
+        }
+        return cursor;
+    }
+
+    private Result executePrepare(Task.PrepareTask task) throws DBException {
+        this.session.putPreparedTask(task);
+        return new Result();
+    }
+
+    private Result executeExecute(Task.ExecuteTask task) throws DBException {
+        String name = task.getName();
+        Task.PrepareTask preparedTask = this.session.getPreparedTask(name);
+        if (preparedTask == null) {
+            throw new DBException("prepared command " + name + " not exists");
+        }
+        return executeTask(bindPrepared(preparedTask, task));
+    }
+
+    // The command which executing a prepared command amounts to
+    public static Task bindPrepared(Task.PrepareTask preparedTask, Task.ExecuteTask task)
+            throws DBException {
+        Parameters parameters = new Parameters(task.getValues());
+        if (parameters.size() != preparedTask.getNumberOfParameters()) {
+            throw new DBException("prepared command " + task.getName() + " expects "
+                    + preparedTask.getNumberOfParameters() + " parameters, but given "
+                    + parameters.size());
+        }
+        return preparedTask.getTemplate().bindParameters(parameters);
+    }
+
+    // Apply a command replicated from a primary, in the database it was run in there.
+    // It runs in a session of its own, the sessions of connections are kept.
+    public void applyReplicated(String databaseName, Task task) throws DBException {
+        Session connectionSession = this.session;
+        try {
+            this.session = new Session();
+            if (databaseName != null) {
+                this.session.setCurrentDatabase(getDatabase(databaseName));
+            }
+            executeAnyTask(task);
+        } finally {
+            this.session = connectionSession;
+        }
+    }
+
+    private Result executeShow(Task.ShowTask task) throws DBException {
+        if (task.getSubject() == Grammar.Keyword.CACHE) {
+            return showResultCache();
+        }
+        if (task.getSubject() == Grammar.Keyword.STATS) {
+            if (this.metrics == null) {
+                throw new DBException("metrics are not collected");
             }
+            return this.metrics.toResult();
         }
+        Result result = new Result();
+        result.addRow(Arrays.asList("role", "applied", "primary", "lag"));
+        Replication.Status status = this.replicationStatus;
+        if (status == null) {
+            result.addRow(Arrays.asList("none", "0", "0", "0"));
+        } else {
+            result.addRow(Arrays.asList(status.getRole(),
+                    String.valueOf(status.getAppliedSeq()),
+                    String.valueOf(status.getPrimarySeq()), String.valueOf(status.getLag())));
+        }
+        return result;
+    }
+
+    private Result showResultCache() {
+        Result result = new Result();
+        result.addRow(Arrays.asList("entries", "size", "capacity", "hits", "misses",
+                "invalidations", "evictions"));
+        ResultCache cache = this.resultCache;
+        if (cache == null) {
+            result.addRow(Arrays.asList("0", "0", "0", "0", "0", "0", "0"));
+        } else {
+            result.addRow(Arrays.asList(String.valueOf(cache.getNumberOfEntries()),
+                    String.valueOf(cache.getSize()), String.valueOf(cache.getCapacity()),
+                    String.valueOf(cache.getHits()), String.valueOf(cache.getMisses()),
+                    String.valueOf(cache.getInvalidations()),
+                    String.valueOf(cache.getEvictions())));
+        }
+        return result;
+    }
+
+    // Commands are executed in the session of the connection they come from
+    // A session still using a database replaced by reloading uses the one of the same name
+    public void setSession(Session session) {
+        this.session = session;
+        String databaseName = this.replacedDatabases.get(session.getCurrentDatabase());
+        if (databaseName != null) {
+            session.setCurrentDatabase(this.databases.get(databaseName));
+        }
+    }
+
+    // Load the databases again from the storage directory, once its files are replaced,
+    // e.g., by a snapshot of a replication primary
+    public void reloadFromDirectory() throws DBException, IOException {
+        for (Map.Entry<String, Database> entry : this.databases.entrySet()) {
+            this.replacedDatabases.put(entry.getValue(), entry.getKey());
+        }
+        Session session = this.session;
+        Database currentDb = session.getCurrentDatabase();
+        loadFromDirectory(this.storageDirectoryPath);
+        session.setCurrentDatabase(currentDb);
+        setSession(session);
     }
 
     public void addDatabase(String databaseName, Database db) throws DBException {
@@ -328,8 +851,8 @@ public class DBKeeper {
         if (removedDatabase == null) {
             throw new DBException.InvalidDatabaseNameException(databaseName, "not exists");
         }
-        if (removedDatabase == this.currentDb) {
-            this.currentDb = null;
+        if (removedDatabase == this.session.getCurrentDatabase()) {
+            this.session.setCurrentDatabase(null);
         }
     }
 
@@ -357,19 +880,119 @@ public class DBKeeper {
     }
 
     private Database getCurrentDatabase() throws DBException {
-        if (this.currentDb == null) {
+        Database currentDb = this.session.getCurrentDatabase();
+        if (currentDb == null) {
             throw new DBException("current database not set yet");
         }
-        return this.currentDb;
+        // It may be dropped by another connection
+        if (!this.databases.containsValue(currentDb)) {
+            this.session.setCurrentDatabase(null);
+            throw new DBException("current database has been dropped");
+        }
+        return currentDb;
+    }
+
+    // The name of the database in use, or null if none
+    public String getCurrentDatabaseName() {
+        for (Map.Entry<String, Database> entry : this.databases.entrySet()) {
+            if (entry.getValue() == this.session.getCurrentDatabase()) {
+                return entry.getKey();
+            }
+        }
+        return null;
     }
 
     public void setCurrentDatabase(String dbName) throws DBException {
-        this.currentDb = getDatabase(dbName);
+        this.session.setCurrentDatabase(getDatabase(dbName));
+    }
+
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
+
+    // Stored with the databases, so a follower resumes from the entry after it,
+    // and a primary numbers its entries on from it
+    public void setReplicatedPosition(long epoch, long seq) {
+        this.replicatedEpoch = epoch;
+        this.replicatedSeq = seq;
+    }
+
+    public Long getReplicatedEpoch() {
+        return this.replicatedEpoch;
+    }
+
+    public long getReplicatedSeq() {
+        return this.replicatedSeq;
+    }
+
+    public void setReplicationStatus(Replication.Status replicationStatus) {
+        this.replicationStatus = replicationStatus;
+    }
+
+    // Changes are only appended to the change log once they are stored,
+    // so subscribers never see a change that a failed store lost.
+    // Changes kept in memory by a failed store wait for the next store that succeeds.
+    public void publishChanges() {
+        for (Runnable change : this.unpublishedChanges) {
+            change.run();
+        }
+        this.unpublishedChanges.clear();
+    }
+
+    public void setChangeLog(ChangeStream.Log changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Rows of the tables in use scanned by the last task executed
+    public long getRowsScanned() {
+        return this.rowsScanned;
+    }
+
+    // How the tables were accessed by the task just executed, e.g., `t: SCAN`.
+    // A prepared command is described by its template.
+    public String describeAccess(Task task) {
+        if (task instanceof Task.ExecuteTask) {
+            Task.PrepareTask preparedTask =
+                    this.session.getPreparedTask(((Task.ExecuteTask) task).getName());
+            if (preparedTask == null) {
+                return "none";
+            }
+            task = preparedTask.getTemplate();
+        }
+        try {
+            if (task instanceof Task.SelectTask) {
+                return describeTableAccess(((Task.SelectTask) task).getTableName());
+            } else if (task instanceof Task.UpdateTask) {
+                return describeTableAccess(((Task.UpdateTask) task).getTableName());
+            } else if (task instanceof Task.DeleteTask) {
+                return describeTableAccess(((Task.DeleteTask) task).getTableName());
+            } else if (task instanceof Task.JoinTask) {
+                Task.JoinTask joinTask = (Task.JoinTask) task;
+                String access = "HASH_JOIN of " + joinTask.getTableNameOne() + " and "
+                        + joinTask.getTableNameTwo();
+                if (this.lastJoinPartitions > 0) {
+                    access += " spilled into " + this.lastJoinPartitions + " partitions";
+                }
+                return access;
+            }
+        } catch (DBException e) {
+            return "unknown";
+        }
+        return "none";
+    }
+
+    private String describeTableAccess(String tableName) throws DBException {
+        return tableName + ": " + getCurrentDatabase().getTable(tableName).describeLastAccess();
     }
 
     public void clear() {
         this.databases.clear();
-        this.currentDb = null;
+        clearResultCache();
+        this.session.setCurrentDatabase(null);
     }
 
     @Override
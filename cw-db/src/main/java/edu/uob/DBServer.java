@@ -7,18 +7,49 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 /** This class implements the DB server. */
 public class DBServer {
     private static final char END_OF_TRANSMISSION = 4;
+    private static final int parsedCommandCacheCapacity = 256;
+    private static final String slowQueryLogFileName = "slow-queries.log";
+    // Snapshots a primary takes for followers, and a follower receives, never valid names
+    private static final String sentSnapshotNamePrefix = "replication-sent-";
+    private static final String receivedSnapshotName = "replication-received";
     private String storageFolderPath;
     private DBKeeper dbKeeper;
+    private LruCache<String, Task> parsedCommands; // Recently parsed commands
+    private Replication.Log replicationLog; // Commands shipped to followers, null if none
+    private Replication.Status replicationStatus; // null if not replicating
+    private Replication.Primary replicationPrimary;
+    private Replication.Follower replicationFollower;
+    private int numberOfSnapshotsSent; // By this primary, to name the next one
+    private ChangeStream.Publisher changePublisher; // null if changes are not pushed
+    private Session defaultSession; // For commands not given a session
+    private Metrics metrics;
+    private SlowQueryLog slowQueryLog; // null if slow commands are not logged
 
-    public static void main(String args[]) throws IOException {
-        DBServer server = new DBServer();
-        server.blockingListenOn(8888);
+    // Usage: DBServer [storage folder [snapshot name]]
+    // With a snapshot name, the storage folder is restored from that snapshot first.
+    // Replication is set up by `-Dcwdb.replicationPort=<port>` on a primary,
+    // and `-Dcwdb.primary=<host>:<port>` on its followers.
+    // Metrics are shown by `SHOW STATS`, and dumped to a file every `cwdb.statsInterval`
+    // seconds by `-Dcwdb.statsFile=<file>`.
+    // Changes of tables are pushed to clients subscribing on `-Dcwdb.changeStreamPort=<port>`.
+    // Commands slower than `-Dcwdb.slowQueryThreshold=<milliseconds>` are logged
+    // to `slow-queries.log` of the storage folder, or `-Dcwdb.slowQueryLog=<file>`.
+    public static void main(String args[]) throws IOException, DBException {
+        String storageFolder = args.length > 0 ? args[0] : "databases";
+        if (args.length > 1) {
+            DBKeeper.restoreSnapshot(storageFolder, args[1]);
+        }
+        DBServer server = new DBServer(storageFolder);
+        server.listenOn(8888);
     }
 
     /**
@@ -32,6 +63,14 @@ public class DBServer {
     public DBServer(String storageFolder) { // `storageFolder` should be vaild
         this.storageFolderPath = Paths.get(storageFolder).toAbsolutePath().toString();
         this.dbKeeper = new DBKeeper();
+        this.parsedCommands = new LruCache<String, Task>(parsedCommandCacheCapacity);
+        this.defaultSession = new Session();
+        this.metrics = new Metrics();
+        this.dbKeeper.setMetrics(this.metrics);
+        if (Config.getStatsFile() != null) {
+            this.metrics.startDumping(Paths.get(Config.getStatsFile()),
+                    Config.getStatsInterval() * 1000L);
+        }
         try {
             // Create the database storage folder if it doesn't already exist !
             Files.createDirectories(Paths.get(this.storageFolderPath));
@@ -40,6 +79,94 @@ public class DBServer {
             System.err.println("exception initialising server " + e);
         }
         System.out.println("databases loaded: " + this.dbKeeper);
+        try {
+            openSlowQueryLog();
+        } catch (IOException e) {
+            System.err.println("exception opening slow query log " + e);
+        }
+        try {
+            startReplication();
+        } catch (Exception e) {
+            System.err.println("exception starting replication " + e);
+        }
+        try {
+            startChangeStream();
+        } catch (IOException e) {
+            System.err.println("exception starting change stream " + e);
+        }
+    }
+
+    private void startChangeStream() throws IOException {
+        int changeStreamPort = Config.getChangeStreamPort();
+        if (changeStreamPort <= 0) {
+            return;
+        }
+        ChangeStream.Log changeLog = new ChangeStream.Log(Config.getChangeLogCapacity());
+        this.changePublisher = new ChangeStream.Publisher(changeLog, changeStreamPort);
+        this.dbKeeper.setChangeLog(changeLog);
+    }
+
+    // Stop pushing changes, and disconnect the subscribers
+    public void stopChangeStream() throws IOException {
+        if (this.changePublisher != null) {
+            this.changePublisher.close();
+        }
+    }
+
+    // A follower refuses changes from its clients, and applies those of its primary
+    private void startReplication() throws IOException, DBException {
+        String primaryAddress = Config.getPrimaryAddress();
+        int replicationPort = Config.getReplicationPort();
+        if (primaryAddress != null) {
+            int colonIdx = primaryAddress.lastIndexOf(':');
+            if (colonIdx < 0) {
+                throw new DBException("primary address should be host:port");
+            }
+            this.replicationStatus = new Replication.Status("follower");
+            this.replicationStatus.setAppliedSeq(this.dbKeeper.getReplicatedSeq());
+            this.dbKeeper.setReadOnly(true);
+            this.replicationFollower = new Replication.Follower(
+                    primaryAddress.substring(0, colonIdx),
+                    Integer.parseInt(primaryAddress.substring(colonIdx + 1)),
+                    this.dbKeeper.getReplicatedEpoch(), this::applyReplicated,
+                    DBKeeper.getSnapshotPath(this.storageFolderPath, receivedSnapshotName),
+                    this::restoreReplicated, this.replicationStatus);
+        } else if (replicationPort > 0) {
+            // The log goes on from the last entry stored, in the same epoch
+            Replication.Log log = new Replication.Log(Config.getReplicationLogCapacity(),
+                    this.dbKeeper.getReplicatedSeq());
+            this.replicationPrimary = new Replication.Primary(log, replicationPort,
+                    this.dbKeeper.getReplicatedEpoch(), this::takeReplicationSnapshot);
+            this.replicationLog = log;
+            this.dbKeeper.setReplicatedPosition(this.replicationPrimary.getEpoch(),
+                    log.getLastSeq());
+            this.replicationStatus = new Replication.Status("primary");
+            this.replicationStatus.setAppliedSeq(log.getLastSeq());
+            this.replicationStatus.setPrimarySeq(log.getLastSeq());
+        }
+        this.dbKeeper.setReplicationStatus(this.replicationStatus);
+    }
+
+    private void openSlowQueryLog() throws IOException {
+        int threshold = Config.getSlowQueryThreshold();
+        if (threshold < 0) {
+            return;
+        }
+        String logFile = Config.getSlowQueryLogFile();
+        Path logFilePath = logFile != null ? Paths.get(logFile)
+                : Paths.get(this.storageFolderPath, slowQueryLogFileName);
+        this.slowQueryLog = new SlowQueryLog(logFilePath, threshold,
+                Config.getSlowQueryLogSize(), Config.getSlowQueryLogFiles());
+    }
+
+    // Stop shipping or receiving changes
+    public void stopReplication() throws IOException {
+        if (this.replicationPrimary != null) {
+            this.replicationPrimary.close();
+        }
+        if (this.replicationFollower != null) {
+            this.replicationFollower.close();
+        }
     }
 
     /**
@@ -51,28 +178,207 @@ public class DBServer {
      * actions.
      */
     public String handleCommand(String command) {
+        return handleCommand(this.defaultSession, command);
+    }
+
+    // How a response is sent back, e.g., as text or as a binary frame
+    private static interface ResponseFormat<T> {
+        public T formatResult(Result result) throws IOException;
+
+        public T formatError(Exception e);
+    }
+
+    private static final ResponseFormat<String> textFormat = new ResponseFormat<String>() {
+        @Override
+        public String formatResult(Result result) {
+            return formatResponse(result);
+        }
+
+        @Override
+        public String formatError(Exception e) {
+            return formatResponse(e);
+        }
+    };
+
+    private static final ResponseFormat<byte[]> binaryFormat = new ResponseFormat<byte[]>() {
+        @Override
+        public byte[] formatResult(Result result) throws IOException {
+            return BinaryProtocol.encodeResult(result);
+        }
+
+        @Override
+        public byte[] formatError(Exception e) {
+            try {
+                return BinaryProtocol.encodeError(e.getMessage());
+            } catch (IOException tooLong) {
+                throw new IllegalStateException("cannot encode error " + e, tooLong);
+            }
+        }
+    };
+
+    public String handleCommand(Session session, String command) {
+        return handleCommand(session, command, textFormat);
+    }
+
+    // The response is a frame of the binary protocol
+    public byte[] handleBinaryCommand(Session session, String command) {
+        return handleCommand(session, command, binaryFormat);
+    }
+
+    // Commands of different connections run one at a time, each in its own session.
+    // Writes to different partitions of a table are no exception, as the state of a
+    // command in DBKeeper, the table files and the logs are all kept under this lock.
+    // The time of each phase of handling a command is recorded into the metrics.
+    private synchronized <T> T handleCommand(Session session, String command,
+            ResponseFormat<T> format) {
+        Metrics.Sample sample = new Metrics.Sample();
+        Task task = null;
         try {
-            Task task = Grammar.parseCommand(command);
+            this.dbKeeper.setSession(session);
+            task = parseCommand(command);
+            sample.endParse(task);
+            String databaseName = this.dbKeeper.getCurrentDatabaseName();
             Result result = this.dbKeeper.executeTask(task);
+            sample.endExecute(this.dbKeeper.getRowsScanned(),
+                    Math.max(0, result.getNumberOfRows() - 1));
             if (this.dbKeeper.getUpdatedByTask()) {
+                long numberOfBytesWritten = StorageFiles.getNumberOfBytesWritten();
+                if (this.replicationLog != null) {
+                    // Stored as the last entry, so a restarted primary numbers on after it
+                    this.dbKeeper.setReplicatedPosition(this.replicationPrimary.getEpoch(),
+                            this.replicationLog.getLastSeq() + 1);
+                }
                 this.dbKeeper.storeToDirectory(this.storageFolderPath);
                 this.dbKeeper.resetUpdatedByTask();
+                this.dbKeeper.publishChanges();
+                sample.endPersist(StorageFiles.getNumberOfBytesWritten() - numberOfBytesWritten);
+                shipToFollowers(session, databaseName, task, command);
             }
-            return formatResponse(result);
+            if (task instanceof Task.PrepareTask) {
+                session.putPreparedCommand(((Task.PrepareTask) task).getName(), command);
+            }
+            T response = format.formatResult(result);
+            sample.endSerialise();
+            return response;
         } catch (Exception e) {
             System.err.println("exception in command handling: " + e);
-            return formatResponse(e);
+            sample.fail();
+            return format.formatError(e);
+        } finally {
+            sample.end();
+            this.metrics.record(sample);
+            if (this.slowQueryLog != null && this.slowQueryLog.isSlow(sample)) {
+                logSlowCommand(command, task, sample);
+            }
+        }
+    }
+
+    private void logSlowCommand(String command, Task task, Metrics.Sample sample) {
+        String access = task == null ? "none" : this.dbKeeper.describeAccess(task);
+        try {
+            this.slowQueryLog.write(SlowQueryLog.formatEntry(command, sample, access));
+        } catch (IOException e) {
+            System.err.println("exception writing slow query log " + e);
         }
     }
 
-    private String formatResponse(Result result) {
+    // Followers replay the command in the same database,
+    // and get the prepared command before an EXECUTE command.
+    private void shipToFollowers(Session session, String databaseName, Task task,
+            String command) {
+        if (this.replicationLog == null) {
+            return;
+        }
+        List<String> commands = new ArrayList<String>();
+        if (task instanceof Task.ExecuteTask) {
+            commands.add(session.getPreparedCommand(((Task.ExecuteTask) task).getName()));
+        }
+        commands.add(command);
+        long seq = this.replicationLog.append(databaseName, commands);
+        this.replicationStatus.setAppliedSeq(seq);
+        this.replicationStatus.setPrimarySeq(seq);
+    }
+
+    // The entry is stored as applied along with the databases it changed
+    private synchronized void applyReplicated(long epoch, Replication.Entry entry)
+            throws DBException {
+        List<String> commands = entry.getCommands();
+        Task task = parseCommand(commands.get(commands.size() - 1));
+        if (commands.size() > 1) {
+            Task preparedTask = parseCommand(commands.get(0));
+            if (!(preparedTask instanceof Task.PrepareTask)
+                    || !(task instanceof Task.ExecuteTask)) {
+                throw new DBException("ill-formed replication entry " + entry.getSeq());
+            }
+            task = DBKeeper.bindPrepared((Task.PrepareTask) preparedTask,
+                    (Task.ExecuteTask) task);
+        }
+        this.dbKeeper.applyReplicated(entry.getDatabaseName(), task);
+        this.dbKeeper.setReplicatedPosition(epoch, entry.getSeq());
+        try {
+            this.dbKeeper.storeToDirectory(this.storageFolderPath);
+            this.dbKeeper.publishChanges();
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException(e.getMessage());
+        } finally {
+            this.dbKeeper.resetUpdatedByTask();
+        }
+    }
+
+    // The databases as stored with the last entry shipped, for a follower to start from
+    private synchronized Replication.Snapshot takeReplicationSnapshot() throws DBException {
+        String snapshotName = sentSnapshotNamePrefix + this.numberOfSnapshotsSent++;
+        Path snapshotPath = DBKeeper.getSnapshotPath(this.storageFolderPath, snapshotName);
+        try {
+            StorageFiles.deleteFolder(snapshotPath); // Left by a primary stopped while sending
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException(e.getMessage());
+        }
+        List<String> fileNames = this.dbKeeper.takeSnapshot(snapshotName);
+        return new Replication.Snapshot(snapshotPath, fileNames,
+                this.replicationLog.getLastSeq());
+    }
+
+    // The databases of a follower are replaced by the snapshot received from its primary,
+    // including the position of the primary they are at
+    private synchronized void restoreReplicated() throws DBException {
+        try {
+            DBKeeper.restoreSnapshot(this.storageFolderPath, receivedSnapshotName);
+            StorageFiles.deleteFolder(
+                    DBKeeper.getSnapshotPath(this.storageFolderPath, receivedSnapshotName));
+            this.dbKeeper.reloadFromDirectory();
+        } catch (IOException e) {
+            throw new DBException.DatabaseStorageException(e.getMessage());
+        }
+    }
+
+    // Tasks are not modified once parsed, so a repeated command reuses its task
+    private Task parseCommand(String command) throws DBException {
+        Task task = this.parsedCommands.get(command);
+        if (task == null) {
+            task = Grammar.parseCommand(command);
+            this.parsedCommands.put(command, task);
+        }
+        return task;
+    }
+
+    private static String formatResponse(Result result) {
         return "[OK]\n" + result.exportToString();
     }
 
-    private String formatResponse(Exception e) {
+    private static String formatResponse(Exception e) {
         return "[ERROR]\n" + e.getMessage();
     }
 
+    // Serve clients on non-blocking channels until the thread is interrupted
+    public void listenOn(int portNumber) throws IOException {
+        try (SelectorServer selectorServer = new SelectorServer(this, portNumber,
+                Config.getNumberOfWorkers())) {
+            System.out.println("Server listening on port " + selectorServer.getPort());
+            selectorServer.run();
+        }
+    }
+
     // === Methods below handle networking aspects of the project - you will not
     // need to change these ! ===
 
@@ -99,9 +405,10 @@ public class DBServer {
                         new OutputStreamWriter(s.getOutputStream()))) {
 
             System.out.println("Connection established: " + serverSocket.getInetAddress());
+            this.defaultSession = new Session();
             while (!Thread.interrupted()) {
+                // Commands are not printed, slow ones are in the slow query log
                 String incomingCommand = reader.readLine();
-                System.out.println("Received message: " + incomingCommand);
                 String result = handleCommand(incomingCommand);
                 writer.write(result);
                 writer.write("\n" + END_OF_TRANSMISSION + "\n");
@@ -7,6 +7,7 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -19,9 +20,13 @@ public class Database {
     private static final String metaFormatDelim = ",";
 
     private HashMap<String, Table> tables;
+    private HashMap<Table, Long> storedVersions; // Of the tables in their files
+    private Path storedDataDir; // Where the tables were last stored or loaded, null if nowhere
 
     public Database() {
         this.tables = new HashMap<String, Table>();
+        this.storedVersions = new HashMap<Table, Long>();
+        this.storedDataDir = null;
     }
 
     // Load this database from directory according to the meta string.
@@ -40,6 +45,7 @@ public class Database {
         }
         meta = meta.substring(1, meta.length() - 1).trim();
         clear();
+        this.storedDataDir = dataDir;
         if (meta.length() == 0) {
             return;
         }
@@ -71,10 +77,12 @@ public class Database {
         File tableFile = Paths.get(dataDir.toString(), tableFileName).toFile();
         table.loadFromFile(tableFile);
         addTable(tableName, table);
+        this.storedVersions.put(table, table.getDataVersion());
     }
 
     // Save the database to directory.
-    // Each table is saved into a separate file.
+    // Each table is saved into a separate file,
+    // which is only written again once the table has changed.
     // Return the meta string of this database.
     public String storeToDirectory(Path dataDir, String tableFileNamePrefix)
             throws DBException, IOException {
@@ -82,13 +90,22 @@ public class Database {
             throw new DBException.NullObjectException(
                     "null arguments while storing database to directory");
         }
+        if (!dataDir.equals(this.storedDataDir)) {
+            this.storedVersions.clear();
+            this.storedDataDir = dataDir;
+        }
         ArrayList<String> tableDescriptions = new ArrayList<String>();
         for (Map.Entry<String, Table> entry : this.tables.entrySet()) {
             String tableName = entry.getKey();
             Table table = entry.getValue();
-            String tableFileName = getFilePathForTable(tableFileNamePrefix, tableName, table);
-            Path tableFilePath = Paths.get(dataDir.toString(), tableFileName);
-            String tableMeta = table.storeToFile(tableFilePath);
+            String tableMeta = table.toString();
+            Long storedVersion = this.storedVersions.get(table);
+            if (storedVersion == null || storedVersion.longValue() != table.getDataVersion()) {
+                String tableFileName = getFilePathForTable(tableFileNamePrefix, tableName, table);
+                Path tableFilePath = Paths.get(dataDir.toString(), tableFileName);
+                tableMeta = table.storeToFile(tableFilePath);
+                this.storedVersions.put(table, table.getDataVersion());
+            }
             tableDescriptions.add(tableName + ": " + tableMeta);
         }
         String meta = String.join(metaFormatDelim + "\n", tableDescriptions);
@@ -100,6 +117,16 @@ public class Database {
         return meta;
     }
 
+    // Names of the files the tables are stored in
+    public List<String> getTableFileNames(String tableFileNamePrefix) throws DBException {
+        List<String> fileNames = new ArrayList<String>();
+        for (Map.Entry<String, Table> entry : this.tables.entrySet()) {
+            fileNames.add(getFilePathForTable(tableFileNamePrefix, entry.getKey(),
+                    entry.getValue()));
+        }
+        return fileNames;
+    }
+
     // Calculate the filename for loading/storing a given table.
     public String getFilePathForTable(String fileNamePrefix, String tableName, Table table)
             throws DBException {
@@ -136,6 +163,7 @@ public class Database {
         if (removedTable == null) {
             throw new DBException.InvalidTableNameException(tableName, "not exists");
         }
+        this.storedVersions.remove(removedTable);
     }
 
     public Table getTable(String tableName) throws DBException {
@@ -149,8 +177,23 @@ public class Database {
         return table;
     }
 
+    // Whether given table is still in this database, i.e., not dropped
+    public boolean containsTable(Table table) {
+        return this.tables.containsValue(table);
+    }
+
+    // Rows scanned in all the tables of this database
+    public long getNumberOfScannedRows() {
+        long numberOfScannedRows = 0;
+        for (Table table : this.tables.values()) {
+            numberOfScannedRows += table.getNumberOfScannedRows();
+        }
+        return numberOfScannedRows;
+    }
+
     public void clear() {
         tables.clear();
+        this.storedVersions.clear();
     }
 
     @Override
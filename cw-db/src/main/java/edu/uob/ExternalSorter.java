@@ -0,0 +1,164 @@
+package edu.uob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// This class sorts rows within a memory budget.
+// Rows added are kept in memory until they take more than the budget,
+// then they are sorted and spilled to a file as a run.
+// When the rows are taken, the runs and the rows left in memory are merged.
+// Rows with equal keys are taken in the order they were added.
+public class ExternalSorter<K> implements Closeable {
+    @FunctionalInterface
+    public static interface KeyFunction<K> {
+        public K apply(List<String> row) throws DBException;
+    }
+
+    private static class KeyedRow<K> {
+        private final K key;
+        private final List<String> row;
+        private final int runIdx; // Where the row comes from when merging
+
+        private KeyedRow(K key, List<String> row, int runIdx) {
+            this.key = key;
+            this.row = row;
+            this.runIdx = runIdx;
+        }
+    }
+
+    private final Path spillDirectoryPath;
+    private final long memoryBudget;
+    private final KeyFunction<K> keyFunction;
+    private final Comparator<K> order;
+    private List<KeyedRow<K>> buffer;
+    private long bufferSize;
+    private final List<SpillFile> runs;
+    private List<SpillFile.Reader> runReaders; // null until rows are taken
+    private Iterator<KeyedRow<K>> bufferIterator; // null until rows are taken
+    private PriorityQueue<KeyedRow<K>> mergeQueue; // null if nothing is spilled
+
+    public ExternalSorter(Path spillDirectoryPath, long memoryBudget, KeyFunction<K> keyFunction,
+            Comparator<K> order) {
+        this.spillDirectoryPath = spillDirectoryPath;
+        this.memoryBudget = memoryBudget;
+        this.keyFunction = keyFunction;
+        this.order = order;
+        this.buffer = new ArrayList<KeyedRow<K>>();
+        this.bufferSize = 0;
+        this.runs = new ArrayList<SpillFile>();
+        this.runReaders = null;
+        this.bufferIterator = null;
+        this.mergeQueue = null;
+    }
+
+    public void add(List<String> row) throws DBException, IOException {
+        if (this.bufferIterator != null) {
+            throw new DBException("rows added to a sorter already taken from");
+        }
+        this.buffer.add(new KeyedRow<K>(this.keyFunction.apply(row), row, 0));
+        this.bufferSize += Result.estimateSize(row);
+        if (this.bufferSize > this.memoryBudget) {
+            spillBuffer();
+        }
+    }
+
+    private void spillBuffer() throws IOException {
+        this.buffer.sort(getKeyComparator()); // Stable
+        SpillFile run = new SpillFile(this.spillDirectoryPath);
+        this.runs.add(run);
+        for (KeyedRow<K> keyedRow : this.buffer) {
+            run.write(keyedRow.row);
+        }
+        this.buffer = new ArrayList<KeyedRow<K>>();
+        this.bufferSize = 0;
+    }
+
+    private Comparator<KeyedRow<K>> getKeyComparator() {
+        return (row1, row2) -> this.order.compare(row1.key, row2.key);
+    }
+
+    public int getNumberOfRuns() {
+        return this.runs.size();
+    }
+
+    // The next row in order, or null after the last one.
+    // No more rows can be added once they are taken.
+    public List<String> next() throws DBException, IOException {
+        if (this.bufferIterator == null) {
+            startMerging();
+        }
+        if (this.mergeQueue == null) {
+            return this.bufferIterator.hasNext() ? this.bufferIterator.next().row : null;
+        }
+        KeyedRow<K> keyedRow = this.mergeQueue.poll();
+        if (keyedRow == null) {
+            return null;
+        }
+        pushNextOf(keyedRow.runIdx);
+        return keyedRow.row;
+    }
+
+    // Rows left in memory are merged as the last run, as they were added last
+    private void startMerging() throws DBException, IOException {
+        this.buffer.sort(getKeyComparator());
+        this.bufferIterator = this.buffer.iterator();
+        this.runReaders = new ArrayList<SpillFile.Reader>();
+        if (this.runs.isEmpty()) {
+            return;
+        }
+        for (SpillFile run : this.runs) {
+            this.runReaders.add(run.read());
+        }
+        this.mergeQueue = new PriorityQueue<KeyedRow<K>>(this.runs.size() + 1,
+                getKeyComparator().thenComparingInt((keyedRow) -> keyedRow.runIdx));
+        for (int i = 0; i <= this.runs.size(); ++i) {
+            pushNextOf(i);
+        }
+    }
+
+    private void pushNextOf(int runIdx) throws DBException, IOException {
+        if (runIdx == this.runs.size()) {
+            if (this.bufferIterator.hasNext()) {
+                KeyedRow<K> keyedRow = this.bufferIterator.next();
+                this.mergeQueue.add(new KeyedRow<K>(keyedRow.key, keyedRow.row, runIdx));
+            }
+            return;
+        }
+        List<String> row = this.runReaders.get(runIdx).next();
+        if (row != null) {
+            this.mergeQueue.add(new KeyedRow<K>(this.keyFunction.apply(row), row, runIdx));
+        }
+    }
+
+    // Spilled runs are deleted
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        if (this.runReaders != null) {
+            for (SpillFile.Reader reader : this.runReaders) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        for (SpillFile run : this.runs) {
+            try {
+                run.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        this.buffer = new ArrayList<KeyedRow<K>>();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
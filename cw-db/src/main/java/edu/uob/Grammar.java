@@ -1,18 +1,20 @@
 package edu.uob;
 
 import java.io.Serial;
+import java.math.BigDecimal;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 // This class checks/parses user input.
+// The lexing part is done by Lexer class.
 // Better to be split into more top-level classes:
-//   lexing part, parsing part, condition/evaluation part.
+//   parsing part, condition/evaluation part.
 public class Grammar {
     // Grammar specific exceptions.
     public static class GrammarException extends DBException {
@@ -49,8 +51,33 @@ public class Grammar {
         OR("or"),
         LIKE("like"),
         NULL("null"),
+        // Words below are only keywords where the grammar expects them,
+        // so they are still valid names, as they were before these commands existed
+        PREPARE("prepare", false),
+        AS("as", false),
+        EXECUTE("execute", false),
+        ORDER("order", false),
+        BY("by", false),
+        ASC("asc", false),
+        DESC("desc", false),
+        LIMIT("limit", false),
+        OFFSET("offset", false),
+        GROUP("group", false),
+        PARTITION("partition", false),
+        SNAPSHOT("snapshot", false),
+        SHOW("show", false),
+        REPLICATION("replication", false),
+        STATS("stats", false),
+        CACHE("cache", false),
+        DECLARE("declare", false),
+        CURSOR("cursor", false),
+        FOR("for", false),
+        FETCH("fetch", false),
+        CLOSE("close", false),
+        SUBSCRIBE("subscribe", false),
 
         STAR("*"),
+        PLACEHOLDER("?"),
 
         ASSIGN("="),
 
@@ -75,9 +102,19 @@ public class Grammar {
         }
 
         private String str;
+        private boolean reserved; // Whether it can not be a name
 
         private Keyword(String str) {
+            this(str, true);
+        }
+
+        private Keyword(String str, boolean reserved) {
             this.str = str;
+            this.reserved = reserved;
+        }
+
+        public boolean isReserved() {
+            return this.reserved;
         }
 
         public boolean equals(String otherStr) {
@@ -103,16 +140,37 @@ public class Grammar {
     // This class stores the tokens lexed from user input string.
     // When parsing, it serves as a token provider.
     // This class does not throw DBException.
-    // Only a thin layer around List<String> to avoid dynamic modification.
+    // Only a thin layer around List<Token> to avoid dynamic modification.
+    // It also counts the placeholders met when parsing a prepared command.
     private static class TokenList {
-        private List<String> tokens;
+        private List<Lexer.Token> tokens;
         private int startIdx;
         private int endIdx;
+        private boolean placeholderAllowed;
+        private int numberOfPlaceholders;
 
-        public TokenList(List<String> tokens) {
+        public TokenList(List<Lexer.Token> tokens) {
             this.tokens = tokens;
             this.startIdx = 0;
             this.endIdx = tokens.size();
+            this.placeholderAllowed = false;
+            this.numberOfPlaceholders = 0;
+        }
+
+        public void allowPlaceholders() {
+            this.placeholderAllowed = true;
+        }
+
+        public boolean isPlaceholderAllowed() {
+            return this.placeholderAllowed;
+        }
+
+        public void countPlaceholder() {
+            this.numberOfPlaceholders += 1;
+        }
+
+        public int getNumberOfPlaceholders() {
+            return this.numberOfPlaceholders;
         }
 
         public int size() {
@@ -123,17 +181,21 @@ public class Grammar {
             return size() <= 0;
         }
 
-        public String front() {
+        public Lexer.Token front() {
             return this.tokens.get(this.startIdx);
         }
 
-        public String popFront() {
-            String token = this.tokens.get(this.startIdx);
+        public Lexer.Token frontAt(int offset) {
+            return this.tokens.get(this.startIdx + offset);
+        }
+
+        public Lexer.Token popFront() {
+            Lexer.Token token = this.tokens.get(this.startIdx);
             this.startIdx += 1;
             return token;
         }
 
-        public String popBack() {
+        public Lexer.Token popBack() {
             this.endIdx -= 1;
             return this.tokens.get(this.endIdx);
         }
@@ -160,6 +222,10 @@ public class Grammar {
         public boolean evaluate(ValueMapper valueMapper) {
             return true;
         }
+
+        @Override
+        public void evaluateBlock(Block block, BitSet selection) {
+        }
     }
 
     // This class represents "Condition1 [AND/OR Condition2]",
@@ -202,6 +268,49 @@ public class Grammar {
                 return condOneTrue || this.condTwo.evaluate(valueMapper);
             }
         }
+
+        // Like `evaluate`, Condition2 is only checked on the rows
+        // whose result is not yet decided by Condition1.
+        @Override
+        public void evaluateBlock(Block block, BitSet selection) throws DBException {
+            if (block == null || selection == null || this.condOne == null) {
+                throw new DBException.NullObjectException("null block or condition");
+            }
+            if (this.condTwo == null) {
+                this.condOne.evaluateBlock(block, selection);
+            } else if (this.connectByAnd) {
+                this.condOne.evaluateBlock(block, selection);
+                this.condTwo.evaluateBlock(block, selection);
+            } else { // Connected by or
+                BitSet rest = (BitSet) selection.clone();
+                this.condOne.evaluateBlock(block, selection);
+                rest.andNot(selection);
+                this.condTwo.evaluateBlock(block, rest);
+                selection.or(rest);
+            }
+        }
+
+        @Override
+        public Condition bindParameters(Parameters parameters) throws DBException {
+            Condition boundCondOne = this.condOne.bindParameters(parameters);
+            Condition boundCondTwo = null;
+            if (this.condTwo != null) {
+                boundCondTwo = this.condTwo.bindParameters(parameters);
+            }
+            return new CompoundCondition(boundCondOne, this.connectByAnd, boundCondTwo);
+        }
+
+        @Override
+        public String getRequiredValue(String key) {
+            String value = this.condOne.getRequiredValue(key);
+            if (this.condTwo == null) {
+                return value;
+            }
+            if (this.connectByAnd) {
+                return value != null ? value : this.condTwo.getRequiredValue(key);
+            }
+            return null;
+        }
     }
 
     // This class represents the basic comparison "attributeName op targetValue"
@@ -209,11 +318,13 @@ public class Grammar {
         private String key;
         private Keyword cmpOp;
         private String targetValue;
+        private CompiledComparison compiled; // Compiled on first block evaluation
 
         public Comparator(String key, Keyword cmpOp, String targetValue) {
             this.key = key;
             this.cmpOp = cmpOp;
             this.targetValue = targetValue;
+            this.compiled = null;
         }
 
         public boolean evaluate(ValueMapper valueMapper) throws DBException {
@@ -224,6 +335,166 @@ public class Grammar {
             String value = valueMapper.getValueByKey(this.key);
             return compareValue(value, this.cmpOp, this.targetValue);
         }
+
+        @Override
+        public void evaluateBlock(Block block, BitSet selection) throws DBException {
+            if (block == null || selection == null) {
+                throw new DBException.NullObjectException(
+                        "null block in condition evaluation");
+            }
+            if (selection.isEmpty()) {
+                return;
+            }
+            if (this.compiled == null) {
+                this.compiled = new CompiledComparison(this.cmpOp, this.targetValue);
+            }
+            CompiledComparison compiled = this.compiled;
+            Dictionary dictionary = block.getDictionary(this.key);
+            if (dictionary != null && dictionary.size() <= block.size()) {
+                // Few distinct values, so test each of them at most once
+                evaluateByCodes(compiled, dictionary, block.getCodes(this.key), selection);
+                return;
+            }
+            String[] column = block.getColumn(this.key);
+            for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+                if (!compiled.test(column[i])) {
+                    selection.clear(i);
+                }
+            }
+        }
+
+        private static void evaluateByCodes(CompiledComparison compiled, Dictionary dictionary,
+                int[] codes, BitSet selection) throws DBException {
+            final byte unknown = 0;
+            final byte holds = 1;
+            final byte fails = 2;
+            byte[] results = new byte[dictionary.size()];
+            for (int i = selection.nextSetBit(0); i >= 0; i = selection.nextSetBit(i + 1)) {
+                int code = codes[i];
+                if (results[code] == unknown) {
+                    results[code] = compiled.test(dictionary.getValue(code)) ? holds : fails;
+                }
+                if (results[code] == fails) {
+                    selection.clear(i);
+                }
+            }
+        }
+
+        @Override
+        public Condition bindParameters(Parameters parameters) throws DBException {
+            String boundValue = parameters.bind(this.targetValue);
+            if (boundValue == this.targetValue) {
+                return this;
+            }
+            return new Comparator(this.key, this.cmpOp, boundValue);
+        }
+
+        // Placeholders are only known once bound
+        @Override
+        public String getRequiredValue(String key) {
+            if (this.cmpOp != Keyword.EQ || !this.key.equalsIgnoreCase(key)
+                    || Keyword.getByString(this.targetValue) == Keyword.PLACEHOLDER) {
+                return null;
+            }
+            return this.targetValue;
+        }
+    }
+
+    // This class is the key by which attribute values are sorted.
+    // Unlike comparison in conditions, sorting needs a total order:
+    // NULL goes first, then numbers by their values, then other values as strings.
+    public static class SortKey implements Comparable<SortKey> {
+        private static final int nullRank = 0;
+        private static final int numberRank = 1;
+        private static final int otherRank = 2;
+
+        private final int rank;
+        private final boolean isLong;
+        private final long longValue;
+        private final double doubleValue;
+        private final String strValue;
+
+        private SortKey(int rank, boolean isLong, long longValue, double doubleValue,
+                String strValue) {
+            this.rank = rank;
+            this.isLong = isLong;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+            this.strValue = strValue;
+        }
+
+        public static SortKey of(String value) throws DBException {
+            if (value == null) {
+                throw new DBException.NullObjectException("sort key of null value");
+            }
+            if (isNullLiteral(value)) {
+                return new SortKey(nullRank, false, 0, 0, null);
+            }
+            if (isIntegerLiteral(value)) {
+                try {
+                    long l = Long.parseLong(value);
+                    return new SortKey(numberRank, true, l, l, null);
+                } catch (NumberFormatException outOfRange) {
+                    return new SortKey(numberRank, false, 0, Double.parseDouble(value), null);
+                }
+            }
+            if (isFloatLiteral(value)) {
+                return new SortKey(numberRank, false, 0, Double.parseDouble(value), null);
+            }
+            return new SortKey(otherRank, false, 0, 0, stripSingleQuote(value));
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            if (this.rank != other.rank) {
+                return Integer.compare(this.rank, other.rank);
+            }
+            switch (this.rank) {
+                case numberRank:
+                    return compareNumber(other);
+                case otherRank:
+                    return this.strValue.compareTo(other.strValue);
+                default:
+                    return 0;
+            }
+        }
+
+        private int compareNumber(SortKey other) {
+            if (this.isLong && other.isLong) {
+                return Long.compare(this.longValue, other.longValue);
+            }
+            if (!this.isLong && !other.isLong) {
+                return Double.compare(this.doubleValue, other.doubleValue);
+            }
+            // An integer beyond the range of double parses to an infinity,
+            // which is beyond every long but has no BigDecimal
+            if (Double.isInfinite(this.doubleValue) || Double.isInfinite(other.doubleValue)) {
+                return Double.compare(this.doubleValue, other.doubleValue);
+            }
+            // Exact comparison between long and double, to keep the order transitive
+            return toBigDecimal().compareTo(other.toBigDecimal());
+        }
+
+        private BigDecimal toBigDecimal() {
+            return this.isLong ? BigDecimal.valueOf(this.longValue)
+                    : new BigDecimal(this.doubleValue);
+        }
+    }
+
+    // Values equal to each other get the same grouping key:
+    // numbers equal by value, and keywords regardless of case.
+    public static String getGroupingKey(String value) throws DBException {
+        if (value == null) {
+            throw new DBException.NullObjectException("grouping key of null value");
+        }
+        Keyword kw = Keyword.getByString(value);
+        if (kw != null) {
+            return kw.toString();
+        }
+        if (isIntegerLiteral(value) || isFloatLiteral(value)) {
+            return new BigDecimal(value).stripTrailingZeros().toPlainString();
+        }
+        return value;
     }
 
     private static enum OrderingResult {
@@ -263,6 +534,212 @@ public class Grammar {
         return compareByOrdering(value1, op, value2);
     }
 
+    // This class is `compareValue` with the second value fixed.
+    // Everything about the target value is worked out once,
+    // and the compared values are classified without parsing exceptions,
+    // so that a whole column can be tested in a tight loop.
+    private static class CompiledComparison {
+        private final Keyword op;
+        private final String targetValue;
+        private final Keyword targetKw;
+        private final String strippedTarget;
+        private final LikeMatcher likeMatcher; // null if not LIKE
+        private final boolean targetIsLong;
+        private final long targetLong;
+        private final boolean targetIsDouble;
+        private final double targetDouble;
+
+        private CompiledComparison(Keyword op, String targetValue) throws DBException {
+            if (op == null || targetValue == null) {
+                throw new DBException.NullObjectException(
+                        "null arguments in string comparison");
+            }
+            switch (op) {
+                case EQ: case GT: case LT: case GE: case LE: case NEQ: case LIKE:
+                    break;
+                default:
+                    throw new GrammarException("illegal operator " + op.toString());
+            }
+            this.op = op;
+            this.targetValue = targetValue;
+            this.targetKw = Keyword.getByString(targetValue);
+            this.strippedTarget = stripSingleQuote(targetValue);
+            this.likeMatcher = op == Keyword.LIKE ? new LikeMatcher(this.strippedTarget) : null;
+            boolean isLong = false;
+            long longValue = 0;
+            try {
+                longValue = Long.parseLong(targetValue);
+                isLong = true;
+            } catch (NumberFormatException notLong) {
+            }
+            boolean isDouble = false;
+            double doubleValue = 0;
+            try {
+                doubleValue = Double.parseDouble(targetValue);
+                isDouble = true;
+            } catch (NumberFormatException notDouble) {
+            }
+            this.targetIsLong = isLong;
+            this.targetLong = longValue;
+            this.targetIsDouble = isDouble;
+            this.targetDouble = doubleValue;
+        }
+
+        private boolean test(String value) throws DBException {
+            if (value == null) {
+                throw new DBException.NullObjectException(
+                        "null arguments in string comparison");
+            }
+            Keyword valueKw = getValueKeyword(value);
+            if (valueKw == Keyword.NULL || this.targetKw == Keyword.NULL) {
+                return compareKeyword(valueKw, this.op, this.targetKw);
+            }
+            if (this.likeMatcher != null) {
+                int endIdx = value.length();
+                if (endIdx >= 2 && value.charAt(0) == '\'' && value.charAt(endIdx - 1) == '\'') {
+                    return this.likeMatcher.isFoundIn(value, 1, endIdx - 1);
+                }
+                return this.likeMatcher.isFoundIn(value, 0, endIdx);
+            }
+            if (valueKw != null && this.targetKw != null) {
+                return compareKeyword(valueKw, this.op, this.targetKw);
+            }
+            return matchesOrdering(getOrdering(value, valueKw), this.op);
+        }
+
+        // Same as `getValueOrdering(value, targetValue)`
+        private OrderingResult getOrdering(String value, Keyword valueKw) {
+            if (valueKw != null || value.isEmpty() || value.charAt(0) == '\'') {
+                // Neither integer nor float
+                return getOrderingStripped(value);
+            }
+            if (isIntegerLiteral(value)) {
+                if (this.targetIsLong && (value.length() <= 18 || fitsLong(value))) {
+                    return getOrderingLong(Long.parseLong(value), this.targetLong);
+                }
+                if (this.targetIsDouble) {
+                    return getOrderingDouble(Double.parseDouble(value), this.targetDouble);
+                }
+                return getOrderingStripped(value);
+            }
+            if (isFloatLiteral(value)) {
+                if (this.targetIsDouble) {
+                    return getOrderingDouble(Double.parseDouble(value), this.targetDouble);
+                }
+                return getOrderingStripped(value);
+            }
+            return getValueOrdering(value, this.targetValue);
+        }
+
+        private static boolean fitsLong(String value) {
+            try {
+                Long.parseLong(value);
+                return true;
+            } catch (NumberFormatException outOfRange) {
+                return false;
+            }
+        }
+
+        // Same as `getOrderingString(value, targetValue)`,
+        // without copying the value out of its quotes
+        private OrderingResult getOrderingStripped(String value) {
+            int startIdx = 0;
+            int endIdx = value.length();
+            if (endIdx >= 2 && value.charAt(0) == '\'' && value.charAt(endIdx - 1) == '\'') {
+                startIdx++;
+                endIdx--;
+            }
+            int valueLen = endIdx - startIdx;
+            int targetLen = this.strippedTarget.length();
+            int cmp = valueLen - targetLen;
+            for (int i = 0; i < Math.min(valueLen, targetLen); ++i) {
+                char ch1 = value.charAt(startIdx + i);
+                char ch2 = this.strippedTarget.charAt(i);
+                if (ch1 != ch2) {
+                    cmp = ch1 - ch2;
+                    break;
+                }
+            }
+            if (cmp < 0) {
+                return OrderingResult.LT;
+            } else if (cmp > 0) {
+                return OrderingResult.GT;
+            } else {
+                return OrderingResult.EQ;
+            }
+        }
+    }
+
+    // Substring search for LIKE, by Boyer-Moore-Horspool.
+    // The pattern is compiled once, then searched inside a range of each value,
+    // so the value needs not be copied out of its quotes.
+    private static class LikeMatcher {
+        // Characters share a slot of the shift table by their low bits,
+        // a slot keeps the smallest shift of its characters.
+        private static final int shiftTableSize = 256;
+
+        private final char[] pattern;
+        private final int[] shifts;
+
+        private LikeMatcher(String pattern) {
+            this.pattern = pattern.toCharArray();
+            this.shifts = new int[shiftTableSize];
+            int last = this.pattern.length - 1;
+            Arrays.fill(this.shifts, this.pattern.length);
+            for (int i = 0; i < last; ++i) {
+                this.shifts[this.pattern[i] % shiftTableSize] = last - i;
+            }
+        }
+
+        // Whether the pattern occurs in str[startIdx:endIdx]
+        private boolean isFoundIn(String str, int startIdx, int endIdx) {
+            int last = this.pattern.length - 1;
+            if (last < 0) {
+                return true;
+            }
+            for (int idx = startIdx; idx + last < endIdx;
+                    idx += this.shifts[str.charAt(idx + last) % shiftTableSize]) {
+                int i = last;
+                while (i >= 0 && str.charAt(idx + i) == this.pattern[i]) {
+                    i--;
+                }
+                if (i < 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Same as Keyword.getByString,
+    // but string literals and numbers are told apart by their first character
+    private static Keyword getValueKeyword(String value) {
+        if (!value.isEmpty()) {
+            char firstChar = value.charAt(0);
+            if (firstChar == '\'' || firstChar == '+' || firstChar == '-'
+                    || ('0' <= firstChar && firstChar <= '9')) {
+                return null;
+            }
+        }
+        return Keyword.getByString(value);
+    }
+
+    // Values equal under `==` have the same equality key, e.g., 5, 5.0 and '5'.
+    // Keys of different values may still be the same.
+    // The key only depends on the value without quotes, because equal strings are so,
+    // and numbers or keywords are equal to strings of the same text.
+    public static String getEqualityKey(String value) {
+        String str = stripSingleQuote(value);
+        if (isIntegerLiteral(str) || isFloatLiteral(str)) {
+            return String.valueOf(Double.parseDouble(str) + 0.0); // -0.0 == 0.0
+        }
+        Keyword kw = Keyword.getByString(str);
+        if (kw == Keyword.TRUE || kw == Keyword.FALSE || kw == Keyword.NULL) {
+            return kw.toString();
+        }
+        return str;
+    }
+
     private static boolean compareKeyword(Keyword kw1, Keyword op, Keyword kw2)
             throws DBException {
         switch (op) {
@@ -279,7 +756,11 @@ public class Grammar {
 
     private static boolean compareByOrdering(String value1, Keyword op, String value2)
             throws DBException {
-        OrderingResult ordering = getValueOrdering(value1, value2);
+        return matchesOrdering(getValueOrdering(value1, value2), op);
+    }
+
+    private static boolean matchesOrdering(OrderingResult ordering, Keyword op)
+            throws DBException {
         switch (op) {
             case EQ:
                 return ordering == OrderingResult.EQ;
@@ -356,18 +837,36 @@ public class Grammar {
     }
 
     public static Task parseCommand(String command) throws DBException {
-        TokenList tokens = new TokenList(getTokensFromString(command));
+        List<Lexer.Token> lexedTokens = Lexer.lex(command);
+        TokenList tokens = new TokenList(lexedTokens);
         ensureMoreTokens(tokens, "empty command");
-        if (!isKeyword(Keyword.SEMICOLON, tokens.popBack())) {
+        if (!tokens.popBack().isKeyword(Keyword.SEMICOLON)) {
             throw new GrammarException("command not closed by semicolon");
         }
         ensureMoreTokens(tokens);
-        String cmdTypeStr = tokens.popFront();
-        Keyword cmdType = Keyword.getByString(cmdTypeStr);
+        Lexer.Token cmdTypeToken = tokens.popFront();
+        Keyword cmdType = cmdTypeToken.getKeyword();
         if (cmdType == null) {
-            throw new GrammarException("unknown command type " + cmdTypeStr);
+            throw new GrammarException("unknown command type " + cmdTypeToken);
         }
-        return parseCommandType(cmdType, tokens);
+        Task task = parseCommandType(cmdType, tokens);
+        task.setNormalisedCommand(normalise(lexedTokens));
+        return task;
+    }
+
+    // Reserved keywords in lower case, other tokens as they are, separated by a space.
+    // Other keywords may be names, whose case is kept in results.
+    private static String normalise(List<Lexer.Token> tokens) {
+        StringBuilder normalised = new StringBuilder();
+        for (Lexer.Token token : tokens) {
+            if (normalised.length() > 0) {
+                normalised.append(' ');
+            }
+            Keyword keyword = token.getKeyword();
+            normalised.append(keyword == null || !keyword.isReserved() ? token.getText()
+                    : keyword.toString());
+        }
+        return normalised.toString();
     }
 
     private static Task parseCommandType(Keyword cmdType, TokenList tokens)
@@ -391,6 +890,22 @@ public class Grammar {
                 return parseDelete(tokens);
             case JOIN:
                 return parseJoin(tokens);
+            case PREPARE:
+                return parsePrepare(tokens);
+            case EXECUTE:
+                return parseExecute(tokens);
+            case SNAPSHOT:
+                return parseSnapshot(tokens);
+            case SHOW:
+                return parseShow(tokens);
+            case DECLARE:
+                return parseDeclare(tokens);
+            case FETCH:
+                return parseFetch(tokens);
+            case CLOSE:
+                return parseClose(tokens);
+            case SUBSCRIBE:
+                return parseSubscribe(tokens);
             default:
                 throw new GrammarException("unknown command type " + cmdType.toString());
         }
@@ -400,74 +915,93 @@ public class Grammar {
         if (tokens.size() != 1) {
             throw new GrammarException("use command expect exactly one database name");
         }
-        String databaseName = tokens.popFront();
-        ensureValidDatabaseName(databaseName);
+        String databaseName = popValidDatabaseName(tokens);
         return new Task.UseTask(databaseName);
     }
 
     private static Task parseCreate(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "incomplete create command");
-        String createTypeStr = tokens.popFront();
-        Keyword createType = Keyword.getByString(createTypeStr);
+        Lexer.Token createTypeToken = tokens.popFront();
+        Keyword createType = createTypeToken.getKeyword();
         if (createType == Keyword.DATABASE) {
             return parseCreateDatabase(tokens);
         }
         if (createType == Keyword.TABLE) {
             return parseCreateTable(tokens);
         }
-        throw new GrammarException("can not create " + createTypeStr);
+        throw new GrammarException("can not create " + createTypeToken);
     }
 
     private static Task parseCreateDatabase(TokenList tokens) throws GrammarException {
         if (tokens.size() != 1) {
             throw new GrammarException("expect exactly one database name to create");
         }
-        String databaseName = tokens.popFront();
-        ensureValidDatabaseName(databaseName);
+        String databaseName = popValidDatabaseName(tokens);
         return new Task.CreateDatabaseTask(databaseName);
     }
 
     private static Task parseCreateTable(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "expect a table name to create");
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
+        String tableName = popValidTableName(tokens);
         Task.CreateTableTask task = new Task.CreateTableTask(tableName);
         if (tokens.empty()) {
             return task;
         }
+        if (tokens.front().isKeyword(Keyword.PARTITION)) {
+            parsePartition(tokens, task);
+            ensureNoMoreTokens(tokens);
+            return task;
+        }
         ensureIsKeyword(Keyword.LBRACKET, tokens.popFront());
         List<String> attrNames = parseList(tokens, (tokenList) -> {
             ensureMoreTokens(tokenList, "empty or incomplete attribute name list");
-            String attrName = tokenList.popFront();
-            ensureValidAttributeName(attrName);
-            return attrName;
+            return popValidAttributeName(tokenList);
         });
         task.addAttrNames(attrNames);
         ensureMoreTokens(tokens, "expect a bracket to close attribute list");
         ensureIsKeyword(Keyword.RBRACKET, tokens.popFront());
+        if (!tokens.empty()) {
+            parsePartition(tokens, task);
+        }
         ensureNoMoreTokens(tokens);
         return task;
     }
 
+    // PARTITION BY [AttributeName] INTO [n]
+    private static void parsePartition(TokenList tokens, Task.CreateTableTask task)
+            throws GrammarException {
+        ensurePopKeyword(Keyword.PARTITION, tokens);
+        ensurePopKeyword(Keyword.BY, tokens);
+        ensureMoreTokens(tokens, "expect an attribute to partition by");
+        String attrName = popValidAttrOrIdName(tokens);
+        ensurePopKeyword(Keyword.INTO, tokens);
+        ensureMoreTokens(tokens, "expect number of partitions");
+        long numberOfPartitions = popValidCount(tokens);
+        if (numberOfPartitions < 1 || numberOfPartitions > Table.getMaxNumberOfPartitions()) {
+            throw new GrammarException("number of partitions should be from 1 to "
+                    + Table.getMaxNumberOfPartitions());
+        }
+        task.setPartition(attrName, (int) numberOfPartitions);
+    }
+
     private static Task parseDrop(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "incomplete drop command");
-        String dropTypeStr = tokens.popFront();
-        Keyword dropType = Keyword.getByString(dropTypeStr);
+        Lexer.Token dropTypeToken = tokens.popFront();
+        Keyword dropType = dropTypeToken.getKeyword();
         if (dropType == Keyword.DATABASE) {
             return parseDropDatabase(tokens);
         }
         if (dropType == Keyword.TABLE) {
             return parseDropTable(tokens);
         }
-        throw new GrammarException("can not drop " + dropTypeStr);
+        throw new GrammarException("can not drop " + dropTypeToken);
     }
 
     private static Task parseDropDatabase(TokenList tokens) throws GrammarException {
         if (tokens.size() != 1) {
             throw new GrammarException("expect exactly one database name to drop");
         }
-        String databaseName = tokens.popFront();
-        ensureValidDatabaseName(databaseName);
+        String databaseName = popValidDatabaseName(tokens);
         return new Task.DropDatabaseTask(databaseName);
     }
 
@@ -475,8 +1009,7 @@ public class Grammar {
         if (tokens.size() != 1) {
             throw new GrammarException("expect exactly one table name to drop");
         }
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
+        String tableName = popValidTableName(tokens);
         return new Task.DropTableTask(tableName);
     }
 
@@ -486,77 +1019,174 @@ public class Grammar {
                     "expect alter command: ALTER TABLE [TableName] ADD/DROP [AttrName]");
         }
         ensureIsKeyword(Keyword.TABLE, tokens.popFront());
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
-        String alterTypeStr = tokens.popFront();
-        Keyword alterType = Keyword.getByString(alterTypeStr);
+        String tableName = popValidTableName(tokens);
+        Lexer.Token alterTypeToken = tokens.popFront();
+        Keyword alterType = alterTypeToken.getKeyword();
         if (alterType != Keyword.ADD && alterType != Keyword.DROP) {
-            throw new GrammarException("unknown alter type " + alterTypeStr);
+            throw new GrammarException("unknown alter type " + alterTypeToken);
         }
-        String attrName = tokens.popFront();
-        ensureValidAttributeName(attrName);
+        String attrName = popValidAttributeName(tokens);
         return new Task.AlterTask(tableName, attrName, alterType == Keyword.ADD);
     }
 
     private static Task parseInsert(TokenList tokens) throws GrammarException {
         ensurePopKeyword(Keyword.INTO, tokens);
         ensureMoreTokens(tokens, "expect table name for insertion");
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
+        String tableName = popValidTableName(tokens);
         ensurePopKeyword(Keyword.VALUES, tokens);
         ensurePopKeyword(Keyword.LBRACKET, tokens);
         List<String> values = parseList(tokens, (tokenList) -> {
             ensureMoreTokens(tokens, "empty or incomplete attribute value list");
-            String value = tokenList.popFront();
-            ensureValidAttributeValue(value);
-            return value;
+            return popAttributeValue(tokenList);
         });
         ensurePopKeyword(Keyword.RBRACKET, tokens);
         ensureNoMoreTokens(tokens);
         return new Task.InsertTask(tableName, values);
     }
 
-    private static Task parseSelect(TokenList tokens) throws GrammarException {
+    private static Task.SelectTask parseSelect(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "expect selection for select");
-        List<String> selection = null;
-        if (isKeyword(Keyword.STAR, tokens.front())) {
+        List<Aggregate> selection = null;
+        if (tokens.front().isKeyword(Keyword.STAR)) {
             tokens.popFront();
         } else {
             selection = parseList(tokens, (tokenList) -> {
                 ensureMoreTokens(tokenList, "incomplete selection list");
-                String attrName = tokenList.popFront();
-                ensureValidAttrOrIdName(attrName);
-                return attrName;
+                return parseSelectionItem(tokenList);
             });
         }
         ensurePopKeyword(Keyword.FROM, tokens);
         ensureMoreTokens(tokens, "expect table name for insertion");
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
-        Task.SelectTask task = new Task.SelectTask(tableName, selection, new AlwaysTrueCondition());
-        if (tokens.empty()) {
-            return task;
+        String tableName = popValidTableName(tokens);
+        Task.SelectTask task = new Task.SelectTask(tableName, null, new AlwaysTrueCondition());
+        if (!tokens.empty() && tokens.front().isKeyword(Keyword.WHERE)) {
+            tokens.popFront();
+            task.setCondition(parseCondition(tokens));
+        }
+        List<String> groupAttrNames = null;
+        if (!tokens.empty() && tokens.front().isKeyword(Keyword.GROUP)) {
+            groupAttrNames = parseGroupBy(tokens);
+        }
+        setSelection(task, selection, groupAttrNames);
+        if (!tokens.empty() && tokens.front().isKeyword(Keyword.ORDER)) {
+            parseOrderBy(tokens, task);
+        }
+        if (!tokens.empty() && tokens.front().isKeyword(Keyword.LIMIT)) {
+            parseLimit(tokens, task);
         }
-        ensurePopKeyword(Keyword.WHERE, tokens);
-        task.setCondition(parseCondition(tokens));
         ensureNoMoreTokens(tokens);
         return task;
     }
 
+    // An attribute name, or an aggregate function like `COUNT(*)`, `MAX(attr)`
+    private static Aggregate parseSelectionItem(TokenList tokens) throws GrammarException {
+        if (tokens.size() < 2 || !tokens.frontAt(1).isKeyword(Keyword.LBRACKET)) {
+            return Aggregate.ofAttribute(popValidAttrOrIdName(tokens));
+        }
+        Lexer.Token functionToken = tokens.popFront();
+        Aggregate.Function function = Aggregate.Function.getByName(functionToken.getText());
+        if (function == null) {
+            throw new GrammarException("unknown aggregate function " + functionToken);
+        }
+        ensurePopKeyword(Keyword.LBRACKET, tokens);
+        ensureMoreTokens(tokens, "expect attribute name to aggregate");
+        String attrName = null; // Aggregate all rows
+        if (function == Aggregate.Function.COUNT && tokens.front().isKeyword(Keyword.STAR)) {
+            tokens.popFront();
+        } else {
+            attrName = popValidAttrOrIdName(tokens);
+        }
+        ensurePopKeyword(Keyword.RBRACKET, tokens);
+        return new Aggregate(function, attrName);
+    }
+
+    // GROUP BY [AttributeName], [AttributeName], ...
+    private static List<String> parseGroupBy(TokenList tokens) throws GrammarException {
+        ensurePopKeyword(Keyword.GROUP, tokens);
+        ensurePopKeyword(Keyword.BY, tokens);
+        return parseList(tokens, (tokenList) -> {
+            ensureMoreTokens(tokenList, "incomplete group by list");
+            return popValidAttrOrIdName(tokenList);
+        });
+    }
+
+    // A query with aggregate functions or grouping is an aggregate query,
+    // where plain attributes selected must be those grouped by.
+    private static void setSelection(Task.SelectTask task, List<Aggregate> selection,
+            List<String> groupAttrNames) throws GrammarException {
+        boolean aggregating = groupAttrNames != null;
+        if (selection != null) {
+            for (Aggregate item : selection) {
+                aggregating = aggregating || !item.isGroupingAttribute();
+            }
+        }
+        if (!aggregating) {
+            if (selection != null) {
+                task.setSelection(selection.stream()
+                        .map((item) -> item.getAttrName()).collect(Collectors.toList()));
+            }
+            return;
+        }
+        if (selection == null) {
+            throw new GrammarException("can not select * in aggregate query");
+        }
+        if (groupAttrNames == null) {
+            groupAttrNames = new ArrayList<String>();
+        }
+        for (Aggregate item : selection) {
+            String attrName = item.getAttrName();
+            if (item.isGroupingAttribute() && groupAttrNames.stream()
+                    .noneMatch((groupAttrName) -> groupAttrName.equalsIgnoreCase(attrName))) {
+                throw new GrammarException("attribute " + attrName + " is not grouped by");
+            }
+        }
+        task.setAggregation(selection, groupAttrNames);
+    }
+
+    // ORDER BY [AttributeName] [ASC|DESC]
+    private static void parseOrderBy(TokenList tokens, Task.SelectTask task)
+            throws GrammarException {
+        ensurePopKeyword(Keyword.ORDER, tokens);
+        ensurePopKeyword(Keyword.BY, tokens);
+        ensureMoreTokens(tokens, "expect attribute name to order by");
+        String attrName = popValidAttrOrIdName(tokens);
+        boolean descending = false;
+        if (!tokens.empty()) {
+            Keyword direction = tokens.front().getKeyword();
+            if (direction == Keyword.ASC || direction == Keyword.DESC) {
+                tokens.popFront();
+                descending = direction == Keyword.DESC;
+            }
+        }
+        task.setOrdering(attrName, descending);
+    }
+
+    // LIMIT [n] [OFFSET [m]]
+    private static void parseLimit(TokenList tokens, Task.SelectTask task)
+            throws GrammarException {
+        ensurePopKeyword(Keyword.LIMIT, tokens);
+        ensureMoreTokens(tokens, "expect number of rows to limit");
+        long limit = popValidCount(tokens);
+        long offset = 0;
+        if (!tokens.empty() && tokens.front().isKeyword(Keyword.OFFSET)) {
+            tokens.popFront();
+            ensureMoreTokens(tokens, "expect number of rows to skip");
+            offset = popValidCount(tokens);
+        }
+        task.setLimit(limit, offset);
+    }
+
     private static Task parseUpdate(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "expect table name for update");
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
+        String tableName = popValidTableName(tokens);
         ensurePopKeyword(Keyword.SET, tokens);
         List<Map.Entry<String, String>> modification = parseList(tokens, (tokenList) -> {
             if (tokenList.size() < 3) {
                 throw new GrammarException("empty or incomplete name-value pair");
             }
-            String attrName = tokenList.popFront();
-            ensureValidAttributeName(attrName);
+            String attrName = popValidAttributeName(tokenList);
             ensurePopKeyword(Keyword.ASSIGN, tokens);
-            String attrValue = tokenList.popFront();
-            ensureValidAttributeValue(attrValue);
+            String attrValue = popAttributeValue(tokenList);
             return new AbstractMap.SimpleEntry<String, String>(attrName, attrValue);
         });
         ensurePopKeyword(Keyword.WHERE, tokens);
@@ -568,8 +1198,7 @@ public class Grammar {
     private static Task parseDelete(TokenList tokens) throws GrammarException {
         ensurePopKeyword(Keyword.FROM, tokens);
         ensureMoreTokens(tokens, "expect table name for delete");
-        String tableName = tokens.popFront();
-        ensureValidTableName(tableName);
+        String tableName = popValidTableName(tokens);
         ensurePopKeyword(Keyword.WHERE, tokens);
         Condition cond = parseCondition(tokens);
         ensureNoMoreTokens(tokens);
@@ -578,28 +1207,123 @@ public class Grammar {
 
     private static Task parseJoin(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "expect table name one for update"); // Table one
-        String tableNameOne = tokens.popFront();
-        ensureValidTableName(tableNameOne);
+        String tableNameOne = popValidTableName(tokens);
         ensurePopKeyword(Keyword.AND, tokens); // AND
         ensureMoreTokens(tokens, "expect table name tow for update"); // Table two
-        String tableNameTwo = tokens.popFront();
-        ensureValidTableName(tableNameTwo);
+        String tableNameTwo = popValidTableName(tokens);
         ensurePopKeyword(Keyword.ON, tokens); // ON
         ensureMoreTokens(tokens, "expect attribute name one for update"); // Attr one
-        String attrNameOne = tokens.popFront();
-        ensureValidAttrOrIdName(attrNameOne);
+        String attrNameOne = popValidAttrOrIdName(tokens);
         ensurePopKeyword(Keyword.AND, tokens); // AND
         ensureMoreTokens(tokens, "expect attribute name tow for update"); // Attr two
-        String attrNameTwo = tokens.popFront();
-        ensureValidAttrOrIdName(attrNameTwo);
+        String attrNameTwo = popValidAttrOrIdName(tokens);
         ensureNoMoreTokens(tokens); // End
         return new Task.JoinTask(tableNameOne, tableNameTwo, attrNameOne, attrNameTwo);
     }
 
+    // PREPARE [name] AS [command with placeholders]
+    private static Task parsePrepare(TokenList tokens) throws GrammarException {
+        ensureMoreTokens(tokens, "expect a name for prepared command");
+        String name = popValidPreparedName(tokens);
+        ensurePopKeyword(Keyword.AS, tokens);
+        ensureMoreTokens(tokens, "expect a command to prepare");
+        Lexer.Token cmdTypeToken = tokens.popFront();
+        Keyword cmdType = cmdTypeToken.getKeyword();
+        if (cmdType == null || cmdType == Keyword.PREPARE || cmdType == Keyword.EXECUTE) {
+            throw new GrammarException("can not prepare command type " + cmdTypeToken);
+        }
+        tokens.allowPlaceholders();
+        Task template = parseCommandType(cmdType, tokens);
+        return new Task.PrepareTask(name, template, tokens.getNumberOfPlaceholders());
+    }
+
+    // SNAPSHOT [name]
+    private static Task parseSnapshot(TokenList tokens) throws GrammarException {
+        if (tokens.size() != 1) {
+            throw new GrammarException("snapshot command expect exactly one snapshot name");
+        }
+        String name = popValidSnapshotName(tokens);
+        return new Task.SnapshotTask(name);
+    }
+
+    // SHOW REPLICATION | SHOW STATS | SHOW CACHE
+    private static Task parseShow(TokenList tokens) throws GrammarException {
+        ensureMoreTokens(tokens);
+        Lexer.Token subjectToken = tokens.popFront();
+        Keyword subject = subjectToken.getKeyword();
+        if (subject != Keyword.REPLICATION && subject != Keyword.STATS
+                && subject != Keyword.CACHE) {
+            throw new GrammarException("unknown subject to show " + subjectToken);
+        }
+        ensureNoMoreTokens(tokens);
+        return new Task.ShowTask(subject);
+    }
+
+    // DECLARE [name] CURSOR FOR [select command]
+    private static Task parseDeclare(TokenList tokens) throws GrammarException {
+        ensureMoreTokens(tokens, "expect a cursor name to declare");
+        String name = popValidCursorName(tokens);
+        ensurePopKeyword(Keyword.CURSOR, tokens);
+        ensurePopKeyword(Keyword.FOR, tokens);
+        ensurePopKeyword(Keyword.SELECT, tokens);
+        Task.SelectTask selectTask = parseSelect(tokens);
+        return new Task.DeclareTask(name, selectTask);
+    }
+
+    // FETCH [count] FROM [name]
+    private static Task parseFetch(TokenList tokens) throws GrammarException {
+        ensureMoreTokens(tokens, "expect a number of rows to fetch");
+        long count = popValidCount(tokens);
+        ensurePopKeyword(Keyword.FROM, tokens);
+        ensureMoreTokens(tokens, "expect a cursor name to fetch from");
+        String name = popValidCursorName(tokens);
+        ensureNoMoreTokens(tokens);
+        return new Task.FetchTask(name, count);
+    }
+
+    // CLOSE [name]
+    private static Task parseClose(TokenList tokens) throws GrammarException {
+        if (tokens.size() != 1) {
+            throw new GrammarException("close command expect exactly one cursor name");
+        }
+        String name = popValidCursorName(tokens);
+        return new Task.CloseTask(name);
+    }
+
+    // SUBSCRIBE [table], [table], ..., [table] FROM [database]
+    private static Task parseSubscribe(TokenList tokens) throws GrammarException {
+        List<String> tableNames = parseList(tokens, (tokenList) -> {
+            ensureMoreTokens(tokenList, "empty or incomplete table list to subscribe to");
+            return popValidTableName(tokenList);
+        });
+        ensurePopKeyword(Keyword.FROM, tokens);
+        ensureMoreTokens(tokens, "expect a database name to subscribe to");
+        String databaseName = popValidDatabaseName(tokens);
+        ensureNoMoreTokens(tokens);
+        return new Task.SubscribeTask(databaseName, tableNames);
+    }
+
+    // EXECUTE [name] [(value, value, ..., value)]
+    private static Task parseExecute(TokenList tokens) throws GrammarException {
+        ensureMoreTokens(tokens, "expect a prepared command name to execute");
+        String name = popValidPreparedName(tokens);
+        List<String> values = new ArrayList<String>();
+        if (!tokens.empty()) {
+            ensurePopKeyword(Keyword.LBRACKET, tokens);
+            values = parseList(tokens, (tokenList) -> {
+                ensureMoreTokens(tokenList, "empty or incomplete parameter list");
+                return popValidAttributeValue(tokenList);
+            });
+            ensurePopKeyword(Keyword.RBRACKET, tokens);
+        }
+        ensureNoMoreTokens(tokens);
+        return new Task.ExecuteTask(name, values);
+    }
+
     private static CompoundCondition parseCondition(TokenList tokens) throws GrammarException {
         ensureMoreTokens(tokens, "expect a condition");
         Condition condOne;
-        if (isKeyword(Keyword.LBRACKET, tokens.front())) {
+        if (tokens.front().isKeyword(Keyword.LBRACKET)) {
             tokens.popFront();
             condOne = parseCondition(tokens);
             ensurePopKeyword(Keyword.RBRACKET, tokens);
@@ -610,7 +1334,7 @@ public class Grammar {
         if (tokens.empty()) {
             return cond;
         }
-        Keyword connection = Keyword.getByString(tokens.front());
+        Keyword connection = tokens.front().getKeyword();
         if (connection != Keyword.AND && connection != Keyword.OR) {
             return cond;
         }
@@ -624,12 +1348,11 @@ public class Grammar {
         if (tokens.size() < 3) {
             throw new GrammarException("expect a comparator");
         }
-        String attrName = tokens.popFront();
-        ensureValidAttrOrIdName(attrName);
-        String cmpOpStr = tokens.popFront();
-        Keyword cmpOp = Keyword.getByString(cmpOpStr);
+        String attrName = popValidAttrOrIdName(tokens);
+        Lexer.Token cmpOpToken = tokens.popFront();
+        Keyword cmpOp = cmpOpToken.getKeyword();
         if (cmpOp == null) {
-            throw new GrammarException("invalid comparison op " + cmpOpStr);
+            throw new GrammarException("invalid comparison op " + cmpOpToken);
         }
         switch (cmpOp) {
             case EQ: case GT: case LT: case GE: case LE: case NEQ: case LIKE:
@@ -637,8 +1360,7 @@ public class Grammar {
             default:
                 throw new GrammarException("illegal operator " + cmpOp.toString());
         }
-        String value = tokens.popFront();
-        ensureValidAttributeValue(value);
+        String value = popAttributeValue(tokens);
         Comparator cmp = new Comparator(attrName, cmpOp, value);
         return cmp;
     }
@@ -650,7 +1372,7 @@ public class Grammar {
         ArrayList<E> list = new ArrayList<E>();
         E e = extractor.extract(tokens);
         list.add(e);
-        while (!tokens.empty() && isKeyword(Keyword.COMMA, tokens.front())) {
+        while (!tokens.empty() && tokens.front().isKeyword(Keyword.COMMA)) {
             tokens.popFront();
             e = extractor.extract(tokens);
             list.add(e);
@@ -658,49 +1380,15 @@ public class Grammar {
         return list;
     }
 
-    // This class lexes a string into token list.
+    // Lex a string into token list.
     public static ArrayList<String> getTokensFromString(String str) throws DBException {
-        if (str == null) {
-            throw new DBException.NullObjectException("get tokens from null");
-        }
         ArrayList<String> tokens = new ArrayList<String>();
-        String[] fragments = (" " + str + " ").split(Pattern.quote("'"));
-        if (fragments.length % 2 != 1) {
-            throw new GrammarException("unclosed string literal");
-        }
-        for (int i = 0; i < fragments.length; ++i) {
-            if (i % 2 == 1) {
-                tokens.add("'" + fragments[i] + "'");
-            } else {
-                tokens.addAll(getTokensFromTrivialString(fragments[i]));
-            }
+        for (Lexer.Token token : Lexer.lex(str)) {
+            tokens.add(token.getText());
         }
         return tokens;
     }
 
-    protected static List<String> getTokensFromTrivialString(String str) throws DBException {
-        if (str == null) {
-            throw new DBException.NullObjectException("get tokens from null");
-        }
-        final Keyword[] symbolKeywords = { // No EQ, NEQ, GE, LE here
-                Keyword.STAR, Keyword.ASSIGN, Keyword.GT, Keyword.LT,
-                Keyword.LBRACKET, Keyword.RBRACKET, Keyword.COMMA, Keyword.SEMICOLON
-        };
-        for (int i = 0; i < symbolKeywords.length; ++i) {
-            String keywordStr = symbolKeywords[i].toString();
-            str = str.replace(keywordStr, " " + keywordStr + " ");
-        }
-        str = str.replace("! = ", " != "); // NEQ
-        str = str.replace(" >  = ", " >= "); // GE
-        str = str.replace(" <  = ", " <= "); // LE
-        str = str.replace(" =  = ", " == "); // EQ, lastly
-        str = str.trim();
-        if (str.length() == 0) {
-            return new ArrayList<String>();
-        }
-        return Arrays.asList(str.split("\\s+"));
-    }
-
     public static String getIdAttrName() {
         return idAttrName;
     }
@@ -709,6 +1397,11 @@ public class Grammar {
         return Keyword.getByString(str) != null;
     }
 
+    public static boolean isReservedKeyword(String str) {
+        Keyword kw = Keyword.getByString(str);
+        return kw != null && kw.isReserved();
+    }
+
     public static boolean isKeyword(Keyword kw, String str) {
         return kw != null && kw.equals(str);
     }
@@ -745,35 +1438,59 @@ public class Grammar {
         return isKeyword(Keyword.TRUE, str) || isKeyword(Keyword.FALSE, str);
     }
 
+    // [+-]?[0-9]+\.[0-9]+
     public static boolean isFloatLiteral(String str) {
         if (str == null) {
             return false;
         }
-        Pattern floatPattern = Pattern.compile("[+-]?[0-9]+\\.[0-9]+");
-        Matcher floatMatcher = floatPattern.matcher(str);
-        return floatMatcher.matches();
+        int dotIdx = str.indexOf('.');
+        return dotIdx >= 0 && isIntegerLiteral(str.substring(0, dotIdx))
+                && isDigits(str, dotIdx + 1);
     }
 
+    // [+-]?[0-9]+
     public static boolean isIntegerLiteral(String str) {
-        if (str == null) {
+        if (str == null || str.length() == 0) {
             return false;
         }
-        Pattern integerPattern = Pattern.compile("[+-]?[0-9]+");
-        Matcher integerMatcher = integerPattern.matcher(str);
-        return integerMatcher.matches();
+        char firstChar = str.charAt(0);
+        return isDigits(str, firstChar == '+' || firstChar == '-' ? 1 : 0);
+    }
+
+    // Whether str[startIdx:] is a non-empty sequence of digits
+    private static boolean isDigits(String str, int startIdx) {
+        int strLen = str.length();
+        if (startIdx >= strLen) {
+            return false;
+        }
+        for (int i = startIdx; i < strLen; ++i) {
+            char ch = str.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static boolean isNullLiteral(String str) {
         return isKeyword(Keyword.NULL, str);
     }
 
+    public static boolean isPlaceholder(String str) {
+        return isKeyword(Keyword.PLACEHOLDER, str);
+    }
+
+    // [0-9A-Za-z]+
     public static boolean isPlainText(String str) {
-        if (str == null) {
+        if (str == null || str.length() == 0) {
             return false;
         }
-        Pattern plainTextPattern = Pattern.compile("[0-9A-Za-z]+");
-        Matcher plainTextMatcher = plainTextPattern.matcher(str);
-        return plainTextMatcher.matches();
+        for (int i = 0; i < str.length(); ++i) {
+            if (!Lexer.isPlainTextChar(str.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     public static boolean isIdAttrName(String str) {
@@ -781,7 +1498,7 @@ public class Grammar {
     }
 
     public static boolean isValidNameString(String str) {
-        return str != null && isPlainText(str) && !isKeyword(str);
+        return str != null && isPlainText(str) && !isReservedKeyword(str);
     }
 
     public static boolean isValidDatabaseName(String str) {
@@ -802,33 +1519,89 @@ public class Grammar {
         return isValidNameString(str);
     }
 
+    public static boolean isValidPreparedName(String str) {
+        return isValidNameString(str);
+    }
+
     public static boolean isValidAttributeValue(String str) {
         return isStringLiteral(str) || isBooleanLiteral(str)
                 || isFloatLiteral(str) || isIntegerLiteral(str) || isNullLiteral(str);
     }
 
-    private static void ensureValidDatabaseName(String databaseName) throws GrammarException {
-        if (!isValidDatabaseName(databaseName)) {
-            throw new GrammarException("invalid database name " + databaseName);
+    private static String popValidDatabaseName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid database name " + token);
+        }
+        return token.getText();
+    }
+
+    private static String popValidPreparedName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid prepared command name " + token);
+        }
+        return token.getText();
+    }
+
+    private static String popValidCursorName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid cursor name " + token);
         }
+        return token.getText();
     }
 
-    private static void ensureValidTableName(String tableName) throws GrammarException {
-        if (!isValidTableName(tableName)) {
-            throw new GrammarException("invalid table name " + tableName);
+    private static String popValidSnapshotName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid snapshot name " + token);
         }
+        return token.getText();
     }
 
-    private static void ensureValidAttributeName(String attrName) throws GrammarException {
-        if (!isValidAttributeName(attrName)) {
-            throw new GrammarException("invalid attribute name " + attrName);
+    private static String popValidTableName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid table name " + token);
         }
+        return token.getText();
     }
 
-    private static void ensureValidAttrOrIdName(String attrName) throws GrammarException {
-        if (!isValidAttrOrIdName(attrName)) {
-            throw new GrammarException("invalid attribute name " + attrName);
+    // Attribute name, but not "id"
+    private static String popValidAttributeName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName() || isIdAttrName(token.getText())) {
+            throw new GrammarException("invalid attribute name " + token);
         }
+        return token.getText();
+    }
+
+    // Attribute name, including "id"
+    private static String popValidAttrOrIdName(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isValidName()) {
+            throw new GrammarException("invalid attribute name " + token);
+        }
+        return token.getText();
+    }
+
+    // A non-negative integer, e.g., number of rows
+    private static long popValidCount(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (token.getType() != Lexer.TokenType.INTEGER_LITERAL || !token.isPlainText()
+                || !token.hasLongValue()) {
+            throw new GrammarException("invalid count " + token);
+        }
+        return token.getLongValue();
+    }
+
+    private static String popValidAttributeValue(TokenList tokens) throws GrammarException {
+        Lexer.Token token = tokens.popFront();
+        if (!token.isAttributeValue()) {
+            throw new GrammarException("invalid attribute value " + token);
+        }
+        return token.getText();
     }
 
     public static void ensureValidAttributeValue(String attrValue) throws GrammarException {
@@ -837,9 +1610,19 @@ public class Grammar {
         }
     }
 
-    private static void ensureIsKeyword(Keyword kw, String str) throws GrammarException {
-        if (!isKeyword(kw, str)) {
-            throw new GrammarException("expect " + kw + " but found " + str);
+    // Pop an attribute value.
+    // Inside a prepared command, the value can also be a placeholder.
+    private static String popAttributeValue(TokenList tokens) throws GrammarException {
+        if (tokens.isPlaceholderAllowed() && tokens.front().isKeyword(Keyword.PLACEHOLDER)) {
+            tokens.countPlaceholder();
+            return tokens.popFront().getText();
+        }
+        return popValidAttributeValue(tokens);
+    }
+
+    private static void ensureIsKeyword(Keyword kw, Lexer.Token token) throws GrammarException {
+        if (!token.isKeyword(kw)) {
+            throw new GrammarException("expect " + kw + " but found " + token);
         }
     }
 
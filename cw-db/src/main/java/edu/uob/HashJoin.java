@@ -0,0 +1,191 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+// This class joins the entities of two tables on equal values of an attribute each.
+// Entities of the second table are put in a hash table by their values,
+// then each entity of the first table looks up its matches in it,
+// so the joined rows are in the order of the first table, then of the second.
+// If the second table takes more memory than the budget,
+// both tables are split by hash into partitions spilled to files,
+// the partitions are joined one by one,
+// and the joined rows are put back in order by an external sort.
+// The joined rows are still returned in memory, so a join whose result would take
+// more than its limit fails rather than running out of memory.
+public class HashJoin {
+    private static final int maxNumberOfPartitions = 256;
+
+    private final Path spillDirectoryPath;
+    private final long memoryBudget;
+    private final long maxResultSize;
+    private int numberOfSpilledPartitions; // By the last join, 0 if joined in memory
+
+    public HashJoin(Path spillDirectoryPath, long memoryBudget, long maxResultSize) {
+        this.spillDirectoryPath = spillDirectoryPath;
+        this.memoryBudget = memoryBudget;
+        this.maxResultSize = maxResultSize;
+        this.numberOfSpilledPartitions = 0;
+    }
+
+    public int getNumberOfSpilledPartitions() {
+        return this.numberOfSpilledPartitions;
+    }
+
+    // Each joined row has a new id, then the other attributes of the two entities.
+    // The compared attribute is the first selected by each getter.
+    public void join(Table table1, Table table2, Table.AttrIdFieldGetter attrGetter1,
+            Table.AttrIdFieldGetter attrGetter2, Result result) throws DBException, IOException {
+        this.numberOfSpilledPartitions = 0;
+        Table.AttrIdFieldGetter displayAttrGetter1 = attrGetter1.complement();
+        Table.AttrIdFieldGetter displayAttrGetter2 = attrGetter2.complement();
+        HashMap<String, List<List<String>>> hashTable = new HashMap<String, List<List<String>>>();
+        long hashTableSize = 0;
+        int numberOfRowsHashed = 0;
+        for (Table.Entity e2 : table2) {
+            List<String> row2 = getJoinedRow(e2, attrGetter2, displayAttrGetter2);
+            hashTableSize += Result.estimateSize(row2);
+            if (hashTableSize > this.memoryBudget) {
+                // Partitions are expected to take half the budget each
+                long estimatedSize = hashTableSize * table2.getNumberOfEntities()
+                        / (numberOfRowsHashed + 1);
+                long numberOfPartitions = 2 * estimatedSize / Math.max(1, this.memoryBudget) + 1;
+                joinSpilled(table1, table2, attrGetter1, attrGetter2,
+                        (int) Math.min(maxNumberOfPartitions, Math.max(2, numberOfPartitions)),
+                        result);
+                return;
+            }
+            hashTable.computeIfAbsent(Grammar.getEqualityKey(row2.get(0)),
+                    (key) -> new ArrayList<List<String>>()).add(row2);
+            numberOfRowsHashed++;
+        }
+        int nextId = 0;
+        for (Table.Entity e1 : table1) {
+            String value1 = attrGetter1.getSelectedValues(e1).get(0);
+            List<List<String>> matches = hashTable.get(Grammar.getEqualityKey(value1));
+            if (matches == null) {
+                continue;
+            }
+            List<String> values1 = null;
+            for (List<String> row2 : matches) {
+                if (!Grammar.compareValue(value1, Grammar.Keyword.EQ, row2.get(0))) {
+                    continue;
+                }
+                if (values1 == null) {
+                    values1 = displayAttrGetter1.getSelectedValues(e1);
+                }
+                List<String> valueRow = new ArrayList<String>();
+                valueRow.add(String.valueOf(nextId++));
+                valueRow.addAll(values1);
+                valueRow.addAll(row2.subList(1, row2.size()));
+                result.addRow(valueRow, this.maxResultSize);
+            }
+        }
+    }
+
+    // The compared value, then the displayed ones
+    private static List<String> getJoinedRow(Table.Entity entity,
+            Table.AttrIdFieldGetter attrGetter, Table.AttrIdFieldGetter displayAttrGetter)
+            throws DBException {
+        List<String> row = new ArrayList<String>();
+        row.add(attrGetter.getSelectedValues(entity).get(0));
+        row.addAll(displayAttrGetter.getSelectedValues(entity));
+        return row;
+    }
+
+    // Rows spilled to partitions are the position of the entity in its table,
+    // the compared value, then the displayed ones.
+    // Joined rows are the positions of the two entities, then the displayed values.
+    private void joinSpilled(Table table1, Table table2, Table.AttrIdFieldGetter attrGetter1,
+            Table.AttrIdFieldGetter attrGetter2, int numberOfPartitions, Result result)
+            throws DBException, IOException {
+        this.numberOfSpilledPartitions = numberOfPartitions;
+        List<SpillFile> partitions1 = new ArrayList<SpillFile>();
+        List<SpillFile> partitions2 = new ArrayList<SpillFile>();
+        ExternalSorter.KeyFunction<long[]> positions = (row) -> new long[] {
+                Long.parseLong(row.get(0)), Long.parseLong(row.get(1)) };
+        Comparator<long[]> positionOrder = Arrays::compare;
+        try (ExternalSorter<long[]> sorter = new ExternalSorter<long[]>(this.spillDirectoryPath,
+                this.memoryBudget, positions, positionOrder)) {
+            spillPartitions(table1, attrGetter1, numberOfPartitions, partitions1);
+            spillPartitions(table2, attrGetter2, numberOfPartitions, partitions2);
+            for (int i = 0; i < numberOfPartitions; ++i) {
+                joinPartition(partitions1.get(i), partitions2.get(i), sorter);
+                partitions1.get(i).close();
+                partitions2.get(i).close();
+            }
+            int nextId = 0;
+            List<String> joinedRow;
+            while ((joinedRow = sorter.next()) != null) {
+                List<String> valueRow = new ArrayList<String>();
+                valueRow.add(String.valueOf(nextId++));
+                valueRow.addAll(joinedRow.subList(2, joinedRow.size()));
+                result.addRow(valueRow, this.maxResultSize);
+            }
+        } finally {
+            closeAll(partitions1);
+            closeAll(partitions2);
+        }
+    }
+
+    private void spillPartitions(Table table, Table.AttrIdFieldGetter attrGetter,
+            int numberOfPartitions, List<SpillFile> partitions) throws DBException, IOException {
+        for (int i = 0; i < numberOfPartitions; ++i) {
+            partitions.add(new SpillFile(this.spillDirectoryPath));
+        }
+        Table.AttrIdFieldGetter displayAttrGetter = attrGetter.complement();
+        long position = 0;
+        for (Table.Entity entity : table) {
+            List<String> row = getJoinedRow(entity, attrGetter, displayAttrGetter);
+            int partitionIdx = Math.floorMod(Grammar.getEqualityKey(row.get(0)).hashCode(),
+                    numberOfPartitions);
+            row.add(0, String.valueOf(position++));
+            partitions.get(partitionIdx).write(row);
+        }
+    }
+
+    // A partition of the second table is read into memory,
+    // then that of the first table is streamed past it
+    private static void joinPartition(SpillFile partition1, SpillFile partition2,
+            ExternalSorter<long[]> sorter) throws DBException, IOException {
+        HashMap<String, List<List<String>>> hashTable = new HashMap<String, List<List<String>>>();
+        try (SpillFile.Reader reader2 = partition2.read()) {
+            List<String> row2;
+            while ((row2 = reader2.next()) != null) {
+                hashTable.computeIfAbsent(Grammar.getEqualityKey(row2.get(1)),
+                        (key) -> new ArrayList<List<String>>()).add(row2);
+            }
+        }
+        try (SpillFile.Reader reader1 = partition1.read()) {
+            List<String> row1;
+            while ((row1 = reader1.next()) != null) {
+                List<List<String>> matches = hashTable.get(Grammar.getEqualityKey(row1.get(1)));
+                if (matches == null) {
+                    continue;
+                }
+                for (List<String> row2 : matches) {
+                    if (!Grammar.compareValue(row1.get(1), Grammar.Keyword.EQ, row2.get(1))) {
+                        continue;
+                    }
+                    List<String> joinedRow = new ArrayList<String>();
+                    joinedRow.add(row1.get(0));
+                    joinedRow.add(row2.get(0));
+                    joinedRow.addAll(row1.subList(2, row1.size()));
+                    joinedRow.addAll(row2.subList(2, row2.size()));
+                    sorter.add(joinedRow);
+                }
+            }
+        }
+    }
+
+    private static void closeAll(List<SpillFile> spillFiles) throws IOException {
+        for (SpillFile spillFile : spillFiles) {
+            spillFile.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Rows stored in primitive arrays on the heap, without an object for each row.
+// Codes are laid out row by row.
+public class HeapRowStore implements RowStore {
+    private static final int initialCapacity = 16;
+
+    private long[] ids;
+    private int[] codes;
+    private int numberOfColumns;
+    private int size;
+
+    public HeapRowStore(int numberOfColumns) {
+        this.ids = new long[initialCapacity];
+        this.codes = new int[initialCapacity * numberOfColumns];
+        this.numberOfColumns = numberOfColumns;
+        this.size = 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int getNumberOfColumns() {
+        return this.numberOfColumns;
+    }
+
+    @Override
+    public long getId(int row) {
+        return this.ids[row];
+    }
+
+    @Override
+    public int getCode(int row, int column) {
+        return this.codes[row * this.numberOfColumns + column];
+    }
+
+    @Override
+    public void setCode(int row, int column, int code) {
+        this.codes[row * this.numberOfColumns + column] = code;
+    }
+
+    @Override
+    public void add(long id, int[] codes) throws DBException {
+        if (codes.length != this.numberOfColumns) {
+            throw new Table.TableException.InvalidNumberOfAttributesException(
+                    this.numberOfColumns, codes.length);
+        }
+        if (this.size == this.ids.length) {
+            int capacity = this.size * 2;
+            this.ids = Arrays.copyOf(this.ids, capacity);
+            this.codes = Arrays.copyOf(this.codes, capacity * this.numberOfColumns);
+        }
+        this.ids[this.size] = id;
+        System.arraycopy(codes, 0, this.codes, this.size * this.numberOfColumns,
+                this.numberOfColumns);
+        this.size++;
+    }
+
+    @Override
+    public void addColumn(int code) {
+        int newNumberOfColumns = this.numberOfColumns + 1;
+        int[] newCodes = new int[this.ids.length * newNumberOfColumns];
+        for (int row = 0; row < this.size; ++row) {
+            System.arraycopy(this.codes, row * this.numberOfColumns,
+                    newCodes, row * newNumberOfColumns, this.numberOfColumns);
+            newCodes[row * newNumberOfColumns + this.numberOfColumns] = code;
+        }
+        this.codes = newCodes;
+        this.numberOfColumns = newNumberOfColumns;
+    }
+
+    @Override
+    public void dropColumn(int column) throws DBException {
+        if (column < 0 || column >= this.numberOfColumns) {
+            throw new Table.TableException.InvalidAttributeIndexException(column);
+        }
+        int newNumberOfColumns = this.numberOfColumns - 1;
+        int[] newCodes = new int[this.ids.length * newNumberOfColumns];
+        for (int row = 0; row < this.size; ++row) {
+            int from = row * this.numberOfColumns;
+            int to = row * newNumberOfColumns;
+            System.arraycopy(this.codes, from, newCodes, to, column);
+            System.arraycopy(this.codes, from + column + 1, newCodes, to + column,
+                    newNumberOfColumns - column);
+        }
+        this.codes = newCodes;
+        this.numberOfColumns = newNumberOfColumns;
+    }
+
+    @Override
+    public void removeRows(BitSet removedRows) {
+        int newSize = 0;
+        for (int row = removedRows.nextClearBit(0); row < this.size;
+                row = removedRows.nextClearBit(row + 1)) {
+            this.ids[newSize] = this.ids[row];
+            System.arraycopy(this.codes, row * this.numberOfColumns,
+                    this.codes, newSize * this.numberOfColumns, this.numberOfColumns);
+            newSize++;
+        }
+        this.size = newSize;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+    }
+}
@@ -0,0 +1,35 @@
+package edu.uob;
+
+import java.util.Arrays;
+
+// Values stored as Strings in an array on the heap
+public class HeapValueStore implements ValueStore {
+    private static final int initialCapacity = 16;
+
+    private String[] values;
+    private int size;
+
+    public HeapValueStore() {
+        this.values = new String[initialCapacity];
+        this.size = 0;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String get(int code) {
+        return this.values[code];
+    }
+
+    @Override
+    public int add(String value) {
+        if (this.size == this.values.length) {
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+        }
+        this.values[this.size] = value;
+        return this.size++;
+    }
+}
@@ -0,0 +1,86 @@
+package edu.uob;
+
+// This class is a histogram of non-negative values in the manner of HdrHistogram.
+// Values below 64 have their own buckets, and every larger power of two range
+// is split into 32 buckets, so a value is reported within 1/32 of itself.
+// It is not thread-safe.
+public class Histogram {
+    private static final int subBucketBits = 5;
+    private static final int subBucketCount = 1 << subBucketBits;
+    private static final int numberOfBuckets = (65 - subBucketBits) * subBucketCount;
+
+    private final long[] counts;
+    private long count;
+    private long sum;
+    private long max;
+
+    public Histogram() {
+        this.counts = new long[numberOfBuckets];
+        this.count = 0;
+        this.sum = 0;
+        this.max = 0;
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        this.counts[getBucketIndex(value)]++;
+        this.count++;
+        this.sum += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    public void add(Histogram other) {
+        for (int i = 0; i < numberOfBuckets; ++i) {
+            this.counts[i] += other.counts[i];
+        }
+        this.count += other.count;
+        this.sum += other.sum;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getSum() {
+        return this.sum;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    // The highest value of the bucket holding the given percentile,
+    // but never above the maximum recorded
+    public long getPercentile(double percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+        for (int i = 0; i < numberOfBuckets; ++i) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketHighestValue(i), this.max);
+            }
+        }
+        return this.max;
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value < 2 * subBucketCount) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - subBucketBits;
+        return (shift + 1) * subBucketCount + (int) (value >> shift) - subBucketCount;
+    }
+
+    private static long getBucketHighestValue(int index) {
+        if (index < 2 * subBucketCount) {
+            return index;
+        }
+        int shift = index / subBucketCount - 1;
+        long subBucket = index % subBucketCount + subBucketCount;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
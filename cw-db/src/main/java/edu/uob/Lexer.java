@@ -0,0 +1,277 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// This class lexes a string into tokens.
+// It scans the characters only once, and classifies each token as it is cut,
+// so the parser needs not match keywords or literal patterns again.
+public class Lexer {
+    public static enum TokenType {
+        KEYWORD, // Including symbols, and also `true`/`false`/`null`
+        STRING_LITERAL, // Including "'"
+        INTEGER_LITERAL,
+        FLOAT_LITERAL,
+        PLAIN_TEXT, // Not keyword, not integer literal
+        OTHER
+    }
+
+    // A token lexed from input, with its type and pre-parsed value
+    public static class Token {
+        private final String text;
+        private final TokenType type;
+        private final Grammar.Keyword keyword; // null if not a keyword
+        private final boolean plainText; // [0-9A-Za-z]+
+        private final boolean longValid; // Whether the integer fits in a long
+        private final long longValue;
+        private final double doubleValue;
+
+        private Token(String text, TokenType type, Grammar.Keyword keyword, boolean plainText,
+                boolean longValid, long longValue, double doubleValue) {
+            this.text = text;
+            this.type = type;
+            this.keyword = keyword;
+            this.plainText = plainText;
+            this.longValid = longValid;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+        }
+
+        private static Token ofKeyword(Grammar.Keyword keyword) {
+            return new Token(keyword.toString(), TokenType.KEYWORD, keyword, false,
+                    false, 0, 0);
+        }
+
+        public String getText() {
+            return this.text;
+        }
+
+        public TokenType getType() {
+            return this.type;
+        }
+
+        public Grammar.Keyword getKeyword() {
+            return this.keyword;
+        }
+
+        public boolean isKeyword(Grammar.Keyword kw) {
+            return kw != null && this.keyword == kw;
+        }
+
+        public boolean isPlainText() {
+            return this.plainText;
+        }
+
+        // Keywords which are not reserved are names unless where the grammar expects them
+        public boolean isValidName() {
+            return this.plainText && (this.keyword == null || !this.keyword.isReserved());
+        }
+
+        public boolean isAttributeValue() {
+            switch (this.type) {
+                case STRING_LITERAL: case INTEGER_LITERAL: case FLOAT_LITERAL:
+                    return true;
+                case KEYWORD:
+                    return this.keyword == Grammar.Keyword.TRUE
+                            || this.keyword == Grammar.Keyword.FALSE
+                            || this.keyword == Grammar.Keyword.NULL;
+                default:
+                    return false;
+            }
+        }
+
+        // Whether this is an integer literal within the range of long
+        public boolean hasLongValue() {
+            return this.longValid;
+        }
+
+        public long getLongValue() {
+            return this.longValue;
+        }
+
+        // Valid for integer and float literals
+        public double getDoubleValue() {
+            return this.doubleValue;
+        }
+
+        @Override
+        public String toString() {
+            return this.text;
+        }
+    }
+
+    private static final char singleQuote = '\'';
+
+    // Symbols that always make a token on their own,
+    // or the first half of a two-character symbol.
+    private static final Token[] singleSymbolTokens = new Token[128];
+    static {
+        Grammar.Keyword[] symbolKeywords = {
+                Grammar.Keyword.STAR, Grammar.Keyword.ASSIGN, Grammar.Keyword.GT,
+                Grammar.Keyword.LT, Grammar.Keyword.PLACEHOLDER, Grammar.Keyword.LBRACKET,
+                Grammar.Keyword.RBRACKET, Grammar.Keyword.COMMA, Grammar.Keyword.SEMICOLON
+        };
+        for (Grammar.Keyword kw : symbolKeywords) {
+            singleSymbolTokens[kw.toString().charAt(0)] = Token.ofKeyword(kw);
+        }
+    }
+    private static final Token eqToken = Token.ofKeyword(Grammar.Keyword.EQ);
+    private static final Token neqToken = Token.ofKeyword(Grammar.Keyword.NEQ);
+    private static final Token geToken = Token.ofKeyword(Grammar.Keyword.GE);
+    private static final Token leToken = Token.ofKeyword(Grammar.Keyword.LE);
+
+    public static List<Token> lex(String str) throws DBException {
+        if (str == null) {
+            throw new DBException.NullObjectException("get tokens from null");
+        }
+        char[] chars = str.toCharArray();
+        int length = chars.length;
+        List<Token> tokens = new ArrayList<Token>();
+        int idx = 0;
+        while (idx < length) {
+            char ch = chars[idx];
+            if (isWhitespace(ch)) {
+                idx++;
+            } else if (ch == singleQuote) {
+                int closeIdx = idx + 1;
+                while (closeIdx < length && chars[closeIdx] != singleQuote) {
+                    closeIdx++;
+                }
+                if (closeIdx >= length) {
+                    throw new Grammar.GrammarException("unclosed string literal");
+                }
+                tokens.add(makeStringLiteral(chars, idx, closeIdx + 1));
+                idx = closeIdx + 1;
+            } else if (isSymbolPairAt(chars, idx)) {
+                tokens.add(makeSymbolPair(ch));
+                idx += 2;
+            } else if (ch < singleSymbolTokens.length && singleSymbolTokens[ch] != null) {
+                tokens.add(singleSymbolTokens[ch]);
+                idx++;
+            } else {
+                int endIdx = idx + 1;
+                while (endIdx < length && !isWordEnd(chars, endIdx)) {
+                    endIdx++;
+                }
+                tokens.add(makeWord(chars, idx, endIdx));
+                idx = endIdx;
+            }
+        }
+        return tokens;
+    }
+
+    // The same set as the regex `\s`
+    private static boolean isWhitespace(char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B'
+                || ch == '\f' || ch == '\r';
+    }
+
+    // `==`, `!=`, `>=`, `<=`
+    private static boolean isSymbolPairAt(char[] chars, int idx) {
+        if (idx + 1 >= chars.length || chars[idx + 1] != '=') {
+            return false;
+        }
+        char ch = chars[idx];
+        return ch == '=' || ch == '!' || ch == '>' || ch == '<';
+    }
+
+    private static Token makeSymbolPair(char firstChar) {
+        switch (firstChar) {
+            case '=':
+                return eqToken;
+            case '!':
+                return neqToken;
+            case '>':
+                return geToken;
+            default:
+                return leToken;
+        }
+    }
+
+    private static boolean isWordEnd(char[] chars, int idx) {
+        char ch = chars[idx];
+        return isWhitespace(ch) || ch == singleQuote || isSymbolPairAt(chars, idx)
+                || (ch < singleSymbolTokens.length && singleSymbolTokens[ch] != null);
+    }
+
+    private static Token makeStringLiteral(char[] chars, int startIdx, int endIdx) {
+        String text = new String(chars, startIdx, endIdx - startIdx);
+        TokenType type = TokenType.STRING_LITERAL;
+        for (int i = startIdx + 1; i < endIdx - 1; ++i) {
+            if (!Grammar.isCharLiteral(chars[i])) {
+                type = TokenType.OTHER;
+                break;
+            }
+        }
+        return new Token(text, type, null, false, false, 0, 0);
+    }
+
+    private static Token makeWord(char[] chars, int startIdx, int endIdx) {
+        String text = new String(chars, startIdx, endIdx - startIdx);
+        boolean plainText = isPlainText(chars, startIdx, endIdx);
+        if (plainText) {
+            Grammar.Keyword kw = Grammar.Keyword.getByString(text);
+            if (kw != null) {
+                return new Token(text, TokenType.KEYWORD, kw, true, false, 0, 0);
+            }
+        }
+        int digitsStartIdx = startIdx;
+        if (chars[startIdx] == '+' || chars[startIdx] == '-') {
+            digitsStartIdx++;
+        }
+        int intEndIdx = skipDigits(chars, digitsStartIdx, endIdx);
+        if (intEndIdx > digitsStartIdx) {
+            if (intEndIdx == endIdx) {
+                return makeIntegerLiteral(text, plainText, endIdx - digitsStartIdx);
+            }
+            if (chars[intEndIdx] == '.') {
+                int fracEndIdx = skipDigits(chars, intEndIdx + 1, endIdx);
+                if (fracEndIdx == endIdx && fracEndIdx > intEndIdx + 1) {
+                    return new Token(text, TokenType.FLOAT_LITERAL, null, false,
+                            false, 0, Double.parseDouble(text));
+                }
+            }
+        }
+        TokenType type = plainText ? TokenType.PLAIN_TEXT : TokenType.OTHER;
+        return new Token(text, type, null, plainText, false, 0, 0);
+    }
+
+    private static Token makeIntegerLiteral(String text, boolean plainText, int numberOfDigits) {
+        // Up to 18 digits always fits in a long
+        if (numberOfDigits <= 18) {
+            long value = Long.parseLong(text);
+            return new Token(text, TokenType.INTEGER_LITERAL, null, plainText,
+                    true, value, value);
+        }
+        try {
+            long value = Long.parseLong(text);
+            return new Token(text, TokenType.INTEGER_LITERAL, null, plainText,
+                    true, value, value);
+        } catch (NumberFormatException outOfRange) {
+            return new Token(text, TokenType.INTEGER_LITERAL, null, plainText,
+                    false, 0, Double.parseDouble(text));
+        }
+    }
+
+    // Returns the index of the first non-digit character
+    private static int skipDigits(char[] chars, int startIdx, int endIdx) {
+        int idx = startIdx;
+        while (idx < endIdx && '0' <= chars[idx] && chars[idx] <= '9') {
+            idx++;
+        }
+        return idx;
+    }
+
+    private static boolean isPlainText(char[] chars, int startIdx, int endIdx) {
+        for (int i = startIdx; i < endIdx; ++i) {
+            if (!isPlainTextChar(chars[i])) {
+                return false;
+            }
+        }
+        return endIdx > startIdx;
+    }
+
+    public static boolean isPlainTextChar(char ch) {
+        return ('0' <= ch && ch <= '9') || ('a' <= ch && ch <= 'z') || ('A' <= ch && ch <= 'Z');
+    }
+}
@@ -0,0 +1,376 @@
+package edu.uob;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Random;
+
+// This class generates load against a running DBServer.
+// Several connections send commands made from templates, each waiting for a response
+// before sending the next one, and the latency of every command is recorded.
+// The data of the commands comes from random numbers seeded by the connection,
+// so each connection sends its own commands, and a run with the same options
+// sends the same commands as any other run.
+public class LoadGenerator {
+    private static final String databaseName = "loadgen";
+    private static final int numberOfOwners = 10;
+
+    public static enum Operation {
+        INSERT, SELECT, UPDATE, DELETE, JOIN;
+
+        public static Operation getByName(String name) {
+            for (Operation operation : Operation.values()) {
+                if (operation.toString().equals(name.toUpperCase())) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private int numberOfConnections;
+    private long requestsPerConnection; // 0 means to run for the duration
+    private long durationMillis;
+    private long seed;
+    private int initialRows; // Rows of table `items` before the load, also its key space
+    private final EnumMap<Operation, Integer> mix; // Weight of each operation
+
+    public LoadGenerator(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.numberOfConnections = 8;
+        this.requestsPerConnection = 0;
+        this.durationMillis = 10000;
+        this.seed = 42;
+        this.initialRows = 1000;
+        this.mix = new EnumMap<Operation, Integer>(Operation.class);
+        this.mix.put(Operation.INSERT, 20);
+        this.mix.put(Operation.SELECT, 50);
+        this.mix.put(Operation.UPDATE, 15);
+        this.mix.put(Operation.DELETE, 10);
+        this.mix.put(Operation.JOIN, 5);
+    }
+
+    // Usage: LoadGenerator [--host h] [--port p] [--connections n]
+    //                      [--requests n | --duration seconds] [--seed s] [--rows n]
+    //                      [--mix insert=20,select=50,update=15,delete=10,join=5]
+    // `--requests` is per connection.
+    public static void main(String[] args) throws IOException {
+        String host = "localhost";
+        int port = 8888;
+        List<String[]> options = new ArrayList<String[]>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                System.err.println("Invalid argument " + args[i]);
+                System.exit(1);
+            }
+            if (args[i].equals("--host")) {
+                host = args[i + 1];
+            } else if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else {
+                options.add(new String[] { args[i].substring(2), args[i + 1] });
+            }
+        }
+        LoadGenerator generator = new LoadGenerator(host, port);
+        for (String[] option : options) {
+            generator.setOption(option[0], option[1]);
+        }
+        System.out.print(generator.run());
+    }
+
+    private void setOption(String name, String value) {
+        switch (name) {
+            case "connections":
+                setConnections(Integer.parseInt(value));
+                break;
+            case "requests":
+                setRequests(Long.parseLong(value));
+                break;
+            case "duration":
+                setDuration(Math.round(Double.parseDouble(value) * 1000));
+                break;
+            case "seed":
+                setSeed(Long.parseLong(value));
+                break;
+            case "rows":
+                setInitialRows(Integer.parseInt(value));
+                break;
+            case "mix":
+                for (String weight : value.split(",")) {
+                    String[] nameAndWeight = weight.split("=");
+                    Operation operation = Operation.getByName(nameAndWeight[0].trim());
+                    if (nameAndWeight.length != 2 || operation == null) {
+                        throw new IllegalArgumentException("invalid mix " + weight);
+                    }
+                    setWeight(operation, Integer.parseInt(nameAndWeight[1].trim()));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("unknown option " + name);
+        }
+    }
+
+    public void setConnections(int numberOfConnections) {
+        this.numberOfConnections = Math.max(1, numberOfConnections);
+    }
+
+    public void setRequests(long requestsPerConnection) {
+        this.requestsPerConnection = requestsPerConnection;
+    }
+
+    public void setDuration(long durationMillis) {
+        this.durationMillis = durationMillis;
+        this.requestsPerConnection = 0;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setInitialRows(int initialRows) {
+        this.initialRows = Math.max(1, initialRows);
+    }
+
+    public void setWeight(Operation operation, int weight) {
+        this.mix.put(operation, Math.max(0, weight));
+    }
+
+    // Create the tables afresh, then run the load on all the connections
+    public Report run() throws IOException {
+        setUp();
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < this.numberOfConnections; ++i) {
+            workers.add(new Worker(new Random(this.seed + i)));
+        }
+        long startTime = System.nanoTime();
+        for (Worker worker : workers) {
+            worker.start();
+        }
+        Report report = new Report(this.numberOfConnections);
+        for (Worker worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new IOException("interrupted while generating load", e);
+            }
+            if (worker.failure != null) {
+                throw worker.failure;
+            }
+            report.add(worker.report);
+        }
+        report.elapsedNanos = System.nanoTime() - startTime;
+        return report;
+    }
+
+    private void setUp() throws IOException {
+        Random random = new Random(this.seed);
+        List<String> commands = new ArrayList<String>(Arrays.asList(
+                "DROP DATABASE " + databaseName + ";",
+                "CREATE DATABASE " + databaseName + ";",
+                "USE " + databaseName + ";",
+                "CREATE TABLE items (name, qty, price);",
+                "CREATE TABLE owners (item, city);"));
+        for (int i = 0; i < this.initialRows; ++i) {
+            commands.add(createInsert(random, i));
+        }
+        for (int i = 0; i < numberOfOwners; ++i) {
+            commands.add("INSERT INTO owners VALUES ('item" + random.nextInt(this.initialRows)
+                    + "', 'city" + i + "');");
+        }
+        List<String> responses = DBClient.sendBatch(this.host, this.port, commands);
+        // The database may not exist before
+        for (int i = 1; i < responses.size(); ++i) {
+            if (isError(responses.get(i))) {
+                throw new IOException("cannot set up load: " + commands.get(i) + "\n"
+                        + responses.get(i));
+            }
+        }
+    }
+
+    private Operation chooseOperation(Random random) {
+        int totalWeight = this.mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (totalWeight <= 0) {
+            throw new IllegalArgumentException("no operation in the mix");
+        }
+        int weight = random.nextInt(totalWeight);
+        for (Operation operation : Operation.values()) {
+            weight -= this.mix.get(operation);
+            if (weight < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    private String createCommand(Operation operation, Random random) {
+        String name = "'item" + random.nextInt(this.initialRows) + "'";
+        switch (operation) {
+            case INSERT:
+                return createInsert(random, random.nextInt(this.initialRows));
+            case SELECT:
+                if (random.nextBoolean()) {
+                    return "SELECT * FROM items WHERE name == " + name + ";";
+                }
+                return "SELECT name, price FROM items WHERE qty > " + (95 + random.nextInt(5))
+                        + ";";
+            case UPDATE:
+                return "UPDATE items SET qty = " + random.nextInt(100) + " WHERE name == "
+                        + name + ";";
+            case DELETE:
+                return "DELETE FROM items WHERE name == " + name + ";";
+            default: // JOIN
+                return "JOIN owners AND items ON item AND name;";
+        }
+    }
+
+    private static String createInsert(Random random, int key) {
+        return "INSERT INTO items VALUES ('item" + key + "', " + random.nextInt(100) + ", "
+                + random.nextInt(10000) / 100.0 + ");";
+    }
+
+    private static boolean isError(String response) {
+        return response.startsWith("[ERROR]");
+    }
+
+    // A connection sending commands one after another
+    private class Worker extends Thread {
+        private final Random random;
+        private final Report report;
+        private IOException failure;
+
+        private Worker(Random random) {
+            super("load-generator");
+            this.random = random;
+            this.report = new Report(1);
+            this.failure = null;
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(host, port);
+                    BufferedReader socketReader = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream()));
+                    BufferedWriter socketWriter = new BufferedWriter(
+                            new OutputStreamWriter(socket.getOutputStream()))) {
+                send("USE " + databaseName + ";", socketReader, socketWriter);
+                long deadline = System.nanoTime() + durationMillis * 1000000;
+                long count = 0;
+                while (requestsPerConnection > 0 ? count < requestsPerConnection
+                        : System.nanoTime() < deadline) {
+                    Operation operation = chooseOperation(this.random);
+                    String command = createCommand(operation, this.random);
+                    long startTime = System.nanoTime();
+                    String response = send(command, socketReader, socketWriter);
+                    this.report.record(operation, (System.nanoTime() - startTime) / 1000,
+                            isError(response));
+                    count++;
+                }
+            } catch (IOException e) {
+                this.failure = e;
+            }
+        }
+
+        private String send(String command, BufferedReader socketReader,
+                BufferedWriter socketWriter) throws IOException {
+            socketWriter.write(command + "\n");
+            socketWriter.flush();
+            return DBClient.readResponse(socketReader);
+        }
+    }
+
+    // Counts and latencies of the commands sent, by operation
+    public static class Report {
+        private final int numberOfConnections;
+        private final EnumMap<Operation, Histogram> latencies;
+        private final EnumMap<Operation, Long> errors;
+        private long elapsedNanos;
+
+        private Report(int numberOfConnections) {
+            this.numberOfConnections = numberOfConnections;
+            this.latencies = new EnumMap<Operation, Histogram>(Operation.class);
+            this.errors = new EnumMap<Operation, Long>(Operation.class);
+            for (Operation operation : Operation.values()) {
+                this.latencies.put(operation, new Histogram());
+                this.errors.put(operation, 0L);
+            }
+            this.elapsedNanos = 0;
+        }
+
+        private void record(Operation operation, long latencyMicros, boolean isError) {
+            this.latencies.get(operation).record(latencyMicros);
+            if (isError) {
+                this.errors.put(operation, this.errors.get(operation) + 1);
+            }
+        }
+
+        private void add(Report other) {
+            for (Operation operation : Operation.values()) {
+                this.latencies.get(operation).add(other.latencies.get(operation));
+                this.errors.put(operation, this.errors.get(operation)
+                        + other.errors.get(operation));
+            }
+        }
+
+        public Histogram getLatencies(Operation operation) {
+            return this.latencies.get(operation);
+        }
+
+        // Latencies of all the operations together
+        public Histogram getTotalLatencies() {
+            Histogram total = new Histogram();
+            this.latencies.values().forEach(total::add);
+            return total;
+        }
+
+        public long getErrorCount(Operation operation) {
+            return this.errors.get(operation);
+        }
+
+        public long getTotalErrorCount() {
+            return this.errors.values().stream().mapToLong(Long::longValue).sum();
+        }
+
+        // Commands per second
+        public double getThroughput() {
+            if (this.elapsedNanos <= 0) {
+                return 0;
+            }
+            return getTotalLatencies().getCount() * 1e9 / this.elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder str = new StringBuilder();
+            str.append(String.format("%d connections, %d commands, %d errors in %.3f s, "
+                    + "%.1f commands/s%n", this.numberOfConnections,
+                    getTotalLatencies().getCount(), getTotalErrorCount(),
+                    this.elapsedNanos / 1e9, getThroughput()));
+            str.append(String.format("%-11s %10s %8s %10s %10s %10s %10s %10s%n", "latency(us)",
+                    "count", "errors", "p50", "p90", "p99", "p99.9", "max"));
+            for (Operation operation : Operation.values()) {
+                appendRow(str, operation.toString(), this.latencies.get(operation),
+                        this.errors.get(operation));
+            }
+            appendRow(str, "ALL", getTotalLatencies(), getTotalErrorCount());
+            return str.toString();
+        }
+
+        private static void appendRow(StringBuilder str, String name, Histogram histogram,
+                long errors) {
+            str.append(String.format("%-11s %10d %8d %10d %10d %10d %10d %10d%n", name,
+                    histogram.getCount(), errors, histogram.getPercentile(50),
+                    histogram.getPercentile(90), histogram.getPercentile(99),
+                    histogram.getPercentile(99.9), histogram.getMax()));
+        }
+    }
+}
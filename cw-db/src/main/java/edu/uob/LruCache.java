@@ -0,0 +1,27 @@
+package edu.uob;
+
+import java.io.Serial;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// A size-bounded map which evicts the least recently accessed entry.
+public class LruCache<K, V> extends LinkedHashMap<K, V> {
+    @Serial
+    private static final long serialVersionUID = 1;
+
+    private final int capacity;
+
+    public LruCache(int capacity) {
+        super(16, 0.75f, true);
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > this.capacity;
+    }
+}
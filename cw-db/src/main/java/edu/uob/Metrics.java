@@ -0,0 +1,191 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// This class collects metrics of the commands handled by a server.
+// For every type of command, each measure of a command
+// (the time of a phase of handling it, or the rows and bytes it deals with)
+// is recorded into a histogram of that measure.
+public class Metrics {
+    private static final String unparsedCommandType = "UNPARSED";
+
+    public static enum Measure {
+        TOTAL("total_us"),
+        PARSE("parse_us"),
+        EXECUTE("execute_us"),
+        PERSIST("persist_us"),
+        SERIALISE("serialise_us"),
+        ROWS_SCANNED("rows_scanned"),
+        ROWS_RETURNED("rows_returned"),
+        BYTES_WRITTEN("bytes_written"),
+        ERRORS("errors"); // 1 for a failed command, otherwise 0
+
+        private final String name;
+
+        private Measure(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+
+    // The measures of one command, taken phase by phase as it is handled.
+    // Phases a command does not go through are not measured.
+    public static class Sample {
+        private String commandType;
+        private final long startTime;
+        private long phaseStartTime;
+        private final EnumMap<Measure, Long> values;
+
+        public Sample() {
+            this.commandType = unparsedCommandType;
+            this.startTime = System.nanoTime();
+            this.phaseStartTime = this.startTime;
+            this.values = new EnumMap<Measure, Long>(Measure.class);
+            this.values.put(Measure.ERRORS, 0L);
+        }
+
+        public void endParse(Task task) {
+            this.commandType = Metrics.getCommandType(task);
+            endPhase(Measure.PARSE);
+        }
+
+        public void endExecute(long rowsScanned, long rowsReturned) {
+            endPhase(Measure.EXECUTE);
+            this.values.put(Measure.ROWS_SCANNED, rowsScanned);
+            this.values.put(Measure.ROWS_RETURNED, rowsReturned);
+        }
+
+        public void endPersist(long bytesWritten) {
+            endPhase(Measure.PERSIST);
+            this.values.put(Measure.BYTES_WRITTEN, bytesWritten);
+        }
+
+        public void endSerialise() {
+            endPhase(Measure.SERIALISE);
+        }
+
+        public void fail() {
+            this.values.put(Measure.ERRORS, 1L);
+        }
+
+        // When the command has been handled
+        public void end() {
+            this.values.put(Measure.TOTAL, (System.nanoTime() - this.startTime) / 1000);
+        }
+
+        public String getCommandType() {
+            return this.commandType;
+        }
+
+        // null if not measured
+        public Long getValue(Measure measure) {
+            return this.values.get(measure);
+        }
+
+        private void endPhase(Measure measure) {
+            long now = System.nanoTime();
+            this.values.put(measure, (now - this.phaseStartTime) / 1000);
+            this.phaseStartTime = now;
+        }
+    }
+
+    private final TreeMap<String, EnumMap<Measure, Histogram>> histograms; // By command type
+    private ScheduledExecutorService dumper; // null if not dumping
+
+    public Metrics() {
+        this.histograms = new TreeMap<String, EnumMap<Measure, Histogram>>();
+        this.dumper = null;
+    }
+
+    // Worked out once for each class of task, as it is asked for every command
+    private static final ClassValue<String> commandTypes = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> taskClass) {
+            String className = taskClass.getSimpleName();
+            if (className.endsWith("Task")) {
+                className = className.substring(0, className.length() - "Task".length());
+            }
+            return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+        }
+    };
+
+    // E.g., `CREATE_TABLE` for a CreateTableTask
+    public static String getCommandType(Task task) {
+        return commandTypes.get(task.getClass());
+    }
+
+    public synchronized void record(Sample sample) {
+        if (!sample.values.containsKey(Measure.TOTAL)) {
+            sample.end();
+        }
+        EnumMap<Measure, Histogram> commandHistograms = this.histograms.computeIfAbsent(
+                sample.commandType, (type) -> new EnumMap<Measure, Histogram>(Measure.class));
+        for (Map.Entry<Measure, Long> entry : sample.values.entrySet()) {
+            commandHistograms.computeIfAbsent(entry.getKey(), (measure) -> new Histogram())
+                    .record(entry.getValue());
+        }
+    }
+
+    // One row for each measure of each type of command
+    public synchronized Result toResult() {
+        Result result = new Result();
+        result.addRow(Arrays.asList("command", "measure", "count", "sum", "p50", "p90", "p99",
+                "max"));
+        for (Map.Entry<String, EnumMap<Measure, Histogram>> entry : this.histograms.entrySet()) {
+            for (Map.Entry<Measure, Histogram> measureEntry : entry.getValue().entrySet()) {
+                Histogram histogram = measureEntry.getValue();
+                result.addRow(Arrays.asList(entry.getKey(), measureEntry.getKey().toString(),
+                        String.valueOf(histogram.getCount()), String.valueOf(histogram.getSum()),
+                        String.valueOf(histogram.getPercentile(50)),
+                        String.valueOf(histogram.getPercentile(90)),
+                        String.valueOf(histogram.getPercentile(99)),
+                        String.valueOf(histogram.getMax())));
+            }
+        }
+        return result;
+    }
+
+    // Write the metrics to the file every interval, replacing what was written before
+    public synchronized void startDumping(Path filePath, long intervalMillis) {
+        stopDumping();
+        this.dumper = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "metrics-dumper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dumper.scheduleAtFixedRate(() -> {
+            try {
+                dump(filePath);
+            } catch (IOException e) {
+                System.err.println("exception dumping metrics " + e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopDumping() {
+        if (this.dumper != null) {
+            this.dumper.shutdownNow();
+            this.dumper = null;
+        }
+    }
+
+    // Not written through StorageFiles, whose bytes are those of the databases
+    public void dump(Path filePath) throws IOException {
+        String text = "# " + Instant.now() + "\n" + toResult().exportToString();
+        Files.write(filePath, text.getBytes());
+    }
+}
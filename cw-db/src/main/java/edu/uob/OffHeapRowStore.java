@@ -0,0 +1,143 @@
+package edu.uob;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+// Rows stored in a direct buffer outside the Java heap,
+// so that large tables add nothing for the garbage collector to trace.
+// Each row is a fixed-width slot: an 8-byte id, then a 4-byte code for each column.
+public class OffHeapRowStore implements RowStore {
+    private static final int initialCapacity = 64; // In rows
+    private static final int idBytes = Long.BYTES;
+    private static final int codeBytes = Integer.BYTES;
+
+    private ByteBuffer buffer;
+    private int numberOfColumns;
+    private int capacity;
+    private int size;
+
+    public OffHeapRowStore(int numberOfColumns) throws DBException {
+        this.numberOfColumns = numberOfColumns;
+        this.capacity = initialCapacity;
+        this.buffer = allocate(this.capacity, numberOfColumns);
+        this.size = 0;
+    }
+
+    private static ByteBuffer allocate(int capacity, int numberOfColumns) throws DBException {
+        long bytes = (long) capacity * getRowBytes(numberOfColumns);
+        if (bytes > Integer.MAX_VALUE) {
+            throw new DBException.DatabaseStorageException(
+                    "off-heap table storage exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static int getRowBytes(int numberOfColumns) {
+        return idBytes + numberOfColumns * codeBytes;
+    }
+
+    private int getOffset(int row) {
+        return row * getRowBytes(this.numberOfColumns);
+    }
+
+    private int getOffset(int row, int column) {
+        return getOffset(row) + idBytes + column * codeBytes;
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public int getNumberOfColumns() {
+        return this.numberOfColumns;
+    }
+
+    @Override
+    public long getId(int row) {
+        return this.buffer.getLong(getOffset(row));
+    }
+
+    @Override
+    public int getCode(int row, int column) {
+        return this.buffer.getInt(getOffset(row, column));
+    }
+
+    @Override
+    public void setCode(int row, int column, int code) {
+        this.buffer.putInt(getOffset(row, column), code);
+    }
+
+    @Override
+    public void add(long id, int[] codes) throws DBException {
+        if (codes.length != this.numberOfColumns) {
+            throw new Table.TableException.InvalidNumberOfAttributesException(
+                    this.numberOfColumns, codes.length);
+        }
+        if (this.size == this.capacity) {
+            ByteBuffer newBuffer = allocate(this.capacity * 2, this.numberOfColumns);
+            newBuffer.put(0, this.buffer, 0, getOffset(this.size));
+            this.buffer = newBuffer;
+            this.capacity *= 2;
+        }
+        this.buffer.putLong(getOffset(this.size), id);
+        for (int column = 0; column < codes.length; ++column) {
+            this.buffer.putInt(getOffset(this.size, column), codes[column]);
+        }
+        this.size++;
+    }
+
+    @Override
+    public void addColumn(int code) throws DBException {
+        ByteBuffer newBuffer = allocate(this.capacity, this.numberOfColumns + 1);
+        int oldRowBytes = getRowBytes(this.numberOfColumns);
+        int newRowBytes = getRowBytes(this.numberOfColumns + 1);
+        for (int row = 0; row < this.size; ++row) {
+            newBuffer.put(row * newRowBytes, this.buffer, row * oldRowBytes, oldRowBytes);
+            newBuffer.putInt(row * newRowBytes + oldRowBytes, code);
+        }
+        this.buffer = newBuffer;
+        this.numberOfColumns++;
+    }
+
+    @Override
+    public void dropColumn(int column) throws DBException {
+        if (column < 0 || column >= this.numberOfColumns) {
+            throw new Table.TableException.InvalidAttributeIndexException(column);
+        }
+        ByteBuffer newBuffer = allocate(this.capacity, this.numberOfColumns - 1);
+        int oldRowBytes = getRowBytes(this.numberOfColumns);
+        int newRowBytes = getRowBytes(this.numberOfColumns - 1);
+        int headBytes = idBytes + column * codeBytes;
+        for (int row = 0; row < this.size; ++row) {
+            int from = row * oldRowBytes;
+            int to = row * newRowBytes;
+            newBuffer.put(to, this.buffer, from, headBytes);
+            newBuffer.put(to + headBytes, this.buffer, from + headBytes + codeBytes,
+                    newRowBytes - headBytes);
+        }
+        this.buffer = newBuffer;
+        this.numberOfColumns--;
+    }
+
+    @Override
+    public void removeRows(BitSet removedRows) {
+        int rowBytes = getRowBytes(this.numberOfColumns);
+        int newSize = 0;
+        for (int row = removedRows.nextClearBit(0); row < this.size;
+                row = removedRows.nextClearBit(row + 1)) {
+            if (newSize != row) {
+                this.buffer.put(newSize * rowBytes, this.buffer, row * rowBytes, rowBytes);
+            }
+            newSize++;
+        }
+        this.size = newSize;
+    }
+
+    @Override
+    public void clear() {
+        this.size = 0;
+    }
+}
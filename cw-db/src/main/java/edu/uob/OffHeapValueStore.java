@@ -0,0 +1,77 @@
+package edu.uob;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Values stored as UTF-8 bytes in direct buffers outside the Java heap,
+// so that a column of many distinct values keeps no String for the garbage collector
+// to trace. A String is only made when a value is read, e.g., for a result row.
+// The bytes of the values are laid out one after another,
+// and the end of each value is kept as a 4-byte offset.
+public class OffHeapValueStore implements ValueStore {
+    private static final int initialCapacity = 16; // In values
+    private static final int initialBytes = 256;
+    private static final int offsetBytes = Integer.BYTES;
+
+    private ByteBuffer bytes;
+    private ByteBuffer ends; // Offset in `bytes` after each value
+    private int capacity;
+    private int size;
+    private int numberOfBytes; // Used in `bytes`
+
+    public OffHeapValueStore() throws DBException {
+        this.bytes = allocate(initialBytes);
+        this.ends = allocate((long) initialCapacity * offsetBytes);
+        this.capacity = initialCapacity;
+        this.size = 0;
+        this.numberOfBytes = 0;
+    }
+
+    private static ByteBuffer allocate(long bytes) throws DBException {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new DBException.DatabaseStorageException(
+                    "off-heap dictionary storage exceeds " + Integer.MAX_VALUE + " bytes");
+        }
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private int getStart(int code) {
+        return code == 0 ? 0 : this.ends.getInt((code - 1) * offsetBytes);
+    }
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public String get(int code) {
+        int start = getStart(code);
+        byte[] value = new byte[this.ends.getInt(code * offsetBytes) - start];
+        this.bytes.get(start, value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int add(String value) throws DBException {
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        long end = (long) this.numberOfBytes + valueBytes.length;
+        if (end > this.bytes.capacity()) {
+            ByteBuffer newBytes = allocate(
+                    Math.max(end, Math.min(2L * this.bytes.capacity(), Integer.MAX_VALUE)));
+            newBytes.put(0, this.bytes, 0, this.numberOfBytes);
+            this.bytes = newBytes;
+        }
+        if (this.size == this.capacity) {
+            ByteBuffer newEnds = allocate(2L * this.capacity * offsetBytes);
+            newEnds.put(0, this.ends, 0, this.size * offsetBytes);
+            this.ends = newEnds;
+            this.capacity *= 2;
+        }
+        this.bytes.put(this.numberOfBytes, valueBytes);
+        this.numberOfBytes = (int) end;
+        this.ends.putInt(this.size * offsetBytes, this.numberOfBytes);
+        return this.size++;
+    }
+}
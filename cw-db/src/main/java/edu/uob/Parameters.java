@@ -0,0 +1,33 @@
+package edu.uob;
+
+import java.util.List;
+
+// This class provides the values bound to the placeholders of a prepared command.
+// Values are consumed in the order in which the placeholders appear in the command.
+public class Parameters {
+    private List<String> values;
+    private int nextIdx;
+
+    public Parameters(List<String> values) throws DBException {
+        if (values == null) {
+            throw new DBException.NullObjectException("null parameter values");
+        }
+        this.values = values;
+        this.nextIdx = 0;
+    }
+
+    // Returns `value` itself, or the next parameter if `value` is a placeholder
+    public String bind(String value) throws DBException {
+        if (!Grammar.isPlaceholder(value)) {
+            return value;
+        }
+        if (this.nextIdx >= this.values.size()) {
+            throw new DBException("too few parameters for prepared command");
+        }
+        return this.values.get(this.nextIdx++);
+    }
+
+    public int size() {
+        return this.values.size();
+    }
+}
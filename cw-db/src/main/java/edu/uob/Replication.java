@@ -0,0 +1,414 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// This class ships the commands which changed the databases of a primary server
+// to follower servers, which apply them to their own databases and only serve reads.
+//
+// A follower connects to the replication port of the primary,
+// and sends the sequence number of the last entry it has applied.
+// The primary answers with its epoch, then streams the entries after that number,
+// with heartbeats when there are none.
+// Both store an epoch and the sequence number of the last entry along with their databases:
+// a restarted primary goes on numbering its entries in the same epoch,
+// and a restarted follower resumes after the last entry it applied.
+// A follower starts again from a snapshot of the databases stored by the primary
+// when it has never followed, or the primary no longer has the entries after its own,
+// e.g., it fell more entries behind than the log keeps, or it followed another epoch.
+public class Replication {
+    private static final byte entryFrame = 'E';
+    private static final byte heartbeatFrame = 'H';
+    private static final byte snapshotFrame = 'S';
+    private static final byte errorFrame = 'X';
+    private static final long snapshotRequest = -1; // Sent by a follower instead of its seq
+    private static final long reconnectMillis = 1000;
+    private static final int snapshotBufferSize = 64 * 1024;
+
+    // A command run on the primary, and the database it was run in.
+    // An EXECUTE command is shipped after the PREPARE command it executes.
+    public static class Entry implements BoundedLog.Record {
+        private final long seq;
+        private final String databaseName; // null if no database was in use
+        private final List<String> commands;
+
+        public Entry(long seq, String databaseName, List<String> commands) {
+            this.seq = seq;
+            this.databaseName = databaseName;
+            this.commands = commands;
+        }
+
+        @Override
+        public long getSeq() {
+            return this.seq;
+        }
+
+        public String getDatabaseName() {
+            return this.databaseName;
+        }
+
+        public List<String> getCommands() {
+            return this.commands;
+        }
+    }
+
+    // The most recent entries of the primary, numbered on from those stored before
+    public static class Log extends BoundedLog<Entry> {
+        public Log(int capacity, long lastSeq) {
+            super("replication log", capacity, lastSeq);
+        }
+
+        public long append(String databaseName, List<String> commands) {
+            return append((seq) -> new Entry(seq, databaseName, commands));
+        }
+    }
+
+    // Progress of replication on this server
+    public static class Status {
+        private final String role;
+        private volatile long appliedSeq;
+        private volatile long primarySeq;
+
+        public Status(String role) {
+            this.role = role;
+            this.appliedSeq = 0;
+            this.primarySeq = 0;
+        }
+
+        public String getRole() {
+            return this.role;
+        }
+
+        public long getAppliedSeq() {
+            return this.appliedSeq;
+        }
+
+        public void setAppliedSeq(long appliedSeq) {
+            this.appliedSeq = appliedSeq;
+        }
+
+        public long getPrimarySeq() {
+            return this.primarySeq;
+        }
+
+        public void setPrimarySeq(long primarySeq) {
+            this.primarySeq = primarySeq;
+        }
+
+        // Number of entries of the primary not yet applied
+        public long getLag() {
+            return Math.max(0, this.primarySeq - this.appliedSeq);
+        }
+    }
+
+    // Files of the databases stored by a primary, in a folder of their own with the meta
+    // file last, and the seq of the last entry they include
+    public static class Snapshot {
+        private final Path dir;
+        private final List<String> fileNames;
+        private final long seq;
+
+        public Snapshot(Path dir, List<String> fileNames, long seq) {
+            this.dir = dir;
+            this.fileNames = fileNames;
+            this.seq = seq;
+        }
+
+        public Path getDir() {
+            return this.dir;
+        }
+
+        public List<String> getFileNames() {
+            return this.fileNames;
+        }
+
+        public long getSeq() {
+            return this.seq;
+        }
+    }
+
+    // Serve the log of a primary to followers, one thread for each follower
+    public static class Primary implements Closeable {
+        @FunctionalInterface
+        public static interface Snapshotter {
+            public Snapshot take() throws DBException;
+        }
+
+        private final Log log;
+        private final long epoch;
+        private final Snapshotter snapshotter;
+        private final BoundedLog.Publisher<Entry> publisher;
+
+        // `epoch` is the one stored with the databases, or null to start a new one
+        public Primary(Log log, int port, Long epoch, Snapshotter snapshotter)
+                throws IOException {
+            this.log = log;
+            this.epoch = epoch != null ? epoch : new Random().nextLong();
+            this.snapshotter = snapshotter;
+            this.publisher = new BoundedLog.Publisher<Entry>(log, port, "replication-primary",
+                    this::serveFollower);
+        }
+
+        public long getEpoch() {
+            return this.epoch;
+        }
+
+        private void serveFollower(DataInputStream in, DataOutputStream out)
+                throws IOException, InterruptedException {
+            long seq = in.readLong();
+            out.writeLong(this.epoch);
+            if (seq == snapshotRequest) {
+                try {
+                    seq = sendSnapshot(out);
+                } catch (DBException e) {
+                    out.writeByte(errorFrame);
+                    writeString(out, "cannot take snapshot: " + e.getMessage());
+                    out.flush();
+                    return;
+                }
+            }
+            out.flush();
+            this.publisher.sendRecordsAfter(seq, out, new BoundedLog.Sender<Entry>() {
+                @Override
+                public boolean sendRecord(DataOutputStream out, Entry entry) throws IOException {
+                    out.writeByte(entryFrame);
+                    out.writeLong(log.getLastSeq());
+                    writeEntry(out, entry);
+                    return true;
+                }
+
+                @Override
+                public void sendHeartbeat(DataOutputStream out) throws IOException {
+                    out.writeByte(heartbeatFrame);
+                    out.writeLong(log.getLastSeq());
+                }
+
+                @Override
+                public void sendError(DataOutputStream out, String message) throws IOException {
+                    out.writeByte(errorFrame);
+                    writeString(out, message);
+                }
+            });
+        }
+
+        // The snapshot is only taken for the follower, so it is deleted once sent.
+        // Returns the seq of the last entry it includes.
+        private long sendSnapshot(DataOutputStream out) throws IOException, DBException {
+            Snapshot snapshot = this.snapshotter.take();
+            try {
+                out.writeByte(snapshotFrame);
+                out.writeLong(snapshot.getSeq());
+                out.writeInt(snapshot.getFileNames().size());
+                for (String fileName : snapshot.getFileNames()) {
+                    Path file = snapshot.getDir().resolve(fileName);
+                    writeString(out, fileName);
+                    out.writeLong(Files.size(file));
+                    Files.copy(file, out);
+                }
+            } finally {
+                StorageFiles.deleteFolder(snapshot.getDir());
+            }
+            return snapshot.getSeq();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.publisher.close();
+        }
+    }
+
+    // Receives entries from a primary and hands them to an applier in order,
+    // or a snapshot of the primary, which it receives into a folder for a restorer.
+    // It reconnects when the connection is lost, and stops for good when an entry fails.
+    public static class Follower implements Closeable {
+        @FunctionalInterface
+        public static interface Applier {
+            public void apply(long epoch, Entry entry) throws DBException;
+        }
+
+        // Replace the databases by those of the snapshot received
+        @FunctionalInterface
+        public static interface Restorer {
+            public void restore() throws DBException;
+        }
+
+        private final String host;
+        private final int port;
+        private final Applier applier;
+        private final Path snapshotDir; // Where a snapshot of the primary is received
+        private final Restorer restorer;
+        private final Status status;
+        private Long epoch; // Epoch of the primary followed, null if none followed yet
+        private boolean restarting; // Whether to start again from a snapshot of the primary
+        private volatile Socket socket;
+        private volatile boolean closed;
+
+        // `epoch` and the applied seq of `status` are those stored with the databases
+        public Follower(String host, int port, Long epoch, Applier applier, Path snapshotDir,
+                Restorer restorer, Status status) {
+            this.host = host;
+            this.port = port;
+            this.applier = applier;
+            this.snapshotDir = snapshotDir.normalize();
+            this.restorer = restorer;
+            this.status = status;
+            this.epoch = epoch;
+            this.restarting = epoch == null;
+            this.socket = null;
+            this.closed = false;
+            BoundedLog.startDaemon(this::run, "replication-follower");
+        }
+
+        private void run() {
+            while (!this.closed) {
+                try (Socket socket = new Socket(this.host, this.port)) {
+                    this.socket = socket;
+                    follow(socket);
+                } catch (IOException connectionLost) {
+                } catch (DBException e) {
+                    System.err.println("replication stopped: " + e.getMessage());
+                    return;
+                }
+                try {
+                    Thread.sleep(reconnectMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void follow(Socket socket) throws IOException, DBException {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeLong(this.restarting ? snapshotRequest : this.status.getAppliedSeq());
+            out.flush();
+            long primaryEpoch = in.readLong();
+            if (!this.restarting && this.epoch.longValue() != primaryEpoch) {
+                System.err.println("replication starts again from a snapshot: "
+                        + "primary has another epoch");
+                this.restarting = true;
+                return;
+            }
+            this.epoch = primaryEpoch;
+            while (!this.closed) {
+                byte frame = in.readByte();
+                if (frame == heartbeatFrame) {
+                    this.status.setPrimarySeq(in.readLong());
+                } else if (frame == entryFrame) {
+                    long primarySeq = in.readLong();
+                    Entry entry = readEntry(in);
+                    this.applier.apply(this.epoch, entry);
+                    this.status.setAppliedSeq(entry.getSeq());
+                    this.status.setPrimarySeq(primarySeq);
+                } else if (frame == snapshotFrame) {
+                    long seq = receiveSnapshot(in);
+                    this.restorer.restore();
+                    this.restarting = false;
+                    this.status.setAppliedSeq(seq);
+                } else if (frame == errorFrame) {
+                    // The primary no longer has the entries after those applied
+                    System.err.println("replication starts again from a snapshot: "
+                            + readString(in));
+                    this.restarting = true;
+                    return;
+                } else {
+                    throw new DBException("unknown replication frame " + frame);
+                }
+            }
+        }
+
+        // The files are received into an empty snapshot folder.
+        // Returns the seq of the last entry the snapshot includes.
+        private long receiveSnapshot(DataInputStream in) throws IOException, DBException {
+            long seq = in.readLong();
+            int numberOfFiles = in.readInt();
+            StorageFiles.deleteFolder(this.snapshotDir);
+            Files.createDirectories(this.snapshotDir);
+            byte[] buffer = new byte[snapshotBufferSize];
+            for (int i = 0; i < numberOfFiles; ++i) {
+                String fileName = readString(in);
+                Path file = this.snapshotDir.resolve(fileName).normalize();
+                if (fileName.length() == 0 || !this.snapshotDir.equals(file.getParent())) {
+                    throw new DBException("invalid file name in snapshot: " + fileName);
+                }
+                long length = in.readLong();
+                try (OutputStream fileOut = Files.newOutputStream(file)) {
+                    while (length > 0) {
+                        int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+                        if (n < 0) {
+                            throw new EOFException("snapshot ends within " + fileName);
+                        }
+                        fileOut.write(buffer, 0, n);
+                        length -= n;
+                    }
+                }
+            }
+            return seq;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            Socket socket = this.socket;
+            if (socket != null) {
+                socket.close();
+            }
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeLong(entry.getSeq());
+        writeString(out, entry.getDatabaseName());
+        out.writeInt(entry.getCommands().size());
+        for (String command : entry.getCommands()) {
+            writeString(out, command);
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        long seq = in.readLong();
+        String databaseName = readString(in);
+        int numberOfCommands = in.readInt();
+        List<String> commands = new ArrayList<String>();
+        for (int i = 0; i < numberOfCommands; ++i) {
+            commands.add(readString(in));
+        }
+        return new Entry(seq, databaseName, commands);
+    }
+
+    // A string is its length in bytes then its UTF-8 bytes, or length -1 for null
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,7 @@ package edu.uob;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
 // This class represents a successful result of a completed task.
 // It stores the text to be displayed to user.
@@ -9,10 +10,21 @@ import java.util.ArrayList;
 public class Result {
     private ArrayList<List<String>> tab;
     private ArrayList<Integer> columnWidth; // Used for vertical alignment
+    private long estimatedSize;
 
     public Result() {
         this.tab = new ArrayList<List<String>>();
         this.columnWidth = new ArrayList<Integer>();
+        this.estimatedSize = 64;
+    }
+
+    // Add a row unless the result would then take more than `maxSize` bytes,
+    // so rows streamed from spill files do not fill the memory instead
+    public void addRow(List<String> row, long maxSize) throws DBException {
+        if (row != null && this.estimatedSize + estimateSize(row) > maxSize) {
+            throw new DBException.ResultTooLargeException(maxSize);
+        }
+        addRow(row);
     }
 
     public void addRow(List<String> row) {
@@ -32,6 +44,7 @@ public class Result {
             }
         }
         this.tab.add(row); // `row` not copied
+        this.estimatedSize += estimateSize(row);
     }
 
     private String formatRow(List<String> row, String delim) {
@@ -50,6 +63,30 @@ public class Result {
         return str;
     }
 
+    // Including the header row, if any
+    public int getNumberOfRows() {
+        return this.tab.size();
+    }
+
+    // Including the header row, if any
+    public List<List<String>> getRows() {
+        return Collections.unmodifiableList(this.tab);
+    }
+
+    // Roughly the bytes this result takes in memory
+    public long getEstimatedSize() {
+        return this.estimatedSize;
+    }
+
+    // Roughly the bytes a row takes in memory
+    public static long estimateSize(List<String> row) {
+        long size = 48 + 8L * row.size();
+        for (String field : row) {
+            size += field == null ? 0 : 48 + field.length();
+        }
+        return size;
+    }
+
     public String exportToString() {
         return exportToString("  ");
     }
@@ -0,0 +1,135 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// This class caches the results of reading commands, bounded by their estimated size.
+// A result is kept with the version of every table it was read from,
+// and it is only served while none of those tables has changed since.
+// The least recently served results are evicted first.
+// It is not thread-safe, commands are executed one at a time.
+public class ResultCache {
+    // A cached result and the tables it depends on
+    private static class Entry {
+        private final List<Table> tables;
+        private final long[] versions;
+        private final Result result;
+        private final long size;
+
+        private Entry(List<Table> tables, Result result) {
+            this.tables = tables;
+            this.versions = new long[tables.size()];
+            for (int i = 0; i < tables.size(); ++i) {
+                this.versions[i] = tables.get(i).getVersion();
+            }
+            this.result = result;
+            this.size = result.getEstimatedSize();
+        }
+
+        // Tables are compared by identity, so a table dropped and created again
+        // does not match
+        private boolean isValidFor(List<Table> currentTables) {
+            if (currentTables.size() != this.tables.size()) {
+                return false;
+            }
+            for (int i = 0; i < this.tables.size(); ++i) {
+                Table table = currentTables.get(i);
+                if (table != this.tables.get(i) || table.getVersion() != this.versions[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final long capacity; // Bytes
+    private final LruCache<String, Entry> entries;
+    private long size;
+    private long hits;
+    private long misses;
+    private long invalidations; // Results found stale
+    private long evictions;
+
+    public ResultCache(long capacity) {
+        this.capacity = capacity;
+        this.entries = new LruCache<String, Entry>(Integer.MAX_VALUE);
+        this.size = 0;
+        this.hits = 0;
+        this.misses = 0;
+        this.invalidations = 0;
+        this.evictions = 0;
+    }
+
+    // The result cached under the key, if the tables have not changed since, otherwise null
+    public Result get(String key, List<Table> tables) {
+        Entry entry = this.entries.get(key);
+        if (entry != null && !entry.isValidFor(tables)) {
+            remove(key);
+            this.invalidations++;
+            entry = null;
+        }
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        return entry.result;
+    }
+
+    // Results larger than the whole cache are not kept
+    public void put(String key, List<Table> tables, Result result) {
+        Entry entry = new Entry(new ArrayList<Table>(tables), result);
+        if (entry.size > this.capacity) {
+            return;
+        }
+        remove(key);
+        this.entries.put(key, entry);
+        this.size += entry.size;
+        while (this.size > this.capacity) {
+            Map.Entry<String, Entry> eldest = this.entries.entrySet().iterator().next();
+            remove(eldest.getKey());
+            this.evictions++;
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.size -= entry.size;
+        }
+    }
+
+    public void clear() {
+        this.entries.clear();
+        this.size = 0;
+    }
+
+    public long getCapacity() {
+        return this.capacity;
+    }
+
+    public int getNumberOfEntries() {
+        return this.entries.size();
+    }
+
+    public long getSize() {
+        return this.size;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public long getInvalidations() {
+        return this.invalidations;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+}
@@ -0,0 +1,29 @@
+package edu.uob;
+
+import java.util.BitSet;
+
+// This interface stores the rows of a table by their positions.
+// A row is its id and the dictionary codes of its attributes (columns).
+public interface RowStore {
+    public int size();
+
+    public int getNumberOfColumns();
+
+    public long getId(int row);
+
+    public int getCode(int row, int column);
+
+    public void setCode(int row, int column, int code);
+
+    public void add(long id, int[] codes) throws DBException;
+
+    // Append a column, filled with `code` in every row
+    public void addColumn(int code) throws DBException;
+
+    public void dropColumn(int column) throws DBException;
+
+    // Remove the rows marked in `removedRows`, the others keep their order
+    public void removeRows(BitSet removedRows);
+
+    public void clear();
+}
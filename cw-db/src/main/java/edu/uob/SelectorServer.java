@@ -0,0 +1,385 @@
+package edu.uob;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// This class serves the clients of a DBServer on non-blocking channels.
+// One thread waits on a selector for all the connections,
+// reads their commands and writes back the responses,
+// while the commands are run by a pool of worker threads.
+// As with the blocking server, a command is a line,
+// and a response ends with a line of END_OF_TRANSMISSION.
+// A connection has its own session, and its commands are run one at a time in order.
+// Clients may send commands without waiting for responses (pipelining);
+// a connection is read no more while too many commands or responses are pending.
+// A connection whose first line is the handshake of BinaryProtocol
+// sends its commands and gets its responses as binary frames instead.
+public class SelectorServer implements Closeable {
+    private static final char END_OF_TRANSMISSION = 4;
+    private static final int readBufferSize = 64 * 1024;
+    private static final int maxCommandLength = 16 * 1024 * 1024;
+    private static final int maxPending = 1024; // Commands or responses of a connection
+    private static final int responseBatchSize = 64 * 1024; // Bytes written at once
+
+    // A client connection.
+    // Only the selector thread reads, the worker running its commands adds responses.
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Session session;
+        private ByteArrayOutputStream partialLine; // Bytes of an unfinished command, or null
+        private boolean firstLine; // Whether no line has been received yet
+        private volatile boolean binary; // Whether the binary protocol is used
+        private ByteBuffer frameLength; // Of the frame being received, null if not read
+        private ByteBuffer frame; // Payload being received, null if its length is not read
+        private final ArrayDeque<String> commands; // Commands waiting to run
+        private boolean running; // Whether a worker is running the commands
+        private final ArrayDeque<ByteBuffer> responses; // Responses waiting to be written
+
+        private Connection(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            this.key = channel.register(selector, SelectionKey.OP_READ, this);
+            this.session = new Session();
+            this.partialLine = null;
+            this.firstLine = true;
+            this.binary = false;
+            this.frameLength = null;
+            this.frame = null;
+            this.commands = new ArrayDeque<String>();
+            this.running = false;
+            this.responses = new ArrayDeque<ByteBuffer>();
+        }
+
+        // Cut the bytes read into commands on newlines
+        private void receive(ByteBuffer buffer) throws IOException {
+            if (this.binary) {
+                receiveFrames(buffer);
+                return;
+            }
+            int lineStart = buffer.position();
+            for (int i = buffer.position(); i < buffer.limit(); ++i) {
+                if (buffer.get(i) != '\n') {
+                    continue;
+                }
+                appendToLine(buffer, lineStart, i);
+                String line = takeLine();
+                if (this.firstLine && line.equals(BinaryProtocol.handshake)) {
+                    switchToBinary(line);
+                    buffer.position(i + 1);
+                    receiveFrames(buffer);
+                    return;
+                }
+                this.firstLine = false;
+                submit(line);
+                lineStart = i + 1;
+            }
+            appendToLine(buffer, lineStart, buffer.limit());
+            if (this.partialLine != null && this.partialLine.size() > maxCommandLength) {
+                throw new IOException("command too long");
+            }
+        }
+
+        // The handshake is echoed, before any response as no command was received
+        private void switchToBinary(String handshake) {
+            this.firstLine = false;
+            this.binary = true;
+            synchronized (this) {
+                this.responses.addLast(ByteBuffer.wrap(
+                        (handshake + "\n").getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+
+        // Cut the bytes read into frames, each a command
+        private void receiveFrames(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (this.frame == null) {
+                    if (this.frameLength == null) {
+                        this.frameLength = ByteBuffer.allocate(4);
+                    }
+                    fill(this.frameLength, buffer);
+                    if (this.frameLength.hasRemaining()) {
+                        return;
+                    }
+                    int length = this.frameLength.getInt(0);
+                    this.frameLength = null;
+                    if (length < 0 || length > maxCommandLength) {
+                        throw new IOException("invalid frame length " + length);
+                    }
+                    this.frame = ByteBuffer.allocate(length);
+                }
+                fill(this.frame, buffer);
+                if (!this.frame.hasRemaining()) {
+                    submit(BinaryProtocol.decodeCommand(this.frame.array()));
+                    this.frame = null;
+                }
+            }
+        }
+
+        private void fill(ByteBuffer to, ByteBuffer from) {
+            ByteBuffer slice = from.slice();
+            int length = Math.min(to.remaining(), from.remaining());
+            slice.limit(length);
+            to.put(slice);
+            from.position(from.position() + length);
+        }
+
+        private void appendToLine(ByteBuffer buffer, int startIdx, int endIdx) {
+            if (startIdx == endIdx) {
+                return;
+            }
+            if (this.partialLine == null) {
+                this.partialLine = new ByteArrayOutputStream(endIdx - startIdx);
+            }
+            for (int i = startIdx; i < endIdx; ++i) {
+                this.partialLine.write(buffer.get(i));
+            }
+        }
+
+        // Like `BufferedReader.readLine`, a carriage return before the newline is dropped
+        private String takeLine() {
+            if (this.partialLine == null) {
+                return "";
+            }
+            String line = new String(this.partialLine.toByteArray(), charset);
+            this.partialLine = null;
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            return line;
+        }
+
+        private synchronized void submit(String command) {
+            this.commands.addLast(command);
+            if (!this.running) {
+                this.running = true;
+                workers.execute(this::runCommands);
+            }
+        }
+
+        // Run on a worker until no command is waiting.
+        // Responses of pipelined commands are batched, to be written together.
+        // However the worker stops, the connection is run again if commands are waiting,
+        // so a command failing with an error does not leave the connection stuck.
+        private void runCommands() {
+            ByteArrayOutputStream batch = new ByteArrayOutputStream();
+            try {
+                String command;
+                while ((command = pollCommand()) != null) {
+                    if (this.binary) {
+                        batch.writeBytes(server.handleBinaryCommand(this.session, command));
+                    } else {
+                        batch.writeBytes((server.handleCommand(this.session, command)
+                                + "\n" + END_OF_TRANSMISSION + "\n").getBytes(charset));
+                    }
+                    if (batch.size() >= responseBatchSize) {
+                        synchronized (this) {
+                            addResponses(batch);
+                        }
+                        updated.add(this);
+                        selector.wakeup();
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    addResponses(batch);
+                    this.running = !this.commands.isEmpty();
+                    if (this.running) {
+                        workers.execute(this::runCommands);
+                    }
+                }
+                updated.add(this);
+                selector.wakeup();
+            }
+        }
+
+        private synchronized String pollCommand() {
+            return this.commands.pollFirst();
+        }
+
+        // Caller shall hold the lock of this connection
+        private void addResponses(ByteArrayOutputStream batch) {
+            if (batch.size() > 0) {
+                this.responses.addLast(ByteBuffer.wrap(batch.toByteArray()));
+                batch.reset();
+            }
+        }
+
+        // Write while there are responses, and read while not much is pending
+        private void updateInterest() {
+            if (!this.key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            synchronized (this) {
+                if (!this.responses.isEmpty()) {
+                    ops |= SelectionKey.OP_WRITE;
+                }
+                if (this.commands.size() + this.responses.size() < maxPending) {
+                    ops |= SelectionKey.OP_READ;
+                }
+            }
+            this.key.interestOps(ops);
+        }
+
+        // Write as much as the channel takes
+        private synchronized void send() throws IOException {
+            while (!this.responses.isEmpty()) {
+                ByteBuffer response = this.responses.peekFirst();
+                this.channel.write(response);
+                if (response.hasRemaining()) {
+                    return;
+                }
+                this.responses.pollFirst();
+            }
+        }
+
+        private void close() {
+            this.key.cancel();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                System.err.println("exception closing connection " + e);
+            }
+        }
+    }
+
+    private final DBServer server;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService workers;
+    private final ByteBuffer readBuffer; // Shared by all connections, used by selector thread
+    private final ConcurrentLinkedQueue<Connection> updated; // Having run commands
+    private final Charset charset;
+    private volatile boolean closed;
+    private volatile boolean serving; // Whether `run` has been called
+
+    // Port 0 binds any free port
+    public SelectorServer(DBServer server, int port, int numberOfWorkers) throws IOException {
+        this.server = server;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(Math.max(1, numberOfWorkers), (runnable) -> {
+            Thread thread = new Thread(runnable, "command-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.readBuffer = ByteBuffer.allocateDirect(readBufferSize);
+        this.updated = new ConcurrentLinkedQueue<Connection>();
+        this.charset = Charset.defaultCharset();
+        this.closed = false;
+        this.serving = false;
+    }
+
+    public int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    // Serve until closed or the thread is interrupted
+    public void run() throws IOException {
+        this.serving = true;
+        try {
+            serve();
+        } finally {
+            release();
+        }
+    }
+
+    private void serve() throws IOException {
+        while (!this.closed && !Thread.interrupted()) {
+            this.selector.select();
+            Connection updatedConnection;
+            while ((updatedConnection = this.updated.poll()) != null) {
+                updatedConnection.updateInterest();
+            }
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept();
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.send();
+                    }
+                    connection.updateInterest();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel = this.serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            new Connection(channel);
+        } catch (IOException e) {
+            System.err.println("Server encountered a non-fatal IO error: " + e);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        this.readBuffer.clear();
+        int numberRead = connection.channel.read(this.readBuffer);
+        if (numberRead < 0) {
+            connection.close();
+            return;
+        }
+        this.readBuffer.flip();
+        connection.receive(this.readBuffer);
+    }
+
+    // A running server is stopped, and releases everything on its own thread
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.selector.wakeup();
+        if (!this.serving) {
+            release();
+        }
+    }
+
+    private synchronized void release() throws IOException {
+        if (!this.selector.isOpen()) {
+            return;
+        }
+        for (SelectionKey key : this.selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        this.serverChannel.close();
+        this.selector.close();
+        this.workers.shutdown();
+    }
+}
@@ -0,0 +1,59 @@
+package edu.uob;
+
+import java.util.HashMap;
+
+// This class keeps the state of one client connection:
+// the database in use, the prepared commands and the open cursors.
+// Sessions of different connections share the same databases.
+public class Session {
+    private Database currentDb; // null if no database in use
+    private HashMap<String, Task.PrepareTask> preparedTasks;
+    private HashMap<String, String> preparedCommands; // Texts of PREPARE commands, by name
+    private HashMap<String, Cursor> cursors;
+
+    public Session() {
+        this.currentDb = null;
+        this.preparedTasks = new HashMap<String, Task.PrepareTask>();
+        this.preparedCommands = new HashMap<String, String>();
+        this.cursors = new HashMap<String, Cursor>();
+    }
+
+    public Database getCurrentDatabase() {
+        return this.currentDb;
+    }
+
+    public void setCurrentDatabase(Database db) {
+        this.currentDb = db;
+    }
+
+    // Preparing again under the same name replaces the old one
+    public void putPreparedTask(Task.PrepareTask task) {
+        this.preparedTasks.put(task.getName().toLowerCase(), task);
+    }
+
+    public Task.PrepareTask getPreparedTask(String name) {
+        return this.preparedTasks.get(name.toLowerCase());
+    }
+
+    public void putPreparedCommand(String name, String command) {
+        this.preparedCommands.put(name.toLowerCase(), command);
+    }
+
+    public String getPreparedCommand(String name) {
+        return this.preparedCommands.get(name.toLowerCase());
+    }
+
+    // Declaring again under the same name replaces the old one
+    public void putCursor(Cursor cursor) {
+        this.cursors.put(cursor.getName().toLowerCase(), cursor);
+    }
+
+    public Cursor getCursor(String name) {
+        return this.cursors.get(name.toLowerCase());
+    }
+
+    // Returns the closed cursor, or null if there is none of the name
+    public Cursor removeCursor(String name) {
+        return this.cursors.remove(name.toLowerCase());
+    }
+}
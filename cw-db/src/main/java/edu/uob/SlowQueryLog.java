@@ -0,0 +1,82 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+// This class logs the commands taking longer than a threshold,
+// one line for each, with the trace of how it was handled.
+// The log is rotated before it grows beyond a size:
+// `[log]` becomes `[log].1`, `[log].1` becomes `[log].2`, and so on,
+// and the oldest one beyond the number kept is deleted.
+public class SlowQueryLog {
+    private final Path filePath;
+    private final long thresholdMicros;
+    private final long maxFileSize;
+    private final int numberOfOldFiles;
+    private long fileSize;
+
+    public SlowQueryLog(Path filePath, long thresholdMillis, long maxFileSize,
+            int numberOfOldFiles) throws IOException {
+        this.filePath = filePath;
+        this.thresholdMicros = thresholdMillis * 1000;
+        this.maxFileSize = maxFileSize;
+        this.numberOfOldFiles = Math.max(0, numberOfOldFiles);
+        this.fileSize = Files.isRegularFile(filePath) ? Files.size(filePath) : 0;
+    }
+
+    // Only a measured command is compared, so nothing is built for fast ones
+    public boolean isSlow(Metrics.Sample sample) {
+        Long totalMicros = sample.getValue(Metrics.Measure.TOTAL);
+        return totalMicros != null && totalMicros >= this.thresholdMicros;
+    }
+
+    // E.g., `2026-01-01T00:00:00Z SELECT total_us=1200 parse_us=80 ... access=[t: SCAN]
+    // command=SELECT * FROM t;`
+    public static String formatEntry(String command, Metrics.Sample sample, String access) {
+        StringBuilder entry = new StringBuilder();
+        entry.append(Instant.now()).append(' ').append(sample.getCommandType());
+        for (Metrics.Measure measure : Metrics.Measure.values()) {
+            Long value = sample.getValue(measure);
+            if (value != null) {
+                entry.append(' ').append(measure).append('=').append(value);
+            }
+        }
+        entry.append(" access=[").append(access).append("] command=");
+        // A command is a line, but keep an entry on a line anyway
+        entry.append(command.replace('\n', ' ').replace('\r', ' '));
+        return entry.toString();
+    }
+
+    public synchronized void write(String entry) throws IOException {
+        byte[] data = (entry + "\n").getBytes();
+        if (this.fileSize > 0 && this.fileSize + data.length > this.maxFileSize) {
+            rotate();
+        }
+        Files.write(this.filePath, data, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.fileSize += data.length;
+    }
+
+    private void rotate() throws IOException {
+        if (this.numberOfOldFiles == 0) {
+            Files.deleteIfExists(this.filePath);
+        } else {
+            Files.deleteIfExists(getOldFilePath(this.numberOfOldFiles));
+            for (int i = this.numberOfOldFiles - 1; i >= 1; --i) {
+                if (Files.exists(getOldFilePath(i))) {
+                    Files.move(getOldFilePath(i), getOldFilePath(i + 1),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(this.filePath, getOldFilePath(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        this.fileSize = 0;
+    }
+
+    private Path getOldFilePath(int idx) {
+        return this.filePath.resolveSibling(this.filePath.getFileName() + "." + idx);
+    }
+}
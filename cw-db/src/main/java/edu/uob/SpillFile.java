@@ -0,0 +1,114 @@
+package edu.uob;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// This class is a temporary file of rows, which operators spill to when out of memory.
+// Rows are all written first, then read back in the order they were written.
+// The file is deleted when closed.
+public class SpillFile implements Closeable {
+    private static final String filePrefix = "spill-";
+    private static final String fileSuffix = ".tmp";
+
+    // Rows read one after another, null after the last one
+    public static class Reader implements Closeable {
+        private final DataInputStream input;
+        private long numberOfRowsLeft;
+
+        private Reader(DataInputStream input, long numberOfRows) {
+            this.input = input;
+            this.numberOfRowsLeft = numberOfRows;
+        }
+
+        public List<String> next() throws IOException {
+            if (this.numberOfRowsLeft == 0) {
+                return null;
+            }
+            this.numberOfRowsLeft--;
+            int rowSize = this.input.readInt();
+            List<String> row = new ArrayList<String>(rowSize);
+            for (int i = 0; i < rowSize; ++i) {
+                int length = this.input.readInt();
+                if (length < 0) {
+                    row.add(null);
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                this.input.readFully(bytes);
+                row.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.input.close();
+        }
+    }
+
+    private final Path filePath;
+    private DataOutputStream output; // null once written
+    private long numberOfRows;
+
+    // The directory is created if it does not exist
+    public SpillFile(Path directoryPath) throws IOException {
+        Files.createDirectories(directoryPath);
+        this.filePath = Files.createTempFile(directoryPath, filePrefix, fileSuffix);
+        this.output = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(this.filePath)));
+        this.numberOfRows = 0;
+    }
+
+    public void write(List<String> row) throws IOException {
+        if (this.output == null) {
+            throw new IOException("spill file already read " + this.filePath);
+        }
+        this.output.writeInt(row.size());
+        for (String field : row) {
+            if (field == null) {
+                this.output.writeInt(-1);
+                continue;
+            }
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            this.output.writeInt(bytes.length);
+            this.output.write(bytes);
+        }
+        this.numberOfRows++;
+    }
+
+    public long getNumberOfRows() {
+        return this.numberOfRows;
+    }
+
+    // No more rows can be written once the file is read
+    public Reader read() throws IOException {
+        finishWriting();
+        return new Reader(new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(this.filePath))), this.numberOfRows);
+    }
+
+    private void finishWriting() throws IOException {
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finishWriting();
+        } finally {
+            Files.deleteIfExists(this.filePath);
+        }
+    }
+}
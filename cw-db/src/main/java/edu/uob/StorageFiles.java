@@ -0,0 +1,66 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// This class writes and snapshots the files in a storage folder.
+// Files are never modified in place, but replaced by a complete new file,
+// so a file linked into a snapshot keeps its content.
+public class StorageFiles {
+    private static final String tempFileSuffix = ".tmp";
+    private static final LongAdder bytesWritten = new LongAdder(); // By all the servers
+
+    // Bytes of all the files written since the program started
+    public static long getNumberOfBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    // Replace the file by one with given data, readers see either the old or the new file
+    public static void writeAtomically(Path filePath, byte[] data) throws IOException {
+        Path tempFilePath = filePath.resolveSibling(filePath.getFileName() + tempFileSuffix);
+        Files.write(tempFilePath, data);
+        bytesWritten.add(data.length);
+        try {
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException notAtomic) {
+            Files.move(tempFilePath, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Hard link the files from one folder into another, or copy them if links are not allowed.
+    // Files are added in the given order, so the last one can mark the set as complete.
+    public static void linkOrCopy(Path fromDir, Path toDir, List<String> fileNames)
+            throws IOException {
+        Files.createDirectories(toDir);
+        for (String fileName : fileNames) {
+            Path source = fromDir.resolve(fileName);
+            Path target = toDir.resolve(fileName);
+            Files.deleteIfExists(target);
+            try {
+                Files.createLink(target, source);
+            } catch (UnsupportedOperationException | IOException | SecurityException noLink) {
+                Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    // Delete a folder of files, such as a snapshot, if it exists
+    public static void deleteFolder(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+}
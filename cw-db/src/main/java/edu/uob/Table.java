@@ -2,22 +2,27 @@ package edu.uob;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Serial;
+import java.io.StringReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 // This class represents a table.
 // Some error checkings are done twice:
@@ -98,43 +103,36 @@ public class Table implements Iterable<Table.Entity> {
                 super("string does not represent an entity: " + str);
             }
         }
+
+        public static class InvalidPartitionException extends TableException {
+            @Serial
+            private static final long serialVersionUID = 1;
+
+            public InvalidPartitionException(String message) {
+                super("invalid partition: " + message);
+            }
+        }
     }
 
-    // Represent a row in a table
-    public static class Entity {
+    // Represent a row in a table.
+    // An entity is only a view of a row in the row storage of a partition,
+    // with attribute values decoded by the column dictionaries of the table.
+    // Invalid after table altered or entities deleted.
+    public class Entity {
         // Id is not treated as an attribute.
         // But here id is given a special attribute index, just for convenience.
         public static final int idIdx = -99;
 
-        private final long id;
-        private ArrayList<String> attributes;
+        private final Partition partition;
+        private final int position; // In the row storage of the partition
 
-        protected Entity(long id) throws DBException {
-            if (id < 0) {
-                throw new TableException.NegativeEntityIdException(id);
-            }
-            this.id = id;
-            this.attributes = new ArrayList<String>();
+        private Entity(Partition partition, int position) {
+            this.partition = partition;
+            this.position = position;
         }
 
         public long getId() {
-            return this.id;
-        }
-
-        protected void addAttribute(String attr) throws DBException {
-            if (!Grammar.isValidAttributeValue(attr)) {
-                throw new TableException.InvalidAttributeValueException(attr);
-            }
-            this.attributes.add(attr);
-        }
-
-        protected void addAttributes(Collection<? extends String> attributes) throws DBException {
-            if (attributes == null) {
-                throw new DBException.NullObjectException("null attributes to add");
-            }
-            for (String attr : attributes) {
-                addAttribute(attr);
-            }
+            return this.partition.rows.getId(this.position);
         }
 
         // Caller shall ensure `value` is valid attribute value
@@ -142,7 +140,11 @@ public class Table implements Iterable<Table.Entity> {
             if (idx < 0 || getNumberOfAttributes() <= idx) {
                 throw new TableException.InvalidAttributeIndexException(idx);
             }
-            this.attributes.set(idx, value);
+            this.partition.rows.setCode(this.position, idx, dictionaries.get(idx).encode(value));
+            if (dictionaries.get(idx).needsRebuild()) {
+                rebuildDictionary(idx);
+            }
+            markChanged();
         }
 
         public String getAttributeOrId(int idx) throws DBException {
@@ -152,18 +154,11 @@ public class Table implements Iterable<Table.Entity> {
             if (idx < 0 || getNumberOfAttributes() <= idx) {
                 throw new TableException.InvalidAttributeIndexException(idx);
             }
-            return this.attributes.get(idx);
-        }
-
-        protected void dropAttribute(int idx) throws DBException {
-            if (idx < 0 || getNumberOfAttributes() <= idx) {
-                throw new TableException.InvalidAttributeIndexException(idx);
-            }
-            this.attributes.remove(idx);
+            return dictionaries.get(idx).getValue(this.partition.rows.getCode(this.position, idx));
         }
 
         public int getNumberOfAttributes() {
-            return this.attributes.size();
+            return this.partition.rows.getNumberOfColumns();
         }
 
         @Override
@@ -175,14 +170,95 @@ public class Table implements Iterable<Table.Entity> {
             if (delim == null) {
                 delim = " ";
             }
-            String str = String.valueOf(this.id);
-            for (String attr : this.attributes) {
-                str += delim + attr;
+            return appendTo(new StringBuilder(), delim).toString();
+        }
+
+        private StringBuilder appendTo(StringBuilder str, String delim) {
+            str.append(getId());
+            for (int i = 0; i < getNumberOfAttributes(); ++i) {
+                int code = this.partition.rows.getCode(this.position, i);
+                str.append(delim).append(dictionaries.get(i).getValue(code));
             }
             return str;
         }
     }
 
+    // The distinct values of a column, each identified by an int code.
+    // So a value repeated in many entities is stored only once,
+    // and conditions can be tested once per distinct value.
+    // Values no longer stored are kept until the dictionary is rebuilt,
+    // which gives the values left new codes.
+    // A column with almost as many distinct values as entities gains nothing from
+    // looking values up, so its dictionary is plain: every value set gets a new code.
+    // Values are kept outside the heap along with the rows, if the rows are.
+    private class ColumnDictionary implements Condition.Dictionary {
+        private HashMap<String, Integer> codes; // null if plain
+        private ValueStore values;
+        private int rebuiltSize; // Size when last rebuilt
+
+        private ColumnDictionary() throws DBException {
+            this.codes = new HashMap<String, Integer>();
+            this.values = createValueStore();
+            this.rebuiltSize = 0;
+        }
+
+        private boolean isPlain() {
+            return this.codes == null;
+        }
+
+        private int encode(String value) throws DBException {
+            if (this.codes != null) {
+                Integer code = this.codes.get(value);
+                if (code != null) {
+                    return code.intValue();
+                }
+                this.codes.put(value, this.values.size());
+            }
+            return this.values.add(value);
+        }
+
+        // Whether it has grown enough since last rebuilt to be rebuilt again,
+        // so rebuilding costs a constant time for each value added
+        private boolean needsRebuild() {
+            return this.values.size()
+                    >= 2 * Math.max(this.rebuiltSize, minDictionarySizeToRebuild);
+        }
+
+        // Keep only the values of `usedCodes`, stored in `numberOfRows` rows.
+        // Returns the new code of each old code, or -1 if its value is dropped.
+        private int[] rebuild(BitSet usedCodes, int numberOfRows) throws DBException {
+            int[] newCodeOf = new int[this.values.size()];
+            HashMap<String, Integer> newCodes = new HashMap<String, Integer>();
+            ValueStore newValues = createValueStore();
+            for (int code = 0; code < newCodeOf.length; ++code) {
+                if (!usedCodes.get(code)) {
+                    newCodeOf[code] = -1;
+                    continue;
+                }
+                String value = this.values.get(code);
+                Integer newCode = newCodes.putIfAbsent(value, newValues.size());
+                newCodeOf[code] = newCode == null ? newValues.add(value) : newCode.intValue();
+            }
+            this.values = newValues;
+            int newSize = newValues.size();
+            this.rebuiltSize = newSize;
+            boolean plain = numberOfRows >= blockSize
+                    && newSize > numberOfRows * plainDictionaryThreshold;
+            this.codes = plain ? null : newCodes;
+            return newCodeOf;
+        }
+
+        @Override
+        public int size() {
+            return this.values.size();
+        }
+
+        @Override
+        public String getValue(int code) {
+            return this.values.get(code);
+        }
+    }
+
     // Get the index (i.e., column) of an attribute.
     // It returns Entity.idIdx for "id".
     // Invalid after table altered.
@@ -290,6 +366,10 @@ public class Table implements Iterable<Table.Entity> {
                     throw new TableException.InvalidAttributeNameException(
                             attrName, "cannot modify id");
                 }
+                if (isPartitionKey(attrName)) {
+                    throw new TableException.InvalidAttributeNameException(
+                            attrName, "cannot modify the attribute partitioned by");
+                }
                 String attrValue = entry.getValue();
                 if (!Grammar.isValidAttributeValue(attrValue)) {
                     throw new TableException.InvalidAttributeValueException(attrValue);
@@ -310,14 +390,403 @@ public class Table implements Iterable<Table.Entity> {
         }
     }
 
+    // A block of consecutive entities of a partition, read column by column.
+    // A column is only filled when a condition asks for it,
+    // and the column arrays are reused as the block moves on.
+    // Invalid after table altered.
+    private class EntityBlock implements Condition.Block {
+        private final Partition partition;
+        private AttrIdFieldIndexMapper idxMapper;
+        private HashMap<Integer, String[]> columns;
+        private HashSet<Integer> filledColumns;
+        private HashMap<Integer, int[]> codeColumns;
+        private HashSet<Integer> filledCodeColumns;
+        private int startIdx;
+        private int size;
+
+        private EntityBlock(Partition partition) {
+            this.partition = partition;
+            this.idxMapper = getAttrIdFieldIndexMapper();
+            this.columns = new HashMap<Integer, String[]>();
+            this.filledColumns = new HashSet<Integer>();
+            this.codeColumns = new HashMap<Integer, int[]>();
+            this.filledCodeColumns = new HashSet<Integer>();
+            this.startIdx = 0;
+            this.size = 0;
+        }
+
+        // Move to the block starting at `startIdx`,
+        // and returns the rows of it that fulfill given condition
+        private BitSet select(Condition cond, int startIdx) throws DBException {
+            this.startIdx = startIdx;
+            this.size = Math.min(blockSize, this.partition.rows.size() - startIdx);
+            this.filledColumns.clear();
+            this.filledCodeColumns.clear();
+            BitSet selection = new BitSet(this.size);
+            selection.set(0, this.size);
+            selection.andNot(this.partition.deletedEntities.get(startIdx, startIdx + this.size));
+            numberOfScannedRows.add(selection.cardinality());
+            cond.evaluateBlock(this, selection);
+            return selection;
+        }
+
+        private Entity getEntity(int row) {
+            return new Entity(this.partition, this.startIdx + row);
+        }
+
+        @Override
+        public int size() {
+            return this.size;
+        }
+
+        @Override
+        public String[] getColumn(String key) throws DBException {
+            int attrIdx = this.idxMapper.getIndexOf(key);
+            String[] column = this.columns.get(attrIdx);
+            if (column == null) {
+                column = new String[blockSize];
+                this.columns.put(attrIdx, column);
+            }
+            if (this.filledColumns.add(attrIdx)) {
+                if (attrIdx == Entity.idIdx) {
+                    for (int i = 0; i < this.size; ++i) {
+                        column[i] = String.valueOf(this.partition.rows.getId(this.startIdx + i));
+                    }
+                } else {
+                    int[] codes = getCodes(key);
+                    ColumnDictionary dictionary = dictionaries.get(attrIdx);
+                    for (int i = 0; i < this.size; ++i) {
+                        column[i] = dictionary.getValue(codes[i]);
+                    }
+                }
+            }
+            return column;
+        }
+
+        // Id is not dictionary encoded, nor are values of a plain dictionary
+        @Override
+        public Condition.Dictionary getDictionary(String key) throws DBException {
+            int attrIdx = this.idxMapper.getIndexOf(key);
+            if (attrIdx == Entity.idIdx || dictionaries.get(attrIdx).isPlain()) {
+                return null;
+            }
+            return dictionaries.get(attrIdx);
+        }
+
+        @Override
+        public int[] getCodes(String key) throws DBException {
+            int attrIdx = this.idxMapper.getIndexOf(key);
+            if (attrIdx == Entity.idIdx) {
+                return null;
+            }
+            int[] codes = this.codeColumns.get(attrIdx);
+            if (codes == null) {
+                codes = new int[blockSize];
+                this.codeColumns.put(attrIdx, codes);
+            }
+            if (this.filledCodeColumns.add(attrIdx)) {
+                for (int i = 0; i < this.size; ++i) {
+                    codes[i] = this.partition.rows.getCode(this.startIdx + i, attrIdx);
+                }
+            }
+            return codes;
+        }
+    }
+
+    // A share of the entities of a table, with its own row storage and tombstones.
+    // Partitions only share the column dictionaries of the table,
+    // so the partitions one command scans are scanned in parallel.
+    // Partitions have no locks of their own, so they do not make writes scale:
+    // commands, writes included, run one at a time under the lock of the server.
+    private class Partition {
+        private VersionedRowStore rows;
+        private BitSet deletedEntities; // Tombstones, by storage position
+        private int numberOfDeleted;
+        private boolean sortedById; // Whether entities are stored in ascending order of id
+
+        private Partition(int numberOfColumns) throws DBException {
+            this.rows = new VersionedRowStore(numberOfColumns,
+                    offHeapStorage ? OffHeapRowStore::new : HeapRowStore::new);
+            this.deletedEntities = new BitSet();
+            this.numberOfDeleted = 0;
+            this.sortedById = true;
+        }
+
+        // Deleted entities are not counted
+        private int getNumberOfEntities() {
+            return this.rows.size() - this.numberOfDeleted;
+        }
+
+        private void add(long id, int[] codes) throws DBException {
+            int storageSize = this.rows.size();
+            if (storageSize > 0 && this.rows.getId(storageSize - 1) >= id) {
+                this.sortedById = false;
+            }
+            this.rows.add(id, codes);
+        }
+
+        private List<Entity> scan(Condition cond, boolean reversed, long offset, long limit)
+                throws DBException {
+            List<Entity> chosenEntities = new ArrayList<Entity>();
+            long numberToSkip = offset;
+            int numberOfBlocks = (this.rows.size() + blockSize - 1) / blockSize;
+            EntityBlock block = new EntityBlock(this);
+            for (int b = 0; b < numberOfBlocks && chosenEntities.size() != limit; ++b) {
+                int startIdx = (reversed ? numberOfBlocks - 1 - b : b) * blockSize;
+                BitSet selection = block.select(cond, startIdx);
+                int numberSelected = selection.cardinality();
+                if (numberToSkip >= numberSelected) {
+                    numberToSkip -= numberSelected;
+                    continue;
+                }
+                int row = reversed ? selection.length() - 1 : selection.nextSetBit(0);
+                while (row >= 0 && chosenEntities.size() != limit) {
+                    if (numberToSkip > 0) {
+                        numberToSkip--;
+                    } else {
+                        chosenEntities.add(block.getEntity(row));
+                    }
+                    row = reversed ? selection.previousSetBit(row - 1)
+                            : selection.nextSetBit(row + 1);
+                }
+            }
+            return chosenEntities;
+        }
+
+        // The chosen entities in id order, at most `limit` of them unless it is negative
+        private List<Entity> scanById(Condition cond, boolean descending, long limit)
+                throws DBException {
+            if (this.sortedById) {
+                return scan(cond, descending, 0, limit);
+            }
+            List<Entity> entities = scan(cond, false, 0, -1);
+            entities.sort(getIdComparator(descending));
+            if (limit >= 0 && limit < entities.size()) {
+                return new ArrayList<Entity>(entities.subList(0, (int) limit));
+            }
+            return entities;
+        }
+
+        // The chosen entities with ids from `fromId` until before `toId`, in id order,
+        // at most `limit` of them unless it is negative.
+        // Entities stored in id order are found by binary search,
+        // so only the blocks in the range are scanned.
+        private List<Entity> scanIdRange(Condition cond, long fromId, long toId,
+                boolean descending, long limit) throws DBException {
+            List<Entity> chosenEntities = new ArrayList<Entity>();
+            if (!this.sortedById) {
+                for (Entity entity : scan(cond, false, 0, -1)) {
+                    if (entity.getId() >= fromId && entity.getId() < toId) {
+                        chosenEntities.add(entity);
+                    }
+                }
+                chosenEntities.sort(getIdComparator(descending));
+                if (limit >= 0 && limit < chosenEntities.size()) {
+                    return new ArrayList<Entity>(chosenEntities.subList(0, (int) limit));
+                }
+                return chosenEntities;
+            }
+            int startPos = findPosition(fromId);
+            int endPos = findPosition(toId);
+            if (startPos >= endPos) {
+                return chosenEntities;
+            }
+            EntityBlock block = new EntityBlock(this);
+            int firstBlockStart = startPos - startPos % blockSize;
+            int lastBlockStart = (endPos - 1) - (endPos - 1) % blockSize;
+            for (int startIdx = descending ? lastBlockStart : firstBlockStart;
+                    startIdx >= firstBlockStart && startIdx <= lastBlockStart
+                    && chosenEntities.size() != limit;
+                    startIdx += descending ? -blockSize : blockSize) {
+                BitSet selection = block.select(cond, startIdx);
+                int fromRow = Math.max(0, startPos - startIdx);
+                int toRow = endPos - startIdx; // Exclusive
+                selection.clear(0, fromRow);
+                selection.clear(toRow, Math.max(toRow, selection.length()));
+                int row = descending ? selection.length() - 1 : selection.nextSetBit(0);
+                while (row >= 0 && chosenEntities.size() != limit) {
+                    chosenEntities.add(block.getEntity(row));
+                    row = descending ? selection.previousSetBit(row - 1)
+                            : selection.nextSetBit(row + 1);
+                }
+            }
+            return chosenEntities;
+        }
+
+        // The first storage position with an id not less than given one,
+        // for entities stored in id order
+        private int findPosition(long id) {
+            int low = 0;
+            int high = this.rows.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (this.rows.getId(mid) < id) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Keep only the first `numberToKeep` entities in a bounded heap,
+        // instead of sorting all the chosen entities.
+        // The kept entities are returned in no particular order.
+        private List<SortedEntity> chooseTop(Condition cond, int orderIdx,
+                java.util.Comparator<SortedEntity> order, int numberToKeep) throws DBException {
+            // The head of the heap is the last one of the kept entities
+            PriorityQueue<SortedEntity> heap =
+                    new PriorityQueue<SortedEntity>(numberToKeep, order.reversed());
+            EntityBlock block = new EntityBlock(this);
+            for (int startIdx = 0; startIdx < this.rows.size(); startIdx += blockSize) {
+                BitSet selection = block.select(cond, startIdx);
+                for (int row = selection.nextSetBit(0); row >= 0;
+                        row = selection.nextSetBit(row + 1)) {
+                    Entity entity = block.getEntity(row);
+                    long position = isPartitioned() ? entity.getId() : startIdx + row;
+                    SortedEntity sortedEntity = new SortedEntity(entity, orderIdx, position);
+                    if (heap.size() < numberToKeep) {
+                        heap.add(sortedEntity);
+                    } else if (order.compare(sortedEntity, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.add(sortedEntity);
+                    }
+                }
+            }
+            return new ArrayList<SortedEntity>(heap);
+        }
+
+        // Returns whether any entity is deleted
+        private boolean delete(Condition cond) throws DBException {
+            int previouslyDeleted = this.numberOfDeleted;
+            EntityBlock block = new EntityBlock(this);
+            for (int startIdx = 0; startIdx < this.rows.size(); startIdx += blockSize) {
+                BitSet selection = block.select(cond, startIdx);
+                for (int row = selection.nextSetBit(0); row >= 0;
+                        row = selection.nextSetBit(row + 1)) {
+                    this.deletedEntities.set(startIdx + row);
+                }
+                this.numberOfDeleted += selection.cardinality();
+            }
+            if (this.numberOfDeleted == previouslyDeleted) {
+                return false;
+            }
+            if (needsCompaction()) {
+                compact();
+            }
+            return true;
+        }
+
+        private boolean needsCompaction() {
+            return this.numberOfDeleted > this.rows.size() * compactionThreshold
+                    || this.rows.getNumberOfDroppedColumns() >= maxDroppedColumns;
+        }
+
+        // Rebuild the storage without deleted entities,
+        // and without the attributes dropped since it was last rebuilt
+        private void compact() throws DBException {
+            if (this.numberOfDeleted > 0) {
+                this.rows.removeRows(this.deletedEntities);
+                this.deletedEntities.clear();
+                this.numberOfDeleted = 0;
+            }
+            this.rows.rebuild();
+        }
+
+        // Storage without rows is rebuilt for a changed schema at once, as it costs nothing
+        private void rebuildIfEmpty() throws DBException {
+            if (this.rows.size() == 0) {
+                this.rows.rebuild();
+            }
+        }
+
+        private void clear() {
+            this.rows.clear();
+            this.deletedEntities.clear();
+            this.numberOfDeleted = 0;
+        }
+    }
+
+    // Work done on a partition, possibly at the same time as on other partitions
+    @FunctionalInterface
+    private static interface PartitionWork<T> {
+        public T apply(Partition partition) throws DBException;
+    }
+
+    // Iterate entities partition by partition, skipping deleted ones
+    private class EntityIterator implements Iterator<Entity> {
+        private int partitionIdx;
+        private int nextIdx;
+
+        private EntityIterator() {
+            this.partitionIdx = 0;
+            this.nextIdx = partitions.get(0).deletedEntities.nextClearBit(0);
+            skipExhaustedPartitions();
+        }
+
+        private void skipExhaustedPartitions() {
+            while (this.nextIdx >= partitions.get(this.partitionIdx).rows.size()
+                    && this.partitionIdx + 1 < partitions.size()) {
+                this.partitionIdx++;
+                this.nextIdx = partitions.get(this.partitionIdx).deletedEntities.nextClearBit(0);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.nextIdx < partitions.get(this.partitionIdx).rows.size();
+        }
+
+        @Override
+        public Entity next() {
+            Partition partition = partitions.get(this.partitionIdx);
+            Entity entity = new Entity(partition, this.nextIdx);
+            numberOfScannedRows.increment();
+            this.nextIdx = partition.deletedEntities.nextClearBit(this.nextIdx + 1);
+            skipExhaustedPartitions();
+            return entity;
+        }
+    }
+
+    // How entities were chosen, kept for tracing slow commands
+    public static enum AccessMethod {
+        NONE, SCAN, ID_ORDER_SCAN, TOP_N, SORT
+    }
+
+    private static final Pattern entityStrPattern =
+            Pattern.compile("\\s*(\\d+)(\\s.*)?", Pattern.DOTALL);
     private static final char metaFormatBracketLeft = '<';
     private static final char metaFormatBracketRight = '>';
     private static final String metaFormatDelim = "|";
+    private static final String partitionFormatDelim = "/";
+    private static final String fileLayoutFormatPrefix = "@";
+    private static final int blockSize = 1024; // Number of entities evaluated at once
+    // A partition is compacted once its deleted entities are more than this share of storage,
+    private static final double compactionThreshold = 0.5;
+    // or, when it next deletes, once this many dropped attributes are still stored in it
+    private static final int maxDroppedColumns = 4;
+    private static final int maxNumberOfPartitions = 1024;
+    private static final int minDictionarySizeToRebuild = 1024;
+    // A dictionary becomes plain when it has more distinct values than this share of rows
+    private static final double plainDictionaryThreshold = 0.8;
 
     private long nextId;
     private HashSet<String> attrNameSet;
     private List<String> attrNames;
-    private List<Entity> entities;
+    private List<ColumnDictionary> dictionaries; // One for each attribute
+    private List<Partition> partitions;
+    private String partitionKey; // Attribute (or id) entities are partitioned by, null if none
+    private LongAdder numberOfScannedRows; // Partitions may be scanned at the same time
+    private AccessMethod lastAccessMethod;
+    private int lastNumberOfPartitionsAccessed;
+    private long version; // Changed whenever the table is, so cached results can be checked
+    private long dataVersion; // Changed whenever the entities are, so the file is written then
+    private final boolean offHeapStorage; // Of rows and dictionary values, as configured
+    // For each attribute, its column in the table file, or -1 if added since the file was
+    // written; null if the table has no file yet. Table meta keeps this when it differs from
+    // the attributes, so altering a table does not rewrite its file.
+    private List<Integer> fileColumns;
+    private int fileNumberOfColumns; // Attributes in the table file
 
     public Table() throws DBException {
         this(0);
@@ -328,13 +797,25 @@ public class Table implements Iterable<Table.Entity> {
             throw new TableException.NegativeNextIdException(nextId);
         }
         this.nextId = nextId;
+        this.offHeapStorage = Config.isOffHeapStorage();
         this.attrNameSet = new HashSet<String>();
         this.attrNames = new ArrayList<String>();
-        this.entities = new ArrayList<Entity>();
+        this.dictionaries = new ArrayList<ColumnDictionary>();
+        this.partitions = new ArrayList<Partition>();
+        this.partitions.add(new Partition(0));
+        this.partitionKey = null;
+        this.numberOfScannedRows = new LongAdder();
+        this.lastAccessMethod = AccessMethod.NONE;
+        this.lastNumberOfPartitionsAccessed = 0;
+        this.version = 0;
+        this.dataVersion = 0;
+        this.fileColumns = null;
+        this.fileNumberOfColumns = 0;
     }
 
     // Create table from meta string.
-    // A meta string describes all the attributes and next available id.
+    // A meta string describes all the attributes and next available id,
+    // and how the table is partitioned if it is, e.g., `<3:name|mark:name/4>`.
     public static Table createFromMetaString(String meta) throws DBException {
         if (meta == null) {
             throw new DBException.NullObjectException("creating table from null meta");
@@ -346,20 +827,81 @@ public class Table implements Iterable<Table.Entity> {
                     "ill-formatted meta string for table: " + meta);
         }
         meta = meta.substring(1, meta.length() - 1);
-        String[] nextIdAndAttrNames = meta.split(":", 2);
-        if (nextIdAndAttrNames.length != 2) {
+        String fileLayout = null;
+        int fileLayoutIdx = meta.indexOf(fileLayoutFormatPrefix);
+        if (fileLayoutIdx >= 0) {
+            fileLayout = meta.substring(fileLayoutIdx + fileLayoutFormatPrefix.length());
+            meta = meta.substring(0, fileLayoutIdx);
+        }
+        String[] metaFields = meta.split(":", 3);
+        if (metaFields.length < 2) {
             throw new DBException.DatabaseStorageException(
                     "cannot split table meta string: " + meta);
         }
-        String nextIdString = nextIdAndAttrNames[0].trim();
-        String attrNamesString = nextIdAndAttrNames[1];
+        String nextIdString = metaFields[0].trim();
+        String attrNamesString = metaFields[1];
         long nextId = Long.parseLong(nextIdString);
         Table table = new Table(nextId);
         table.addAttrFieldsByString(attrNamesString, metaFormatDelim);
+        if (metaFields.length == 3) {
+            String[] partitionFields = metaFields[2].split(Pattern.quote(partitionFormatDelim));
+            if (partitionFields.length != 2 || !Grammar.isIntegerLiteral(partitionFields[1])) {
+                throw new DBException.DatabaseStorageException(
+                        "ill-formatted partition in table meta string: " + meta);
+            }
+            table.partitionBy(partitionFields[0].trim(), Integer.parseInt(partitionFields[1]));
+        }
+        if (fileLayout != null) {
+            table.fileColumns = parseFileLayout(fileLayout, table.getNumberOfAttrFields());
+        }
         return table;
     }
 
-    // Load table entities from file
+    // The column in the table file of each attribute, e.g., `0|2|-1`
+    private static List<Integer> parseFileLayout(String fileLayout, int numberOfAttributes)
+            throws DBException {
+        List<Integer> fileColumns = new ArrayList<Integer>();
+        if (fileLayout.trim().length() > 0) {
+            for (String column : fileLayout.split(Pattern.quote(metaFormatDelim))) {
+                column = column.trim();
+                if (!Grammar.isIntegerLiteral(column) || Integer.parseInt(column) < -1) {
+                    throw new DBException.DatabaseStorageException(
+                            "ill-formatted file layout in table meta string: " + fileLayout);
+                }
+                fileColumns.add(Integer.parseInt(column));
+            }
+        }
+        if (fileColumns.size() != numberOfAttributes) {
+            throw new DBException.DatabaseStorageException(
+                    "file layout does not match attributes in table meta: " + fileLayout);
+        }
+        return fileColumns;
+    }
+
+    // Whether the table file has the attributes of the table, in the same order
+    private boolean isFileLayoutPlain() {
+        if (this.fileNumberOfColumns != this.fileColumns.size()) {
+            return false;
+        }
+        for (int i = 0; i < this.fileColumns.size(); ++i) {
+            if (this.fileColumns.get(i).intValue() != i) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void setFileLayoutPlain() {
+        this.fileColumns = new ArrayList<Integer>();
+        for (int i = 0; i < getNumberOfAttrFields(); ++i) {
+            this.fileColumns.add(i);
+        }
+        this.fileNumberOfColumns = getNumberOfAttrFields();
+    }
+
+    // Load table entities from file, which may be block compressed.
+    // Attributes added since the file was written read NULL,
+    // and columns of attributes dropped since are skipped.
     public void loadFromFile(File file) throws DBException, IOException {
         if (file == null) {
             throw new DBException.NullObjectException("null file for loading table");
@@ -368,11 +910,21 @@ public class Table implements Iterable<Table.Entity> {
             throw new DBException.DatabaseStorageException(
                     "cannot find table file " + file.getPath());
         }
-        try (BufferedReader bufReader = new BufferedReader(new FileReader(file))) {
+        byte[] data = Files.readAllBytes(file.toPath());
+        if (BlockCompression.isCompressed(data)) {
+            data = BlockCompression.decompress(data);
+        }
+        try (BufferedReader bufReader = new BufferedReader(new StringReader(new String(data)))) {
             String line = null;
             while ((line = bufReader.readLine()) != null && (line = line.trim()).length() == 0) {
             }
-            if (!validateTableHeader(Arrays.asList(line.split("\\s+")))) {
+            List<String> headerFields = line == null ? List.of()
+                    : Arrays.asList(line.split("\\s+"));
+            if (this.fileColumns == null) {
+                setFileLayoutPlain();
+            }
+            this.fileNumberOfColumns = headerFields.size() - 1;
+            if (!validateTableHeader(headerFields)) {
                 throw new DBException.DatabaseStorageException(
                         "invalid table header in " + file.getPath());
             }
@@ -380,44 +932,169 @@ public class Table implements Iterable<Table.Entity> {
                 if ((line = line.trim()).length() == 0) {
                     continue;
                 }
-                addEntityFromString(line);
+                addEntityFromFileString(line);
             }
         }
     }
 
-    // Store table entities to file
+    // Store table entities to file, block compressed if configured so
     public String storeToFile(Path tableFilePath) throws DBException, IOException {
-        Files.write(tableFilePath, exportToString("\t").getBytes(), StandardOpenOption.WRITE,
-                StandardOpenOption.CREATE,
-                StandardOpenOption.TRUNCATE_EXISTING);
-        String meta = String.valueOf(metaFormatBracketLeft)
-                + this.nextId + ":" + String.join(metaFormatDelim, this.attrNames)
-                + metaFormatBracketRight;
-        return meta;
+        byte[] data = exportToString("\t").getBytes();
+        if (Config.isTableCompression()) {
+            data = BlockCompression.compress(data);
+        }
+        StorageFiles.writeAtomically(tableFilePath, data);
+        setFileLayoutPlain();
+        return toString();
     }
 
-    public boolean validateTableHeader(Collection<? extends String> headerFields) {
-        if (getNumberOfAttrFields() + 1 != headerFields.size()) {
-            return false;
-        }
-        int fieldIdx = 0;
-        for (String field : headerFields) {
-            field = field.toLowerCase();
-            if (fieldIdx == 0 && !Grammar.isIdAttrName(field)) {
+    // The header of the table file has the id, then the attributes in the file,
+    // each in the column the table expects
+    public boolean validateTableHeader(List<? extends String> headerFields) {
+        List<Integer> fileColumns = this.fileColumns;
+        if (fileColumns == null) {
+            if (getNumberOfAttrFields() + 1 != headerFields.size()) {
                 return false;
             }
-            if (fieldIdx > 0 && !this.attrNames.get(fieldIdx - 1).toLowerCase().equals(field)) {
+            fileColumns = IntStream.range(0, getNumberOfAttrFields()).boxed()
+                    .collect(Collectors.toList());
+        }
+        if (headerFields.isEmpty() || !Grammar.isIdAttrName(headerFields.get(0).toLowerCase())) {
+            return false;
+        }
+        for (int i = 0; i < fileColumns.size(); ++i) {
+            int column = fileColumns.get(i);
+            if (column >= 0 && (column + 1 >= headerFields.size()
+                    || !this.attrNames.get(i).equalsIgnoreCase(headerFields.get(column + 1)))) {
                 return false;
             }
-            fieldIdx++;
         }
         return true;
     }
 
+    // Entities chosen from or iterated over since the table was created,
+    // whether or not they fulfilled the condition
+    public long getNumberOfScannedRows() {
+        return this.numberOfScannedRows.sum();
+    }
+
+    // How entities were chosen the last time, e.g., `SCAN of 1/4 partitions`.
+    // It is described only when asked for, so recording it costs nothing more.
+    public String describeLastAccess() {
+        String description = this.lastAccessMethod.toString();
+        if (isPartitioned()) {
+            description += " of " + this.lastNumberOfPartitionsAccessed + "/"
+                    + this.partitions.size() + " partitions";
+        }
+        return description;
+    }
+
+    private void recordAccess(AccessMethod method, int numberOfPartitionsAccessed) {
+        this.lastAccessMethod = method;
+        this.lastNumberOfPartitionsAccessed = numberOfPartitionsAccessed;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    // Changed whenever the table is, except by altering its attributes,
+    // so the table file only needs writing again when this changes
+    public long getDataVersion() {
+        return this.dataVersion;
+    }
+
+    private void markChanged() {
+        this.version++;
+        this.dataVersion++;
+    }
+
+    private void markSchemaChanged() {
+        this.version++;
+    }
+
     public long getNextId() {
         return this.nextId;
     }
 
+    public static int getMaxNumberOfPartitions() {
+        return maxNumberOfPartitions;
+    }
+
+    // Split entities into `numberOfPartitions` by the hash of an attribute (or id).
+    // Entities whose values are equal under `==` always go to the same partition,
+    // so a condition requiring a value of that attribute only looks in one partition,
+    // and other conditions scan the partitions in parallel.
+    // Only a table without entities can be partitioned.
+    public void partitionBy(String attrName, int numberOfPartitions) throws DBException {
+        getAttrIdFieldIndexMapper().getIndexOf(attrName);
+        if (numberOfPartitions < 1 || numberOfPartitions > maxNumberOfPartitions) {
+            throw new TableException.InvalidPartitionException(
+                    "number of partitions should be from 1 to " + maxNumberOfPartitions);
+        }
+        if (getNumberOfEntities() > 0) {
+            throw new TableException.InvalidPartitionException(
+                    "only a table without entities can be partitioned");
+        }
+        this.partitions = new ArrayList<Partition>();
+        for (int i = 0; i < numberOfPartitions; ++i) {
+            this.partitions.add(new Partition(getNumberOfAttrFields()));
+        }
+        this.partitionKey = attrName;
+        markChanged();
+    }
+
+    public boolean isPartitioned() {
+        return this.partitionKey != null;
+    }
+
+    public int getNumberOfPartitions() {
+        return this.partitions.size();
+    }
+
+    private boolean isPartitionKey(String attrName) {
+        return this.partitionKey != null && this.partitionKey.equalsIgnoreCase(attrName);
+    }
+
+    private int getPartitionIdx(String value) {
+        return Math.floorMod(Grammar.getEqualityKey(value).hashCode(), this.partitions.size());
+    }
+
+    // The partitions where entities fulfilling the condition may be
+    private List<Partition> getPartitionsFor(Condition cond) {
+        if (this.partitionKey != null) {
+            String requiredValue = cond.getRequiredValue(this.partitionKey);
+            if (requiredValue != null) {
+                return List.of(this.partitions.get(getPartitionIdx(requiredValue)));
+            }
+        }
+        return this.partitions;
+    }
+
+    // Do the work on the given partitions, at the same time if there are more than one.
+    // Results are in the order of the partitions.
+    private <T> List<T> forEachPartition(List<Partition> partitions, PartitionWork<T> work)
+            throws DBException {
+        List<T> results = new ArrayList<T>(Collections.<T>nCopies(partitions.size(), null));
+        if (partitions.size() == 1) {
+            results.set(0, work.apply(partitions.get(0)));
+            return results;
+        }
+        List<DBException> exceptions =
+                Collections.synchronizedList(new ArrayList<DBException>());
+        IntStream.range(0, partitions.size()).parallel().forEach((i) -> {
+            try {
+                results.set(i, work.apply(partitions.get(i)));
+            } catch (DBException e) {
+                exceptions.add(e);
+            }
+        });
+        if (!exceptions.isEmpty()) {
+            throw exceptions.get(0);
+        }
+        return results;
+    }
+
     public void addAttrFieldsByString(String attrNamesString, String delim) throws DBException {
         if (attrNamesString == null || delim == null) {
             throw new DBException.NullObjectException(
@@ -451,18 +1128,39 @@ public class Table implements Iterable<Table.Entity> {
             throw new TableException.InvalidAttributeNameException(attrName, "duplicate");
         }
         this.attrNames.add(attrName);
-        for (Entity entity : this.entities) {
-            entity.addAttribute(Grammar.Keyword.NULL.toString());
+        ColumnDictionary dictionary = new ColumnDictionary();
+        this.dictionaries.add(dictionary);
+        int nullCode = dictionary.encode(Grammar.Keyword.NULL.toString());
+        // Only the schema of the storage changes, existing entities read NULL
+        for (Partition partition : this.partitions) {
+            partition.rows.addColumn(nullCode);
+            partition.rebuildIfEmpty();
         }
+        if (this.fileColumns != null) {
+            this.fileColumns.add(-1);
+        }
+        markSchemaChanged();
     }
 
     public void dropAttrField(String attrName) throws DBException {
         int idx = getAttrIdx(attrName);
+        if (isPartitionKey(attrName)) {
+            throw new TableException.InvalidAttributeNameException(
+                    attrName, "cannot drop the attribute partitioned by");
+        }
         this.attrNameSet.remove(attrName.toLowerCase());
         this.attrNames.remove(idx);
-        for (Entity entity : this.entities) {
-            entity.dropAttribute(idx);
+        // The attribute is hidden at once, and its storage reclaimed by the compaction
+        // after a later deletion, so dropping costs nothing for each entity
+        for (Partition partition : this.partitions) {
+            partition.rows.dropColumn(idx);
+            partition.rebuildIfEmpty();
+        }
+        this.dictionaries.remove(idx);
+        if (this.fileColumns != null) {
+            this.fileColumns.remove(idx);
         }
+        markSchemaChanged();
     }
 
     public int getAttrIdx(String attrName) throws DBException {
@@ -484,6 +1182,11 @@ public class Table implements Iterable<Table.Entity> {
         return new ArrayList<String>(this.attrNames);
     }
 
+    // Values kept for an attribute, including those no longer stored until rebuilt
+    public int getDictionarySize(String attrName) throws DBException {
+        return this.dictionaries.get(getAttrIdx(attrName)).size();
+    }
+
     public int getNumberOfAttrFields() {
         return this.attrNames.size();
     }
@@ -493,9 +1196,34 @@ public class Table implements Iterable<Table.Entity> {
             throw new TableException.InvalidNumberOfAttributesException(
                     getNumberOfAttrFields(), attributes.size());
         }
-        Entity entity = new Entity(id);
-        entity.addAttributes(attributes);
-        this.entities.add(entity);
+        if (id < 0) {
+            throw new TableException.NegativeEntityIdException(id);
+        }
+        int[] codes = new int[attributes.size()];
+        int idx = 0;
+        for (String attr : attributes) {
+            if (!Grammar.isValidAttributeValue(attr)) {
+                throw new TableException.InvalidAttributeValueException(attr);
+            }
+            codes[idx] = this.dictionaries.get(idx).encode(attr);
+            idx++;
+        }
+        Partition partition = this.partitions.get(0);
+        if (this.partitionKey != null) {
+            String keyValue = String.valueOf(id);
+            if (!Grammar.isIdAttrName(this.partitionKey)) {
+                int keyIdx = getAttrIdx(this.partitionKey);
+                keyValue = this.dictionaries.get(keyIdx).getValue(codes[keyIdx]);
+            }
+            partition = this.partitions.get(getPartitionIdx(keyValue));
+        }
+        partition.add(id, codes);
+        for (int i = 0; i < codes.length; ++i) {
+            if (this.dictionaries.get(i).needsRebuild()) {
+                rebuildDictionary(i);
+            }
+        }
+        markChanged();
     }
 
     public void addEntity(Collection<? extends String> attributes) throws DBException {
@@ -506,45 +1234,84 @@ public class Table implements Iterable<Table.Entity> {
 
     // This method is helpful when loading entities from file
     public void addEntityFromString(String str) throws DBException {
+        List<String> values = new ArrayList<String>();
+        addEntity(parseEntityString(str, values), values);
+    }
+
+    // An entity of the table file, whose columns are those of the file layout
+    private void addEntityFromFileString(String str) throws DBException {
+        List<String> fileValues = new ArrayList<String>();
+        long entityId = parseEntityString(str, fileValues);
+        if (fileValues.size() != this.fileNumberOfColumns) {
+            throw new TableException.InvalidNumberOfAttributesException(
+                    this.fileNumberOfColumns, fileValues.size());
+        }
+        List<String> attrValues = new ArrayList<String>();
+        for (Integer column : this.fileColumns) {
+            attrValues.add(column < 0 ? Grammar.Keyword.NULL.toString()
+                    : fileValues.get(column));
+        }
+        addEntity(entityId, attrValues);
+    }
+
+    // Parse the id of an entity string, and add its values to attrValues
+    private static long parseEntityString(String str, List<String> attrValues)
+            throws DBException {
         if (str == null) {
             throw new DBException.NullObjectException("null string for adding entity");
         }
-        Pattern entityStrPattern = Pattern.compile("\\s*(\\d+)(\\s.*)?", Pattern.DOTALL);
         Matcher entityStrMatcher = entityStrPattern.matcher(str);
         if (!entityStrMatcher.matches()) {
             throw new TableException.InvalidEntityStringException(str);
         }
-        long entityId = Long.parseLong(entityStrMatcher.group(1));
-        ArrayList<String> attrValues = new ArrayList<String>();
         String attributesString = entityStrMatcher.group(2);
         if (attributesString != null) {
             attrValues.addAll(Grammar.getTokensFromString(attributesString));
         }
-        addEntity(entityId, attrValues);
+        return Long.parseLong(entityStrMatcher.group(1));
     }
 
+    // Entities of a partitioned table are iterated partition by partition
     public Iterator<Entity> iterator() {
-        return new Iterator<Entity>() {
-            int nextIdx = 0;
+        return new EntityIterator();
+    }
 
-            @Override
-            public boolean hasNext() {
-                return nextIdx < getNumberOfEntities();
-            }
+    // Deleted entities are not counted
+    public int getNumberOfEntities() {
+        int numberOfEntities = 0;
+        for (Partition partition : this.partitions) {
+            numberOfEntities += partition.getNumberOfEntities();
+        }
+        return numberOfEntities;
+    }
 
-            @Override
-            public Entity next() {
-                return entities.get(nextIdx++);
-            }
-        };
+    public void clear() throws DBException {
+        for (Partition partition : this.partitions) {
+            partition.clear();
+        }
+        for (int i = 0; i < this.dictionaries.size(); ++i) {
+            rebuildDictionary(i);
+        }
+        markChanged();
     }
 
-    public int getNumberOfEntities() {
-        return this.entities.size();
+    private ValueStore createValueStore() throws DBException {
+        return this.offHeapStorage ? new OffHeapValueStore() : new HeapValueStore();
     }
 
-    public void clear() {
-        this.entities.clear();
+    // Drop the values of a column no longer stored, including those of deleted entities
+    // once compacted away, and change the codes stored in every partition
+    private void rebuildDictionary(int idx) throws DBException {
+        BitSet usedCodes = new BitSet();
+        int numberOfRows = 0;
+        for (Partition partition : this.partitions) {
+            partition.rows.markUsedCodes(idx, usedCodes);
+            numberOfRows += partition.rows.size();
+        }
+        int[] newCodeOf = this.dictionaries.get(idx).rebuild(usedCodes, numberOfRows);
+        for (Partition partition : this.partitions) {
+            partition.rows.remapCodes(idx, newCodeOf);
+        }
     }
 
     public AttrIdFieldIndexMapper getAttrIdFieldIndexMapper() {
@@ -567,48 +1334,243 @@ public class Table implements Iterable<Table.Entity> {
 
     // Returns all the entities that fulfill given condition
     public List<Entity> chooseEntities(Condition cond) throws DBException {
-        AttrIdFieldIndexMapper idxMapper = getAttrIdFieldIndexMapper();
-        List<Entity> chosenEntities = new ArrayList<Entity>();
-        for (Entity e : this.entities) {
-            boolean condHold = cond.evaluate((attrName) -> {
-                int attrIdx = idxMapper.getIndexOf(attrName);
-                return e.getAttributeOrId(attrIdx);
-            });
-            if (condHold) {
-                chosenEntities.add(e);
-            }
+        return scanEntities(cond, false, 0, -1);
+    }
+
+    // Returns the entities that fulfill given condition,
+    // skipping the first `offset` ones and returning at most `limit` ones.
+    // A negative `limit` means no limit.
+    // Entities of a partitioned table are chosen in id order.
+    public List<Entity> chooseEntities(Condition cond, long offset, long limit)
+            throws DBException {
+        return scanEntities(cond, false, offset, limit);
+    }
+
+    // Same as above, but the entities are ordered by the given attribute.
+    // Entities with equal attribute values keep their storage order,
+    // or their id order if the table is partitioned.
+    public List<Entity> chooseOrderedEntities(Condition cond, String orderAttrName,
+            boolean descending, long offset, long limit) throws DBException {
+        int orderIdx = getAttrIdFieldIndexMapper().getIndexOf(orderAttrName);
+        if (isScannedInOrderOf(orderIdx)) {
+            List<Entity> entities = scanEntities(cond, descending, offset, limit);
+            this.lastAccessMethod = AccessMethod.ID_ORDER_SCAN;
+            return entities;
         }
-        return chosenEntities;
+        if (needsSort(orderAttrName, offset, limit)) {
+            return sortEntities(chooseEntitiesToSort(cond), orderIdx, descending, offset);
+        }
+        long numberToKeep = offset + limit;
+        return chooseTopEntities(cond, orderIdx, descending, offset, (int) numberToKeep);
     }
 
-    // Delete all the entities that fulfill given condition
-    public boolean deleteEntities(Condition cond) throws DBException {
-        List<Entity> leftEntities = chooseEntities(Condition.negate(cond));
-        if (leftEntities.size() == getNumberOfEntities()) {
+    private boolean isScannedInOrderOf(int orderIdx) {
+        return orderIdx == Entity.idIdx && (isPartitioned() || this.partitions.get(0).sortedById);
+    }
+
+    // Whether entities chosen in the order of an attribute are all sorted,
+    // rather than scanned in id order or kept as the top few
+    public boolean needsSort(String orderAttrName, long offset, long limit) throws DBException {
+        if (isScannedInOrderOf(getAttrIdFieldIndexMapper().getIndexOf(orderAttrName))) {
             return false;
         }
-        this.entities = leftEntities;
-        return true;
+        long numberToKeep = limit < 0 ? -1 : offset + limit;
+        return numberToKeep < 0 || numberToKeep > getNumberOfEntities();
+    }
+
+    // Entities to be sorted by the caller, which is recorded as a sort
+    public List<Entity> chooseEntitiesToSort(Condition cond) throws DBException {
+        List<Entity> entities = chooseEntities(cond);
+        this.lastAccessMethod = AccessMethod.SORT;
+        return entities;
+    }
+
+    // Returns at most `limit` entities that fulfill given condition,
+    // with ids from `fromId` until before `toId`, in id order.
+    // Fetching the next ones from after the last id returned pages through the table,
+    // each page scanning only about its own entities.
+    public List<Entity> chooseEntitiesInIdRange(Condition cond, long fromId, long toId,
+            boolean descending, long limit) throws DBException {
+        List<Partition> partitions = getPartitionsFor(cond);
+        recordAccess(AccessMethod.ID_ORDER_SCAN, partitions.size());
+        if (!isPartitioned()) {
+            return partitions.get(0).scanIdRange(cond, fromId, toId, descending, limit);
+        }
+        List<Entity> entities = new ArrayList<Entity>();
+        for (List<Entity> partitionEntities : forEachPartition(partitions,
+                (partition) -> partition.scanIdRange(cond, fromId, toId, descending, limit))) {
+            entities.addAll(partitionEntities);
+        }
+        entities.sort(getIdComparator(descending));
+        if (limit >= 0 && limit < entities.size()) {
+            return new ArrayList<Entity>(entities.subList(0, (int) limit));
+        }
+        return entities;
+    }
+
+    // Partitions are scanned at the same time, then their entities are merged by id
+    private List<Entity> scanEntities(Condition cond, boolean reversed, long offset, long limit)
+            throws DBException {
+        List<Partition> partitions = getPartitionsFor(cond);
+        recordAccess(AccessMethod.SCAN, partitions.size());
+        if (!isPartitioned()) {
+            return partitions.get(0).scan(cond, reversed, offset, limit);
+        }
+        long numberToKeep = limit < 0 ? -1 : offset + limit;
+        List<Entity> entities = new ArrayList<Entity>();
+        for (List<Entity> partitionEntities : forEachPartition(partitions,
+                (partition) -> partition.scanById(cond, reversed, numberToKeep))) {
+            entities.addAll(partitionEntities);
+        }
+        entities.sort(getIdComparator(reversed));
+        long endIdx = numberToKeep < 0 ? entities.size() : Math.min(numberToKeep, entities.size());
+        if (offset >= endIdx) {
+            return new ArrayList<Entity>();
+        }
+        return new ArrayList<Entity>(entities.subList((int) offset, (int) endIdx));
+    }
+
+    private static java.util.Comparator<Entity> getIdComparator(boolean descending) {
+        java.util.Comparator<Entity> order = java.util.Comparator.comparingLong(Entity::getId);
+        return descending ? order.reversed() : order;
+    }
+
+    // An entity together with the key it is sorted by.
+    // Entities with equal keys are ordered by their positions.
+    private static class SortedEntity {
+        private final Entity entity;
+        private final Grammar.SortKey key;
+        private final long position;
+
+        private SortedEntity(Entity entity, int orderIdx, long position) throws DBException {
+            this.entity = entity;
+            this.key = Grammar.SortKey.of(entity.getAttributeOrId(orderIdx));
+            this.position = position;
+        }
+
+        private static java.util.Comparator<SortedEntity> getComparator(boolean descending) {
+            return (e1, e2) -> {
+                int cmp = e1.key.compareTo(e2.key);
+                if (cmp == 0) {
+                    return Long.compare(e1.position, e2.position);
+                }
+                return descending ? -cmp : cmp;
+            };
+        }
+    }
+
+    private List<Entity> sortEntities(List<Entity> entities, int orderIdx, boolean descending,
+            long offset) throws DBException {
+        List<SortedEntity> sortedEntities = new ArrayList<SortedEntity>();
+        for (Entity e : entities) {
+            sortedEntities.add(new SortedEntity(e, orderIdx, sortedEntities.size()));
+        }
+        sortedEntities.sort(SortedEntity.getComparator(descending));
+        return getEntitiesFrom(sortedEntities, offset);
+    }
+
+    // Each partition keeps its own first `numberToKeep` entities,
+    // then the first of them all are taken.
+    private List<Entity> chooseTopEntities(Condition cond, int orderIdx, boolean descending,
+            long offset, int numberToKeep) throws DBException {
+        if (numberToKeep == 0) {
+            recordAccess(AccessMethod.NONE, 0);
+            return new ArrayList<Entity>();
+        }
+        java.util.Comparator<SortedEntity> order = SortedEntity.getComparator(descending);
+        List<SortedEntity> topEntities = new ArrayList<SortedEntity>();
+        List<Partition> partitions = getPartitionsFor(cond);
+        recordAccess(AccessMethod.TOP_N, partitions.size());
+        for (List<SortedEntity> partitionTop : forEachPartition(partitions,
+                (partition) -> partition.chooseTop(cond, orderIdx, order, numberToKeep))) {
+            topEntities.addAll(partitionTop);
+        }
+        topEntities.sort(order);
+        if (topEntities.size() > numberToKeep) {
+            topEntities = topEntities.subList(0, numberToKeep);
+        }
+        return getEntitiesFrom(topEntities, offset);
+    }
+
+    private static List<Entity> getEntitiesFrom(List<SortedEntity> sortedEntities, long offset) {
+        List<Entity> entities = new ArrayList<Entity>();
+        for (long i = offset; i < sortedEntities.size(); ++i) {
+            entities.add(sortedEntities.get((int) i).entity);
+        }
+        return entities;
+    }
+
+    // Delete all the entities that fulfill given condition.
+    // Deleted entities are only marked by tombstones,
+    // and the storage of a partition is compacted when there are too many of them.
+    // Values only deleted entities had are dropped from the dictionaries after compaction.
+    public boolean deleteEntities(Condition cond) throws DBException {
+        boolean deleted = false;
+        List<Partition> partitions = getPartitionsFor(cond);
+        recordAccess(AccessMethod.SCAN, partitions.size());
+        long storageSize = getStorageSize();
+        for (Boolean partitionDeleted : forEachPartition(partitions,
+                (partition) -> partition.delete(cond))) {
+            deleted = deleted || partitionDeleted.booleanValue();
+        }
+        if (getStorageSize() < storageSize) {
+            for (int i = 0; i < this.dictionaries.size(); ++i) {
+                rebuildDictionary(i);
+            }
+        }
+        if (deleted) {
+            markChanged();
+        }
+        return deleted;
+    }
+
+    // Dropped attributes still stored in any partition, until it is compacted
+    public int getNumberOfDroppedColumns() {
+        int numberOfDroppedColumns = 0;
+        for (Partition partition : this.partitions) {
+            numberOfDroppedColumns = Math.max(numberOfDroppedColumns,
+                    partition.rows.getNumberOfDroppedColumns());
+        }
+        return numberOfDroppedColumns;
+    }
+
+    // Rows stored, including deleted entities not yet compacted away
+    private long getStorageSize() {
+        long storageSize = 0;
+        for (Partition partition : this.partitions) {
+            storageSize += partition.rows.size();
+        }
+        return storageSize;
     }
 
     @Override
     public String toString() {
-        return String.valueOf(metaFormatBracketLeft) + this.nextId + ":"
-                + String.join(metaFormatDelim, this.attrNames)
-                + metaFormatBracketRight;
+        String meta = String.valueOf(metaFormatBracketLeft) + this.nextId + ":"
+                + String.join(metaFormatDelim, this.attrNames);
+        if (this.partitionKey != null) {
+            meta += ":" + this.partitionKey + partitionFormatDelim + this.partitions.size();
+        }
+        if (this.fileColumns != null && !isFileLayoutPlain()) {
+            List<String> columns = new ArrayList<String>();
+            for (Integer column : this.fileColumns) {
+                columns.add(column.toString());
+            }
+            meta += fileLayoutFormatPrefix + String.join(metaFormatDelim, columns);
+        }
+        return meta + metaFormatBracketRight;
     }
 
     public String exportToString(String delim) {
         if (delim == null) {
             delim = " ";
         }
-        String str = Grammar.getIdAttrName();
+        StringBuilder str = new StringBuilder(Grammar.getIdAttrName());
         for (String attrName : this.attrNames) {
-            str += delim + attrName;
+            str.append(delim).append(attrName);
         }
-        for (Entity entity : this.entities) {
-            str += "\n" + entity.exportToString(delim);
+        for (Entity entity : this) {
+            entity.appendTo(str.append('\n'), delim);
         }
-        return str;
+        return str.toString();
     }
 }
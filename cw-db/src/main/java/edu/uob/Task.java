@@ -1,5 +1,6 @@
 package edu.uob;
 
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -9,7 +10,32 @@ import java.util.Map;
 // It is the parse reuslt of an incomming user command.
 // Task is generated by Grammar, and consumed by DBKeeper.
 public abstract class Task {
+    private String normalisedCommand; // null if not parsed from a command
+
     public Task() {
+        this.normalisedCommand = null;
+    }
+
+    // The command this task is parsed from, as tokens with keywords in lower case,
+    // so commands differing only in spacing or keyword case have the same text.
+    // Copies bound to parameters have none.
+    public String getNormalisedCommand() {
+        return this.normalisedCommand;
+    }
+
+    public void setNormalisedCommand(String normalisedCommand) {
+        this.normalisedCommand = normalisedCommand;
+    }
+
+    // Returns a copy of this task with placeholders replaced by parameters.
+    // Tasks without placeholders are returned as they are.
+    public Task bindParameters(Parameters parameters) throws DBException {
+        return this;
+    }
+
+    // Whether the task changes databases, which read-only servers refuse
+    public boolean isMutating() {
+        return false;
     }
 
     public static class UseTask extends Task {
@@ -33,6 +59,11 @@ public abstract class Task {
             this.databaseName = databaseName;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getDatabaseName() {
             return this.databaseName;
         }
@@ -41,11 +72,20 @@ public abstract class Task {
     public static class CreateTableTask extends Task {
         private String tableName;
         private List<String> attrNames;
+        private String partitionKey; // null if not partitioned
+        private int numberOfPartitions;
 
         public CreateTableTask(String tableName) {
             super();
             this.tableName = tableName;
             this.attrNames = new ArrayList<String>();
+            this.partitionKey = null;
+            this.numberOfPartitions = 1;
+        }
+
+        @Override
+        public boolean isMutating() {
+            return true;
         }
 
         public String getTableName() {
@@ -59,6 +99,19 @@ public abstract class Task {
         public void addAttrNames(Collection<? extends String> attrNames) {
             this.attrNames.addAll(attrNames);
         }
+
+        public String getPartitionKey() {
+            return this.partitionKey;
+        }
+
+        public int getNumberOfPartitions() {
+            return this.numberOfPartitions;
+        }
+
+        public void setPartition(String partitionKey, int numberOfPartitions) {
+            this.partitionKey = partitionKey;
+            this.numberOfPartitions = numberOfPartitions;
+        }
     }
 
     public static class DropDatabaseTask extends Task {
@@ -69,6 +122,11 @@ public abstract class Task {
             this.databaseName = databaseName;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getDatabaseName() {
             return this.databaseName;
         }
@@ -82,6 +140,11 @@ public abstract class Task {
             this.tableName = tableName;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getTableName() {
             return this.tableName;
         }
@@ -99,6 +162,11 @@ public abstract class Task {
             this.adding = adding;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getTableName() {
             return this.tableName;
         }
@@ -122,6 +190,11 @@ public abstract class Task {
             this.values = values;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getTableName() {
             return this.tableName;
         }
@@ -129,24 +202,66 @@ public abstract class Task {
         public List<String> getValues() {
             return this.values;
         }
+
+        @Override
+        public Task bindParameters(Parameters parameters) throws DBException {
+            List<String> boundValues = new ArrayList<String>();
+            for (String value : this.values) {
+                boundValues.add(parameters.bind(value));
+            }
+            return new InsertTask(this.tableName, boundValues);
+        }
     }
 
     public static class SelectTask extends Task {
         private List<String> selection; // null means to select all
         private String tableName;
         private Condition condition;
+        private List<Aggregate> aggregates; // null means not an aggregate query
+        private List<String> groupAttrNames;
+        private String orderAttrName; // null means no ordering
+        private boolean descending;
+        private long limit; // negative means no limit
+        private long offset;
 
         public SelectTask(String tableName, List<String> selection, Condition condition) {
             super();
             this.selection = selection;
             this.tableName = tableName;
             this.condition = condition;
+            this.aggregates = null;
+            this.groupAttrNames = null;
+            this.orderAttrName = null;
+            this.descending = false;
+            this.limit = -1;
+            this.offset = 0;
         }
 
         public void setCondition(Condition condition) {
             this.condition = condition;
         }
 
+        public void setSelection(List<String> selection) {
+            this.selection = selection;
+        }
+
+        // Aggregate queries select aggregates instead of attributes
+        public void setAggregation(List<Aggregate> aggregates, List<String> groupAttrNames) {
+            this.selection = null;
+            this.aggregates = aggregates;
+            this.groupAttrNames = groupAttrNames;
+        }
+
+        public void setOrdering(String orderAttrName, boolean descending) {
+            this.orderAttrName = orderAttrName;
+            this.descending = descending;
+        }
+
+        public void setLimit(long limit, long offset) {
+            this.limit = limit;
+            this.offset = offset;
+        }
+
         public List<String> getSelection() {
             return this.selection;
         }
@@ -158,6 +273,46 @@ public abstract class Task {
         public Condition getCondition() {
             return this.condition;
         }
+
+        public boolean isAggregating() {
+            return this.aggregates != null;
+        }
+
+        public List<Aggregate> getAggregates() {
+            return this.aggregates;
+        }
+
+        public List<String> getGroupAttrNames() {
+            return this.groupAttrNames;
+        }
+
+        public String getOrderAttrName() {
+            return this.orderAttrName;
+        }
+
+        public boolean isDescending() {
+            return this.descending;
+        }
+
+        public long getLimit() {
+            return this.limit;
+        }
+
+        public long getOffset() {
+            return this.offset;
+        }
+
+        @Override
+        public Task bindParameters(Parameters parameters) throws DBException {
+            SelectTask task = new SelectTask(this.tableName, this.selection,
+                    this.condition.bindParameters(parameters));
+            if (isAggregating()) {
+                task.setAggregation(this.aggregates, this.groupAttrNames);
+            }
+            task.setOrdering(this.orderAttrName, this.descending);
+            task.setLimit(this.limit, this.offset);
+            return task;
+        }
     }
 
     public static class UpdateTask extends Task {
@@ -173,6 +328,11 @@ public abstract class Task {
             this.condition = condition;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public List<Map.Entry<String, String>> getModification() {
             return this.modification;
         }
@@ -184,6 +344,18 @@ public abstract class Task {
         public Condition getCondition() {
             return this.condition;
         }
+
+        @Override
+        public Task bindParameters(Parameters parameters) throws DBException {
+            List<Map.Entry<String, String>> boundModification =
+                    new ArrayList<Map.Entry<String, String>>();
+            for (Map.Entry<String, String> entry : this.modification) {
+                boundModification.add(new AbstractMap.SimpleEntry<String, String>(
+                        entry.getKey(), parameters.bind(entry.getValue())));
+            }
+            return new UpdateTask(this.tableName, boundModification,
+                    this.condition.bindParameters(parameters));
+        }
     }
 
     public static class DeleteTask extends Task {
@@ -196,6 +368,11 @@ public abstract class Task {
             this.condition = condition;
         }
 
+        @Override
+        public boolean isMutating() {
+            return true;
+        }
+
         public String getTableName() {
             return this.tableName;
         }
@@ -203,6 +380,11 @@ public abstract class Task {
         public Condition getCondition() {
             return this.condition;
         }
+
+        @Override
+        public Task bindParameters(Parameters parameters) throws DBException {
+            return new DeleteTask(this.tableName, this.condition.bindParameters(parameters));
+        }
     }
 
     public static class JoinTask extends Task {
@@ -236,4 +418,155 @@ public abstract class Task {
             return this.attrNameTwo;
         }
     }
+
+    // A command parsed in advance, with placeholders to be filled on execution
+    public static class PrepareTask extends Task {
+        private String name;
+        private Task template;
+        private int numberOfParameters;
+
+        public PrepareTask(String name, Task template, int numberOfParameters) {
+            super();
+            this.name = name;
+            this.template = template;
+            this.numberOfParameters = numberOfParameters;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public Task getTemplate() {
+            return this.template;
+        }
+
+        public int getNumberOfParameters() {
+            return this.numberOfParameters;
+        }
+    }
+
+    public static class ExecuteTask extends Task {
+        private String name;
+        private List<String> values;
+
+        public ExecuteTask(String name, List<String> values) {
+            super();
+            this.name = name;
+            this.values = values;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public List<String> getValues() {
+            return this.values;
+        }
+    }
+
+    // Declare a cursor to fetch the rows of a SELECT in batches
+    public static class DeclareTask extends Task {
+        private String cursorName;
+        private SelectTask selectTask;
+
+        public DeclareTask(String cursorName, SelectTask selectTask) {
+            super();
+            this.cursorName = cursorName;
+            this.selectTask = selectTask;
+        }
+
+        public String getCursorName() {
+            return this.cursorName;
+        }
+
+        public SelectTask getSelectTask() {
+            return this.selectTask;
+        }
+
+        @Override
+        public Task bindParameters(Parameters parameters) throws DBException {
+            return new DeclareTask(this.cursorName,
+                    (SelectTask) this.selectTask.bindParameters(parameters));
+        }
+    }
+
+    public static class FetchTask extends Task {
+        private String cursorName;
+        private long count;
+
+        public FetchTask(String cursorName, long count) {
+            super();
+            this.cursorName = cursorName;
+            this.count = count;
+        }
+
+        public String getCursorName() {
+            return this.cursorName;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+    }
+
+    public static class CloseTask extends Task {
+        private String cursorName;
+
+        public CloseTask(String cursorName) {
+            super();
+            this.cursorName = cursorName;
+        }
+
+        public String getCursorName() {
+            return this.cursorName;
+        }
+    }
+
+    // Subscribe to changes of tables, accepted on the change stream port only
+    public static class SubscribeTask extends Task {
+        private String databaseName;
+        private List<String> tableNames;
+
+        public SubscribeTask(String databaseName, List<String> tableNames) {
+            super();
+            this.databaseName = databaseName;
+            this.tableNames = tableNames;
+        }
+
+        public String getDatabaseName() {
+            return this.databaseName;
+        }
+
+        public List<String> getTableNames() {
+            return this.tableNames;
+        }
+    }
+
+    // Take a snapshot of the stored databases under given name
+    public static class SnapshotTask extends Task {
+        private String snapshotName;
+
+        public SnapshotTask(String snapshotName) {
+            super();
+            this.snapshotName = snapshotName;
+        }
+
+        public String getSnapshotName() {
+            return this.snapshotName;
+        }
+    }
+
+    // Show the state of the server, e.g., `SHOW REPLICATION`
+    public static class ShowTask extends Task {
+        private Grammar.Keyword subject;
+
+        public ShowTask(Grammar.Keyword subject) {
+            super();
+            this.subject = subject;
+        }
+
+        public Grammar.Keyword getSubject() {
+            return this.subject;
+        }
+    }
 }
@@ -0,0 +1,12 @@
+package edu.uob;
+
+// This interface stores the values of a column dictionary by their codes.
+// Codes are given from 0 in the order the values are added.
+public interface ValueStore {
+    public int size();
+
+    public String get(int code);
+
+    // Returns the code of the value
+    public int add(String value) throws DBException;
+}
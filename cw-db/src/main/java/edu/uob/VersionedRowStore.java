@@ -0,0 +1,254 @@
+package edu.uob;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// Rows whose columns are added and dropped by changing only the schema, not every row.
+// Columns are mapped to those of a base store built for an earlier schema:
+// a dropped column is hidden but left in the base store,
+// and an added column is kept apart, taking no storage until a value is set in it.
+// The base store is rebuilt for the current schema when the rows are compacted,
+// which reclaims the dropped columns.
+public class VersionedRowStore implements RowStore {
+    @FunctionalInterface
+    public static interface Factory {
+        public RowStore create(int numberOfColumns) throws DBException;
+    }
+
+    // A column added since the base store was built.
+    // Rows it has no code for have the code it was added with.
+    private static class AddedColumn {
+        private int defaultCode;
+        private int[] codes; // null until a code other than the default is set
+
+        private AddedColumn(int defaultCode) {
+            this.defaultCode = defaultCode;
+            this.codes = null;
+        }
+
+        private int get(int row) {
+            return this.codes == null || row >= this.codes.length ? this.defaultCode
+                    : this.codes[row];
+        }
+
+        private void set(int row, int code) {
+            if (this.codes == null && code == this.defaultCode) {
+                return;
+            }
+            int length = this.codes == null ? 0 : this.codes.length;
+            if (row >= length) {
+                this.codes = this.codes == null ? new int[Math.max(16, row + 1)]
+                        : Arrays.copyOf(this.codes, Math.max(length * 2, row + 1));
+                Arrays.fill(this.codes, length, this.codes.length, this.defaultCode);
+            }
+            this.codes[row] = code;
+        }
+    }
+
+    private final Factory factory;
+    private RowStore base;
+    private int[] baseColumns; // For each column, its column in the base store, or -1 if added
+    private AddedColumn[] addedColumns; // For each column, null unless added
+    private int numberOfDroppedColumns; // Hidden in the base store
+
+    public VersionedRowStore(int numberOfColumns, Factory factory) throws DBException {
+        this.factory = factory;
+        this.base = factory.create(numberOfColumns);
+        this.baseColumns = new int[numberOfColumns];
+        for (int column = 0; column < numberOfColumns; ++column) {
+            this.baseColumns[column] = column;
+        }
+        this.addedColumns = new AddedColumn[numberOfColumns];
+        this.numberOfDroppedColumns = 0;
+    }
+
+    // Whether the columns are not those of the base store, which rebuilding would reclaim
+    public boolean isSchemaChanged() {
+        return this.numberOfDroppedColumns > 0
+                || this.baseColumns.length != this.base.getNumberOfColumns();
+    }
+
+    // Columns dropped since the base store was built, which still take storage in it
+    public int getNumberOfDroppedColumns() {
+        return this.numberOfDroppedColumns;
+    }
+
+    @Override
+    public int size() {
+        return this.base.size();
+    }
+
+    @Override
+    public int getNumberOfColumns() {
+        return this.baseColumns.length;
+    }
+
+    @Override
+    public long getId(int row) {
+        return this.base.getId(row);
+    }
+
+    @Override
+    public int getCode(int row, int column) {
+        int baseColumn = this.baseColumns[column];
+        return baseColumn >= 0 ? this.base.getCode(row, baseColumn)
+                : this.addedColumns[column].get(row);
+    }
+
+    @Override
+    public void setCode(int row, int column, int code) {
+        int baseColumn = this.baseColumns[column];
+        if (baseColumn >= 0) {
+            this.base.setCode(row, baseColumn, code);
+        } else {
+            this.addedColumns[column].set(row, code);
+        }
+    }
+
+    @Override
+    public void add(long id, int[] codes) throws DBException {
+        if (!isSchemaChanged()) {
+            this.base.add(id, codes);
+            return;
+        }
+        if (codes.length != this.baseColumns.length) {
+            throw new Table.TableException.InvalidNumberOfAttributesException(
+                    this.baseColumns.length, codes.length);
+        }
+        int[] baseCodes = new int[this.base.getNumberOfColumns()]; // Dropped columns left 0
+        for (int column = 0; column < codes.length; ++column) {
+            if (this.baseColumns[column] >= 0) {
+                baseCodes[this.baseColumns[column]] = codes[column];
+            }
+        }
+        int row = this.base.size();
+        this.base.add(id, baseCodes);
+        for (int column = 0; column < codes.length; ++column) {
+            if (this.baseColumns[column] < 0) {
+                this.addedColumns[column].set(row, codes[column]);
+            }
+        }
+    }
+
+    // Only the schema is changed, whatever the number of rows
+    @Override
+    public void addColumn(int code) {
+        int numberOfColumns = this.baseColumns.length;
+        this.baseColumns = Arrays.copyOf(this.baseColumns, numberOfColumns + 1);
+        this.baseColumns[numberOfColumns] = -1;
+        this.addedColumns = Arrays.copyOf(this.addedColumns, numberOfColumns + 1);
+        this.addedColumns[numberOfColumns] = new AddedColumn(code);
+    }
+
+    // Only the schema is changed, the column is reclaimed when the rows are compacted
+    @Override
+    public void dropColumn(int column) throws DBException {
+        if (column < 0 || column >= this.baseColumns.length) {
+            throw new Table.TableException.InvalidAttributeIndexException(column);
+        }
+        if (this.baseColumns[column] >= 0) {
+            this.numberOfDroppedColumns++;
+        }
+        int numberOfColumns = this.baseColumns.length - 1;
+        int[] newBaseColumns = new int[numberOfColumns];
+        AddedColumn[] newAddedColumns = new AddedColumn[numberOfColumns];
+        for (int from = 0, to = 0; from <= numberOfColumns; ++from) {
+            if (from != column) {
+                newBaseColumns[to] = this.baseColumns[from];
+                newAddedColumns[to] = this.addedColumns[from];
+                to++;
+            }
+        }
+        this.baseColumns = newBaseColumns;
+        this.addedColumns = newAddedColumns;
+    }
+
+    @Override
+    public void removeRows(BitSet removedRows) {
+        int size = this.base.size();
+        for (AddedColumn addedColumn : this.addedColumns) {
+            if (addedColumn == null || addedColumn.codes == null) {
+                continue;
+            }
+            int newSize = 0;
+            for (int row = removedRows.nextClearBit(0); row < size;
+                    row = removedRows.nextClearBit(row + 1)) {
+                if (newSize < addedColumn.codes.length) {
+                    addedColumn.codes[newSize] = addedColumn.get(row);
+                }
+                newSize++;
+            }
+            Arrays.fill(addedColumn.codes, Math.min(newSize, addedColumn.codes.length),
+                    addedColumn.codes.length, addedColumn.defaultCode);
+        }
+        this.base.removeRows(removedRows);
+    }
+
+    // Mark in `usedCodes` the codes of the column in every row
+    public void markUsedCodes(int column, BitSet usedCodes) {
+        int baseColumn = this.baseColumns[column];
+        if (baseColumn >= 0) {
+            for (int row = 0; row < this.base.size(); ++row) {
+                usedCodes.set(this.base.getCode(row, baseColumn));
+            }
+            return;
+        }
+        AddedColumn addedColumn = this.addedColumns[column];
+        usedCodes.set(addedColumn.defaultCode);
+        if (addedColumn.codes != null) {
+            for (int row = 0; row < Math.min(this.base.size(), addedColumn.codes.length); ++row) {
+                usedCodes.set(addedColumn.codes[row]);
+            }
+        }
+    }
+
+    // Replace every code of the column by its new code in `newCodeOf`
+    public void remapCodes(int column, int[] newCodeOf) {
+        int baseColumn = this.baseColumns[column];
+        if (baseColumn >= 0) {
+            for (int row = 0; row < this.base.size(); ++row) {
+                this.base.setCode(row, baseColumn, newCodeOf[this.base.getCode(row, baseColumn)]);
+            }
+            return;
+        }
+        AddedColumn addedColumn = this.addedColumns[column];
+        addedColumn.defaultCode = newCodeOf[addedColumn.defaultCode];
+        if (addedColumn.codes != null) {
+            for (int row = 0; row < addedColumn.codes.length; ++row) {
+                addedColumn.codes[row] = newCodeOf[addedColumn.codes[row]];
+            }
+        }
+    }
+
+    // Build the base store again with the current columns, if they have changed
+    public void rebuild() throws DBException {
+        if (!isSchemaChanged()) {
+            return;
+        }
+        int numberOfColumns = this.baseColumns.length;
+        RowStore newBase = this.factory.create(numberOfColumns);
+        int[] codes = new int[numberOfColumns];
+        for (int row = 0; row < this.base.size(); ++row) {
+            for (int column = 0; column < numberOfColumns; ++column) {
+                codes[column] = getCode(row, column);
+            }
+            newBase.add(this.base.getId(row), codes);
+        }
+        this.base = newBase;
+        for (int column = 0; column < numberOfColumns; ++column) {
+            this.baseColumns[column] = column;
+        }
+        this.addedColumns = new AddedColumn[numberOfColumns];
+        this.numberOfDroppedColumns = 0;
+    }
+
+    @Override
+    public void clear() {
+        this.base.clear();
+        for (AddedColumn addedColumn : this.addedColumns) {
+            if (addedColumn != null) {
+                addedColumn.codes = null;
+            }
+        }
+    }
+}
@@ -1,10 +1,18 @@
 package edu.uob;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -59,6 +67,11 @@ public class CommandTests {
         assertTrue(rowIdx.size() >= 1 && rowIdx.get(0).intValue() == 0);
     }
 
+    // Data rows are counted from 1, after the header row
+    private void assertOkRowAt(String response, int idx, String... row) {
+        assertTrue(findFromOkResponse(response, row).contains(idx));
+    }
+
     private List<Integer> findFromOkResponse(String response, String[] row) {
         assertOk(response);
         List<Integer> rowIdx = new ArrayList<Integer>();
@@ -454,6 +467,1027 @@ public class CommandTests {
         assertOkCountDataRows(response, 0);
     }
 
+    @Test
+    public void testPrepareCommand() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (a, b);"));
+        assertOk(sendCommandToServer("prepare ins as insert into t values (?, ?);"));
+        assertOk(sendCommandToServer("execute ins (1, 'one');"));
+        assertOk(sendCommandToServer("EXECUTE Ins (2,'two');"));
+        assertOk(sendCommandToServer("execute ins (3, NULL);"));
+        assertError(sendCommandToServer("execute ins (4);"));
+        assertError(sendCommandToServer("execute ins (4, 'four', 4);"));
+        assertError(sendCommandToServer("execute ins (4, four);"));
+        assertError(sendCommandToServer("execute ins (?, 'four');"));
+        assertError(sendCommandToServer("execute ins;"));
+        assertError(sendCommandToServer("execute nosuch (1, 2);"));
+        assertError(sendCommandToServer("insert into t values (?, ?);"));
+        assertError(sendCommandToServer("prepare p as prepare q as select * from t;"));
+        assertError(sendCommandToServer("prepare p as execute ins (1, 2);"));
+        assertError(sendCommandToServer("prepare p as select ? from t;"));
+        assertError(sendCommandToServer("prepare p select * from t;"));
+        assertError(sendCommandToServer("prepare where as select * from t;"));
+        // `as` is only a keyword where the grammar expects it
+        assertOk(sendCommandToServer("prepare as as select * from t;"));
+        assertOk(sendCommandToServer("prepare sel as select * from t where a>=? and b!=?;"));
+        response = sendCommandToServer("execute sel (2, 'two');");
+        assertOkCountDataRows(response, 1);
+        assertOkHasRow(response, "2", "3", "null");
+        assertOk(sendCommandToServer("prepare upd as update t set b=? where (id==?);"));
+        assertOk(sendCommandToServer("execute upd ('zero', 0);"));
+        assertOk(sendCommandToServer("prepare all as select * from t;"));
+        response = sendCommandToServer("execute all;");
+        assertOkCountDataRows(response, 3);
+        assertOkHasRow(response, "0", "1", "'zero'");
+        assertOk(sendCommandToServer("prepare del as delete from t where b like ?;"));
+        assertOk(sendCommandToServer("execute del ('o');"));
+        response = sendCommandToServer("execute all;");
+        assertOkCountDataRows(response, 1);
+        assertOkHasRow(response, "2", "3", "null");
+        assertOk(sendCommandToServer("prepare all as select b from t;"));
+        assertOkHeaderRow(sendCommandToServer("execute all;"), "b");
+        assertOkHeaderRow(sendCommandToServer("execute all;"), "b");
+    }
+
+    @Test
+    public void testOrderAndLimit() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (name, mark);"));
+        assertOk(sendCommandToServer("insert into t values ('Bob', 35);"));
+        assertOk(sendCommandToServer("insert into t values ('Amy', 4.5);"));
+        assertOk(sendCommandToServer("insert into t values ('Cat', NULL);"));
+        assertOk(sendCommandToServer("insert into t values ('Dan', 35.0);"));
+        assertOk(sendCommandToServer("insert into t values ('Eve', 120);"));
+        response = sendCommandToServer("select name from t order by mark;");
+        assertOkCountDataRows(response, 5);
+        assertOkRowAt(response, 1, "'Cat'");
+        assertOkRowAt(response, 2, "'Amy'");
+        assertOkRowAt(response, 3, "'Bob'");
+        assertOkRowAt(response, 4, "'Dan'");
+        assertOkRowAt(response, 5, "'Eve'");
+        response = sendCommandToServer("select name from t order by mark desc;");
+        assertOkRowAt(response, 1, "'Eve'");
+        assertOkRowAt(response, 2, "'Bob'");
+        assertOkRowAt(response, 3, "'Dan'");
+        assertOkRowAt(response, 5, "'Cat'");
+        response = sendCommandToServer("select name from t order by mark desc limit 2;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "'Eve'");
+        assertOkRowAt(response, 2, "'Bob'");
+        response = sendCommandToServer(
+                "select name from t where mark > 4 order by mark asc limit 2 offset 1;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "'Bob'");
+        assertOkRowAt(response, 2, "'Dan'");
+        response = sendCommandToServer("select * from t order by name desc limit 1 offset 4;");
+        assertOkCountDataRows(response, 1);
+        assertOkRowAt(response, 1, "1", "'Amy'", "4.5");
+        response = sendCommandToServer("select * from t order by id desc limit 2;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "4", "'Eve'", "120");
+        assertOkRowAt(response, 2, "3", "'Dan'", "35.0");
+        response = sendCommandToServer("select id from t limit 3 offset 1;");
+        assertOkCountDataRows(response, 3);
+        assertOkRowAt(response, 1, "1");
+        assertOkRowAt(response, 3, "3");
+        assertOkCountDataRows(sendCommandToServer("select * from t limit 0;"), 0);
+        assertOkCountDataRows(sendCommandToServer("select * from t limit 9 offset 4;"), 1);
+        assertError(sendCommandToServer("select * from t order by;"));
+        assertError(sendCommandToServer("select * from t order mark;"));
+        assertError(sendCommandToServer("select * from t order by nosuch;"));
+        assertError(sendCommandToServer("select * from t order by mark up;"));
+        assertError(sendCommandToServer("select * from t limit;"));
+        assertError(sendCommandToServer("select * from t limit -1;"));
+        assertError(sendCommandToServer("select * from t limit 1.0;"));
+        assertError(sendCommandToServer("select * from t limit 1 offset;"));
+        assertError(sendCommandToServer("select * from t limit 1 order by mark;"));
+        assertError(sendCommandToServer("select * from t order by mark where id == 1;"));
+        // Integers beyond the range of double still sort among the numbers
+        String huge = "1" + "0".repeat(400);
+        assertOk(sendCommandToServer("insert into t values ('Fay', " + huge + ");"));
+        assertOk(sendCommandToServer("insert into t values ('Gus', -" + huge + ");"));
+        response = sendCommandToServer("select name from t order by mark;");
+        assertOkRowAt(response, 2, "'Gus'");
+        assertOkRowAt(response, 7, "'Fay'");
+        response = sendCommandToServer("select min(mark), max(mark) from t;");
+        assertOkUniqueRow(response, "-" + huge, huge);
+    }
+
+    @Test
+    public void testCursor() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (name, mark);"));
+        for (int i = 0; i < 10; ++i) {
+            assertOk(sendCommandToServer("insert into t values ('s" + i + "', " + i % 3 + ");"));
+        }
+        assertOk(sendCommandToServer("declare c cursor for select name from t where mark > 0;"));
+        assertOk(sendCommandToServer("declare d cursor for select * from t order by id desc "
+                + "limit 3 offset 1;"));
+        assertOk(sendCommandToServer("insert into t values ('s10', 1);"));
+        response = sendCommandToServer("fetch 4 from c;");
+        assertOkCountDataRows(response, 4);
+        assertOkHeaderRow(response, "name");
+        assertOkRowAt(response, 1, "'s1'");
+        assertOkRowAt(response, 4, "'s5'");
+        assertOk(sendCommandToServer("update t set mark = 2 where name == 's6';"));
+        assertOk(sendCommandToServer("delete from t where name == 's7';"));
+        response = sendCommandToServer("fetch 4 from C;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "'s6'");
+        assertOkRowAt(response, 2, "'s8'");
+        assertOkCountDataRows(sendCommandToServer("fetch 4 from c;"), 0);
+        response = sendCommandToServer("fetch 2 from d;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "8", "'s8'", "2");
+        assertOkRowAt(response, 2, "6", "'s6'", "2");
+        assertOkUniqueRow(sendCommandToServer("fetch 2 from d;"), "5", "'s5'", "2");
+        assertOk(sendCommandToServer("close c;"));
+        assertError(sendCommandToServer("fetch 1 from c;"));
+        assertError(sendCommandToServer("close c;"));
+        assertError(sendCommandToServer("declare e cursor for select * from t order by mark;"));
+        assertError(sendCommandToServer("declare e cursor for select count(*) from t;"));
+        assertError(sendCommandToServer("declare e cursor for select nosuch from t;"));
+        assertError(sendCommandToServer("declare e for select * from t;"));
+        assertError(sendCommandToServer("fetch from d;"));
+        assertError(sendCommandToServer("fetch -1 from d;"));
+        assertOk(sendCommandToServer("declare e cursor for select * from t;"));
+        assertOk(sendCommandToServer("drop table t;"));
+        assertOk(sendCommandToServer("create table t (name, mark);"));
+        assertError(sendCommandToServer("fetch 1 from e;"));
+    }
+
+    @Test
+    public void testAggregateQuery() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (dept, mark, count);"));
+        response = sendCommandToServer("select count(*), sum(mark), max(mark) from t;");
+        assertOkHeaderRow(response, "COUNT", "(", "*", ")", "SUM", "(", "mark", ")",
+                "MAX", "(", "mark", ")");
+        assertOkUniqueRow(response, "0", "null", "null");
+        assertOk(sendCommandToServer("insert into t values ('cs', 60, 1);"));
+        assertOk(sendCommandToServer("insert into t values ('cs', 70.5, 2);"));
+        assertOk(sendCommandToServer("insert into t values ('ee', 50, 3);"));
+        assertOk(sendCommandToServer("insert into t values ('ee', NULL, 4);"));
+        assertOk(sendCommandToServer("insert into t values ('me', 'absent', 5);"));
+        assertOk(sendCommandToServer("insert into t values (NULL, 40, 6);"));
+        response = sendCommandToServer(
+                "select count(*), count(mark), sum(count), avg(count) from t;");
+        assertOkCountDataRows(response, 1);
+        assertOkUniqueRow(response, "6", "5", "21", "3.5");
+        response = sendCommandToServer("select dept, count(*), Sum(mark), min(mark), "
+                + "MAX(mark), avg(mark) from t group by dept;");
+        assertOkCountDataRows(response, 4);
+        assertOkRowAt(response, 1, "'cs'", "2", "130.5", "60", "70.5", "65.25");
+        assertOkRowAt(response, 2, "'ee'", "2", "50", "50", "50", "50.0");
+        assertOkRowAt(response, 3, "'me'", "1", "null", "'absent'", "'absent'", "null");
+        assertOkRowAt(response, 4, "null", "1", "40", "40", "40", "40.0");
+        response = sendCommandToServer("select count(id) from t where dept == 'cs';");
+        assertOkUniqueRow(response, "2");
+        response = sendCommandToServer("select dept, count(*) from t where count < 6 "
+                + "group by dept order by dept desc limit 2;");
+        assertOkCountDataRows(response, 2);
+        assertOkRowAt(response, 1, "'me'", "1");
+        assertOkRowAt(response, 2, "'ee'", "2");
+        assertOk(sendCommandToServer("insert into t values ('x', 50.0, 7);"));
+        assertOk(sendCommandToServer("insert into t values ('y', +50, 8);"));
+        response = sendCommandToServer("select mark, count(*) from t group by mark;");
+        assertOkHasRow(response, "50", "3");
+        response = sendCommandToServer("select dept from t group by dept;");
+        assertOkCountDataRows(response, 6);
+        assertOkRowAt(response, 1, "'cs'");
+        response = sendCommandToServer("select count from t where count == 8;");
+        assertOkUniqueRow(response, "8");
+        assertError(sendCommandToServer("select dept, count(*) from t;"));
+        assertError(sendCommandToServer("select * from t group by dept;"));
+        assertError(sendCommandToServer("select sum(*) from t;"));
+        assertError(sendCommandToServer("select total(mark) from t;"));
+        assertError(sendCommandToServer("select count(nosuch) from t;"));
+        assertError(sendCommandToServer("select count(mark from t;"));
+        assertError(sendCommandToServer("select count(*) from t group by;"));
+        assertError(sendCommandToServer("select count(*) from t group by nosuch;"));
+        assertError(sendCommandToServer("select count(*) from t order by mark;"));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (a);"));
+        for (int i = 1; i <= 10; ++i) {
+            assertOk(sendCommandToServer("insert into t values (" + i + ");"));
+        }
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 5;"), 5);
+        assertError(sendCommandToServer("select * from missing;"));
+        assertError(sendCommandToServer("selec * from t;"));
+        assertError(sendCommandToServer("show stats now;"));
+        assertError(sendCommandToServer("show nothing;"));
+        String response = sendCommandToServer("show stats;");
+        assertOkHeaderRow(response, "command", "measure", "count", "sum", "p50", "p90", "p99",
+                "max");
+        assertOkUniqueRow(response, "select", "rows_scanned", "1", "10", "10", "10", "10", "10");
+        assertOkUniqueRow(response, "select", "rows_returned", "1", "5", "5", "5", "5", "5");
+        assertOkUniqueRow(response, "select", "errors", "2", "1", "0", "1", "1", "1");
+        assertOkUniqueRow(response, "unparsed", "errors", "3", "3", "1", "1", "1", "1");
+        assertOkUniqueRow(response, "create_table", "rows_scanned", "1", "0", "0", "0", "0", "0");
+        boolean bytesWrittenFound = false;
+        for (String line : response.split("\n")) {
+            List<String> tokens = Arrays.asList(line.trim().split("\\s+"));
+            if (tokens.get(0).equals("INSERT") && tokens.get(1).equals("bytes_written")) {
+                assertTrue(tokens.get(2).equals("10") && Long.parseLong(tokens.get(3)) > 0);
+                bytesWrittenFound = true;
+            }
+            // Select commands do not persist
+            assertFalse(tokens.get(0).equals("SELECT") && tokens.get(1).equals("persist_us"));
+        }
+        assertTrue(bytesWrittenFound);
+        assertTrue(response.contains("persist_us") && response.contains("serialise_us"));
+        Metrics metrics = new Metrics();
+        Metrics.Sample sample = new Metrics.Sample();
+        sample.endParse(new Task.UseTask("db"));
+        metrics.record(sample);
+        Path dumpPath = Paths.get(this.dir, "stats.txt");
+        metrics.dump(dumpPath);
+        String dump = Files.readString(dumpPath);
+        assertTrue(dump.startsWith("# ") && dump.contains("USE") && dump.contains("parse_us"));
+    }
+
+    @Test
+    public void testSlowQueryLog() throws Exception {
+        // Not logged by default
+        assertOk(sendCommandToServer("create database db;"));
+        assertFalse(Files.exists(Paths.get(this.dir, "slow-queries.log")));
+        Path logPath = Paths.get(this.dir, "slow.log");
+        System.setProperty("cwdb.slowQueryThreshold", "0");
+        System.setProperty("cwdb.slowQueryLog", logPath.toString());
+        System.setProperty("cwdb.slowQueryLogSize", "2000");
+        System.setProperty("cwdb.slowQueryLogFiles", "2");
+        try {
+            this.server = new DBServer(this.dir);
+        } finally {
+            System.clearProperty("cwdb.slowQueryThreshold");
+            System.clearProperty("cwdb.slowQueryLog");
+            System.clearProperty("cwdb.slowQueryLogSize");
+            System.clearProperty("cwdb.slowQueryLogFiles");
+        }
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table p (k, v) partition by k into 4;"));
+        for (int i = 0; i < 8; ++i) {
+            assertOk(sendCommandToServer("insert into p values (" + i + ", " + (i * 10) + ");"));
+        }
+        assertOkCountDataRows(sendCommandToServer("select * from p where k == 3;"), 1);
+        List<String> lines = Files.readAllLines(logPath);
+        String entry = lines.get(lines.size() - 1);
+        assertTrue(entry.contains(" SELECT total_us="));
+        assertTrue(entry.contains(" rows_scanned=") && entry.contains(" rows_returned=1 "));
+        assertTrue(entry.contains(" access=[p: SCAN of 1/4 partitions] "));
+        assertTrue(entry.endsWith(" command=select * from p where k == 3;"));
+        assertOkCountDataRows(sendCommandToServer("select * from p order by v desc limit 2;"), 2);
+        lines = Files.readAllLines(logPath);
+        assertTrue(lines.get(lines.size() - 1).contains(" access=[p: TOP_N of 4/4 partitions] "));
+        assertError(sendCommandToServer("select * from;"));
+        lines = Files.readAllLines(logPath);
+        assertTrue(lines.get(lines.size() - 1).contains(" UNPARSED ")
+                && lines.get(lines.size() - 1).contains(" errors=1 access=[none] "));
+        // Rotated, keeping two old logs
+        for (int i = 0; i < 30; ++i) {
+            assertOk(sendCommandToServer("select * from p where v > " + i + ";"));
+        }
+        assertTrue(Files.size(logPath) <= 2000);
+        assertTrue(Files.exists(Paths.get(logPath + ".1")));
+        assertTrue(Files.exists(Paths.get(logPath + ".2")));
+        assertFalse(Files.exists(Paths.get(logPath + ".3")));
+    }
+
+    @Test
+    public void testResultCache() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (a, b);"));
+        assertOk(sendCommandToServer("create table u (b, c);"));
+        assertOk(sendCommandToServer("insert into t values (1, 'x');"));
+        assertOk(sendCommandToServer("insert into u values ('x', 10);"));
+        assertOkUniqueRow(sendCommandToServer("show cache;"), "0", "0", "16777216", "0", "0",
+                "0", "0");
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 1);
+        // Spacing and the case of keywords do not matter
+        assertOkCountDataRows(sendCommandToServer("SELECT *  FROM t\tWHERE a > 0 ;"), 1);
+        assertOkHeaderRow(sendCommandToServer("show cache;"), "entries", "size", "capacity",
+                "hits", "misses", "invalidations", "evictions");
+        assertCacheCounters(1, 1, 0);
+        // Results are read again after their tables change
+        assertOk(sendCommandToServer("insert into t values (2, 'y');"));
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 2);
+        assertOk(sendCommandToServer("update t set a = 0 where a == 1;"));
+        response = sendCommandToServer("select * from t where a > 0;");
+        assertOkCountDataRows(response, 1);
+        assertOkUniqueRow(response, "1", "2", "'y'");
+        assertOk(sendCommandToServer("delete from t where a == 2;"));
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 0);
+        assertCacheCounters(1, 4, 3);
+        // Either table of a join
+        assertOkCountDataRows(sendCommandToServer("join t and u on b and b;"), 1);
+        assertOkCountDataRows(sendCommandToServer("join t and u on b and b;"), 1);
+        assertOk(sendCommandToServer("insert into u values ('x', 20);"));
+        assertOkCountDataRows(sendCommandToServer("join t and u on b and b;"), 2);
+        assertCacheCounters(2, 6, 4);
+        // A table dropped and created again
+        assertOk(sendCommandToServer("drop table t;"));
+        assertOk(sendCommandToServer("create table t (a, b);"));
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 0);
+        assertOk(sendCommandToServer("insert into t values (3, 'z');"));
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 1);
+        // The same command in another database
+        assertOk(sendCommandToServer("create database db2;"));
+        assertOk(sendCommandToServer("use db2;"));
+        assertOk(sendCommandToServer("create table t (a, b);"));
+        assertOkCountDataRows(sendCommandToServer("select * from t where a > 0;"), 0);
+    }
+
+    private void assertCacheCounters(long hits, long misses, long invalidations) {
+        String response = sendCommandToServer("show cache;");
+        assertOkCountDataRows(response, 1);
+        String[] counters = response.trim().split("\\n")[2].trim().split("\\s+");
+        assertTrue(Long.parseLong(counters[1]) > 0);
+        assertTrue(Long.parseLong(counters[3]) == hits);
+        assertTrue(Long.parseLong(counters[4]) == misses);
+        assertTrue(Long.parseLong(counters[5]) == invalidations);
+    }
+
+    @Test
+    public void testSpilledJoinAndSort() throws Exception {
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table a (k, v);"));
+        assertOk(sendCommandToServer("create table b (k, w);"));
+        for (int i = 0; i < 120; ++i) {
+            String k = i % 5 == 0 ? "'" + i % 7 + "'" : i % 5 == 1 ? (i % 7) + ".0" : "" + i % 7;
+            assertOk(sendCommandToServer("insert into a values (" + k + ", 'v" + i % 11 + "');"));
+            assertOk(sendCommandToServer("insert into b values (" + i % 13 + ", " + i + ");"));
+        }
+        assertOk(sendCommandToServer("insert into a values (NULL, 'x');"));
+        assertOk(sendCommandToServer("insert into b values (NULL, 'y');"));
+        String[] commands = {
+            "join a and b on k and k;",
+            "join b and a on w and id;",
+            "select * from a order by v desc;",
+            "select k, id from b where w > 20 order by k limit 100 offset 50;",
+        };
+        List<String> inMemoryResponses = new ArrayList<String>();
+        for (String command : commands) {
+            inMemoryResponses.add(sendCommandToServer(command));
+            assertOk(inMemoryResponses.get(inMemoryResponses.size() - 1));
+        }
+        assertFalse(Files.exists(Paths.get(this.dir, "spill")));
+        System.setProperty("cwdb.operatorMemory", "2000");
+        System.setProperty("cwdb.resultCacheSize", "0");
+        try {
+            this.server = new DBServer(this.dir);
+        } finally {
+            System.clearProperty("cwdb.operatorMemory");
+            System.clearProperty("cwdb.resultCacheSize");
+        }
+        assertOk(sendCommandToServer("use db;"));
+        for (int i = 0; i < commands.length; ++i) {
+            assertTrue(sendCommandToServer(commands[i]).equals(inMemoryResponses.get(i)));
+        }
+        // Spill files are deleted once used
+        try (Stream<Path> spillFiles = Files.list(Paths.get(this.dir, "spill"))) {
+            assertTrue(spillFiles.count() == 0);
+        }
+
+        // Results are not streamed, so one too large fails instead of filling the memory
+        System.setProperty("cwdb.operatorMemory", "2000");
+        System.setProperty("cwdb.maxResultSize", "5000");
+        try {
+            this.server = new DBServer(this.dir);
+        } finally {
+            System.clearProperty("cwdb.operatorMemory");
+            System.clearProperty("cwdb.maxResultSize");
+        }
+        assertOk(sendCommandToServer("use db;"));
+        for (String command : commands) {
+            String response = sendCommandToServer(command);
+            assertError(response);
+            assertTrue(response.contains("LIMIT"));
+        }
+        assertOkCountDataRows(sendCommandToServer("select * from a order by v limit 10;"), 10);
+        try (Stream<Path> spillFiles = Files.list(Paths.get(this.dir, "spill"))) {
+            assertTrue(spillFiles.count() == 0);
+        }
+    }
+
+    private void restoreSnapshot(String snapshotName) {
+        try {
+            DBKeeper.restoreSnapshot(this.dir, snapshotName);
+        } catch (Exception e) {
+            fail(e);
+        }
+        this.server = new DBServer(this.dir);
+    }
+
+    @Test
+    public void testSnapshot() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (a);"));
+        assertOk(sendCommandToServer("insert into t values (1);"));
+        assertOk(sendCommandToServer("snapshot s1;"));
+        assertError(sendCommandToServer("snapshot S1;"));
+        assertError(sendCommandToServer("snapshot;"));
+        assertError(sendCommandToServer("snapshot s2 s3;"));
+        assertOk(sendCommandToServer("insert into t values (2);"));
+        assertOk(sendCommandToServer("update t set a = 5 where a == 1;"));
+        assertOk(sendCommandToServer("snapshot s2;"));
+        assertOk(sendCommandToServer("drop database db;"));
+
+        restoreSnapshot("s1");
+        assertOk(sendCommandToServer("use db;"));
+        response = sendCommandToServer("select * from t;");
+        assertOkCountDataRows(response, 1);
+        assertOkUniqueRow(response, "0", "1");
+        // Changes after restoring do not leak into the snapshot
+        assertOk(sendCommandToServer("insert into t values (3);"));
+        restoreSnapshot("s1");
+        assertOk(sendCommandToServer("use db;"));
+        assertOkCountDataRows(sendCommandToServer("select * from t;"), 1);
+
+        restoreSnapshot("s2");
+        assertOk(sendCommandToServer("use db;"));
+        response = sendCommandToServer("select * from t;");
+        assertOkCountDataRows(response, 2);
+        assertOkUniqueRow(response, "0", "5");
+        assertOkUniqueRow(response, "1", "2");
+    }
+
+    @Test
+    public void testPartitionedTable() {
+        String response;
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (name, mark) partition by mark into 4;"));
+        assertOk(sendCommandToServer("create table u partition by id into 2;"));
+        assertError(sendCommandToServer("create table v (a) partition by b into 4;"));
+        assertError(sendCommandToServer("create table v (a) partition by a into 0;"));
+        assertError(sendCommandToServer("create table v (a) partition by a;"));
+        assertOk(sendCommandToServer("insert into t values ('a', 1);"));
+        assertOk(sendCommandToServer("insert into t values ('b', 2);"));
+        assertOk(sendCommandToServer("insert into t values ('c', '1');"));
+        assertOk(sendCommandToServer("insert into t values ('d', 1.0);"));
+        response = sendCommandToServer("select name from t where mark == 1;");
+        assertOkCountDataRows(response, 3);
+        assertOkRowAt(response, 1, "'a'");
+        assertOkRowAt(response, 3, "'d'");
+        assertOk(sendCommandToServer("update t set name = 'e' where mark == 2;"));
+        assertError(sendCommandToServer("update t set mark = 3 where name == 'e';"));
+        assertError(sendCommandToServer("alter table t drop mark;"));
+        assertOk(sendCommandToServer("alter table t add pass;"));
+
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use db;"));
+        response = sendCommandToServer("select * from t where mark == 2;");
+        assertOkCountDataRows(response, 1);
+        assertOkUniqueRow(response, "1", "'e'", "2", "NULL");
+        assertError(sendCommandToServer("update t set mark = 3 where name == 'e';"));
+        assertOkCountDataRows(sendCommandToServer("select * from t;"), 4);
+    }
+
+    // Read a response of the socket server, up to the END_OF_TRANSMISSION line
+    private String readResponse(BufferedReader reader) throws Exception {
+        String response = "";
+        String line;
+        while ((line = reader.readLine()) != null && !line.equals("" + (char) 4)) {
+            response += line + "\n";
+        }
+        return response;
+    }
+
+    private Thread startInBackground(SelectorServer selectorServer) {
+        Thread serverThread = new Thread(() -> {
+            try {
+                selectorServer.run();
+            } catch (Exception e) {
+                fail(e);
+            }
+        });
+        serverThread.start();
+        return serverThread;
+    }
+
+    @Test
+    public void testSelectorServer() throws Exception {
+        SelectorServer selectorServer = new SelectorServer(this.server, 0, 2);
+        Thread serverThread = startInBackground(selectorServer);
+        List<Socket> idleSockets = new ArrayList<Socket>();
+        try (Socket socket1 = new Socket("localhost", selectorServer.getPort());
+                Socket socket2 = new Socket("localhost", selectorServer.getPort())) {
+            for (int i = 0; i < 200; ++i) {
+                idleSockets.add(new Socket("localhost", selectorServer.getPort()));
+            }
+            BufferedReader reader1 = new BufferedReader(
+                    new InputStreamReader(socket1.getInputStream()));
+            BufferedReader reader2 = new BufferedReader(
+                    new InputStreamReader(socket2.getInputStream()));
+            OutputStream out1 = socket1.getOutputStream();
+            OutputStream out2 = socket2.getOutputStream();
+            // Several commands in one write, and a command cut across writes
+            out1.write("create database db;\nuse db;\r\ncreate table t (a);\ninsert ".getBytes());
+            out1.flush();
+            Thread.sleep(50);
+            out1.write("into t values (1);\nselect * from t;\n".getBytes());
+            out1.flush();
+            for (int i = 0; i < 4; ++i) {
+                assertOk(readResponse(reader1));
+            }
+            assertOkUniqueRow(readResponse(reader1), "0", "1");
+
+            // Each connection has its own database in use
+            out2.write("select * from t;\n".getBytes());
+            out2.flush();
+            assertError(readResponse(reader2));
+            out2.write("use db;\nselect * from t;\n".getBytes());
+            out2.flush();
+            assertOk(readResponse(reader2));
+            assertOkUniqueRow(readResponse(reader2), "0", "1");
+        } finally {
+            for (Socket socket : idleSockets) {
+                socket.close();
+            }
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+        assertFalse(serverThread.isAlive());
+    }
+
+    @Test
+    public void testLoadGenerator() throws Exception {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+        }
+        assertTrue(1000 == histogram.getCount());
+        assertTrue(10 == histogram.getPercentile(1));
+        assertTrue(Math.abs(histogram.getPercentile(50) - 500) <= 500 / 32);
+        assertTrue(Math.abs(histogram.getPercentile(99) - 990) <= 990 / 32);
+        assertTrue(1000 == histogram.getPercentile(100));
+        SelectorServer selectorServer = new SelectorServer(this.server, 0, 2);
+        Thread serverThread = startInBackground(selectorServer);
+        try {
+            List<LoadGenerator.Report> reports = new ArrayList<LoadGenerator.Report>();
+            for (int i = 0; i < 2; ++i) {
+                LoadGenerator generator = new LoadGenerator("localhost", selectorServer.getPort());
+                generator.setConnections(4);
+                generator.setRequests(50);
+                generator.setInitialRows(50);
+                reports.add(assertTimeoutPreemptively(Duration.ofSeconds(30), generator::run));
+            }
+            assertTrue(200 == reports.get(0).getTotalLatencies().getCount());
+            assertTrue(0 == reports.get(0).getTotalErrorCount());
+            // The same seed makes the same commands
+            for (LoadGenerator.Operation operation : LoadGenerator.Operation.values()) {
+                assertTrue(reports.get(0).getLatencies(operation).getCount()
+                        == reports.get(1).getLatencies(operation).getCount());
+            }
+            assertTrue(reports.get(0).getLatencies(LoadGenerator.Operation.SELECT).getCount() > 0);
+            assertTrue(reports.get(0).toString().contains("4 connections, 200 commands, 0 errors"));
+        } finally {
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testPipelinedBatch() throws Exception {
+        SelectorServer selectorServer = new SelectorServer(this.server, 0, 2);
+        Thread serverThread = startInBackground(selectorServer);
+        try {
+            List<String> commands = new ArrayList<String>(Arrays.asList(
+                    "create database db;", "use db;", "create table t (a, b);"));
+            for (int i = 0; i < 200; ++i) {
+                commands.add("insert into t values (" + i + ", '" + "x".repeat(i % 100) + "');");
+            }
+            // More commands than a connection keeps pending, with large responses
+            for (int i = 0; i < 3000; ++i) {
+                commands.add("select * from t where a >= " + (i % 200) + ";");
+            }
+            commands.add("select * from missing;");
+            commands.add("select b from t where a == 3;");
+            List<String> responses = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                    () -> DBClient.sendBatch("localhost", selectorServer.getPort(), commands));
+            assertTrue(responses.size() == commands.size());
+            for (int i = 0; i < commands.size() - 2; ++i) {
+                assertOk(responses.get(i));
+            }
+            String response = responses.get(commands.size() - 3);
+            assertOkCountDataRows(response, 1);
+            assertOkRowAt(response, 1, "199", "199", "'" + "x".repeat(99) + "'");
+            assertError(responses.get(commands.size() - 2));
+            assertOkUniqueRow(responses.get(commands.size() - 1), "'xxx'");
+        } finally {
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testBinaryProtocol() throws Exception {
+        SelectorServer selectorServer = new SelectorServer(this.server, 0, 2);
+        Thread serverThread = startInBackground(selectorServer);
+        try (DBClient.BinaryConnection connection = new DBClient.BinaryConnection("localhost",
+                selectorServer.getPort())) {
+            assertTrue(connection.execute("create database db;").isOk());
+            assertTrue(connection.execute("use db;").isOk());
+            assertTrue(connection.execute("create table t (a, b, c);").isOk());
+            // Pipelined
+            connection.send("insert into t values (12, 'x y', TRUE);");
+            connection.send("insert into t values (-1.5, NULL, 'z');");
+            connection.flush();
+            assertTrue(connection.receive().isOk());
+            assertTrue(connection.receive().isOk());
+            BinaryProtocol.Response response = connection.execute("select * from t;");
+            assertTrue(response.isOk());
+            assertTrue(response.getColumnNames().equals(Arrays.asList("id", "a", "b", "c")));
+            assertTrue(response.getRows().size() == 2);
+            assertTrue(response.getRows().get(0).equals(Arrays.asList(0L, 12L, "x y", true)));
+            assertTrue(response.getRows().get(1).equals(Arrays.asList(1L, -1.5, null, "z")));
+            response = connection.execute("select * from missing;");
+            assertFalse(response.isOk());
+            assertTrue(response.getErrorMessage().contains("missing"));
+            response = connection.execute("delete from t where a > 100;");
+            assertTrue(response.isOk() && response.getColumnNames().isEmpty());
+        } finally {
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+        // Text clients are served as before
+        selectorServer = new SelectorServer(this.server, 0, 2);
+        serverThread = startInBackground(selectorServer);
+        try {
+            List<String> responses = DBClient.sendBatch("localhost", selectorServer.getPort(),
+                    Arrays.asList("use db;", "select a from t where a == 12;"));
+            assertOkUniqueRow(responses.get(1), "12");
+        } finally {
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+    }
+
+    @Test
+    public void testLargeBinaryResult() throws Exception {
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table t (a, b);"));
+        for (int i = 0; i < 17; ++i) {
+            assertOk(sendCommandToServer("insert into t values (" + i + ", 'x');"));
+        }
+        String large = "y".repeat(1024 * 1024);
+        assertOk(sendCommandToServer("update t set b = '" + large + "' where a >= 0;"));
+        SelectorServer selectorServer = new SelectorServer(this.server, 0, 2);
+        Thread serverThread = startInBackground(selectorServer);
+        try (DBClient.BinaryConnection connection = new DBClient.BinaryConnection("localhost",
+                selectorServer.getPort())) {
+            assertTrue(connection.execute("use db;").isOk());
+            // More than a frame takes, so it is split over continued frames
+            BinaryProtocol.Response response = connection.execute("select * from t;");
+            assertTrue(response.isOk());
+            assertTrue(response.getRows().size() == 17);
+            assertTrue(response.getRows().get(16).equals(Arrays.asList(16L, 16L, large)));
+            response = connection.execute("select a from t where a == 3;");
+            assertTrue(response.getRows().get(0).equals(Arrays.asList(3L)));
+        } finally {
+            selectorServer.close();
+            serverThread.join(5000);
+        }
+    }
+
+    // Keep sending a command until the response has the row
+    private void awaitRow(String command, String... row) {
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            while (findFromOkResponse(server.handleCommand(command), row).isEmpty()) {
+                Thread.sleep(20);
+            }
+        }, "response never had the row");
+    }
+
+    @Test
+    public void testReplication() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty("cwdb.replicationPort", String.valueOf(port));
+        DBServer primary = new DBServer(this.dir);
+        System.clearProperty("cwdb.replicationPort");
+        System.setProperty("cwdb.primary", "localhost:" + port);
+        DBServer follower = new DBServer(this.dir + "_follower");
+        System.clearProperty("cwdb.primary");
+        try {
+            this.server = primary;
+            assertOk(sendCommandToServer("create database db;"));
+            assertOk(sendCommandToServer("use db;"));
+            assertOk(sendCommandToServer("create table t (a, b);"));
+            assertOk(sendCommandToServer("insert into t values (1, 'x');"));
+            assertOk(sendCommandToServer("prepare ins as insert into t values (?, ?);"));
+            assertOk(sendCommandToServer("execute ins (2, 'y');"));
+            assertOk(sendCommandToServer("update t set b = 'z' where a == 1;"));
+            assertOk(sendCommandToServer("create database other;"));
+            assertOk(sendCommandToServer("use other;"));
+            assertOk(sendCommandToServer("create table u;"));
+            assertOk(sendCommandToServer("use db;"));
+            assertError(sendCommandToServer("insert into missing values (1);"));
+            assertOk(sendCommandToServer("execute ins (3, 'w');"));
+            assertOkUniqueRow(sendCommandToServer("show replication;"),
+                    "primary", "8", "8", "0");
+
+            this.server = follower;
+            awaitRow("show replication;", "follower", "8", "8", "0");
+            assertOk(sendCommandToServer("use db;"));
+            String response = sendCommandToServer("select * from t;");
+            assertOkCountDataRows(response, 3);
+            assertOkUniqueRow(response, "0", "1", "'z'");
+            assertOkUniqueRow(response, "1", "2", "'y'");
+            assertOkUniqueRow(response, "2", "3", "'w'");
+            assertError(sendCommandToServer("insert into t values (4, 'v');"));
+            assertError(sendCommandToServer("create database another;"));
+            assertOk(sendCommandToServer("use other;"));
+            assertOkCountDataRows(sendCommandToServer("select * from u;"), 0);
+
+            // Changes keep flowing while a client of the follower uses another database
+            this.server = primary;
+            assertOk(sendCommandToServer("delete from t where a == 2;"));
+            this.server = follower;
+            awaitRow("show replication;", "follower", "9", "9", "0");
+            assertOkCountDataRows(sendCommandToServer("select * from u;"), 0);
+            assertOk(sendCommandToServer("use db;"));
+            assertOkCountDataRows(sendCommandToServer("select * from t;"), 2);
+        } finally {
+            primary.stopReplication();
+            follower.stopReplication();
+        }
+    }
+
+    private static DBServer startServer(String dir, String property, String value) {
+        System.setProperty(property, value);
+        try {
+            return new DBServer(dir);
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    public void testFollowerRestart() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        String followerDir = this.dir + "_follower";
+        DBServer primary = startServer(this.dir, "cwdb.replicationPort", String.valueOf(port));
+        DBServer follower = startServer(followerDir, "cwdb.primary", "localhost:" + port);
+        try {
+            this.server = primary;
+            assertOk(sendCommandToServer("create database db;"));
+            assertOk(sendCommandToServer("use db;"));
+            assertOk(sendCommandToServer("create table t (a);"));
+            assertOk(sendCommandToServer("insert into t values (1);"));
+            this.server = follower;
+            awaitRow("show replication;", "follower", "3", "3", "0");
+            follower.stopReplication();
+
+            // A restarted follower resumes after the last entry it stored
+            this.server = primary;
+            assertOk(sendCommandToServer("insert into t values (2);"));
+            follower = startServer(followerDir, "cwdb.primary", "localhost:" + port);
+            this.server = follower;
+            awaitRow("show replication;", "follower", "4", "4", "0");
+            assertOk(sendCommandToServer("use db;"));
+            String response = sendCommandToServer("select * from t;");
+            assertOkCountDataRows(response, 2);
+            assertOkUniqueRow(response, "1", "2");
+            follower.stopReplication();
+
+            // A restarted primary numbers its entries on from those it stored
+            primary.stopReplication();
+            primary = startServer(this.dir, "cwdb.replicationPort", String.valueOf(port));
+            this.server = primary;
+            assertOkUniqueRow(sendCommandToServer("show replication;"),
+                    "primary", "4", "4", "0");
+            assertOk(sendCommandToServer("use db;"));
+            for (int i = 0; i < 6; ++i) {
+                assertOk(sendCommandToServer("insert into t values (3);"));
+            }
+            follower = startServer(followerDir, "cwdb.primary", "localhost:" + port);
+            this.server = follower;
+            awaitRow("show replication;", "follower", "10", "10", "0");
+            assertOk(sendCommandToServer("use db;"));
+            assertOkCountDataRows(sendCommandToServer("select * from t;"), 8);
+
+            // A follower further behind than the log keeps starts again from a snapshot,
+            // and its clients go on using the same databases
+            primary.stopReplication();
+            System.setProperty("cwdb.replicationLogCapacity", "2");
+            primary = startServer(this.dir, "cwdb.replicationPort", String.valueOf(port));
+            System.clearProperty("cwdb.replicationLogCapacity");
+            this.server = primary;
+            assertOk(sendCommandToServer("use db;"));
+            for (int i = 0; i < 5; ++i) {
+                assertOk(sendCommandToServer("insert into t values (4);"));
+            }
+            this.server = follower;
+            awaitRow("show replication;", "follower", "15", "15", "0");
+            response = sendCommandToServer("select * from t;");
+            assertOkCountDataRows(response, 13);
+            assertOkUniqueRow(response, "12", "4");
+
+            // So does a follower which has never followed, from a primary with databases
+            DBServer newFollower = startServer(followerDir + "_new",
+                    "cwdb.primary", "localhost:" + port);
+            this.server = newFollower;
+            try {
+                awaitRow("show replication;", "follower", "15", "15", "0");
+                assertOk(sendCommandToServer("use db;"));
+                assertOkCountDataRows(sendCommandToServer("select * from t;"), 13);
+            } finally {
+                newFollower.stopReplication();
+            }
+        } finally {
+            primary.stopReplication();
+            follower.stopReplication();
+        }
+    }
+
+    // The next change pushed, skipping heartbeats
+    private BinaryProtocol.Response receiveChange(DBClient.BinaryConnection subscription) {
+        return assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+            BinaryProtocol.Response response = subscription.receive();
+            while (response.isOk() && response.getColumnNames().isEmpty()) {
+                response = subscription.receive();
+            }
+            return response;
+        }, "no change pushed");
+    }
+
+    @Test
+    public void testChangeStream() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        System.setProperty("cwdb.changeStreamPort", String.valueOf(port));
+        try {
+            this.server = new DBServer(this.dir);
+        } finally {
+            System.clearProperty("cwdb.changeStreamPort");
+        }
+        try (DBClient.BinaryConnection subscription = new DBClient.BinaryConnection("localhost",
+                port)) {
+            assertOk(sendCommandToServer("create database db;"));
+            assertOk(sendCommandToServer("use db;"));
+            assertOk(sendCommandToServer("create table t (a, b);"));
+            assertOk(sendCommandToServer("create table u (c);"));
+            assertOk(sendCommandToServer("insert into t values (1, 'x');"));
+            assertTrue(subscription.execute("subscribe t from db;").isOk());
+            assertError(sendCommandToServer("subscribe t from db;"));
+            assertOk(sendCommandToServer("insert into u values (9);"));
+            assertOk(sendCommandToServer("insert into t values (2, NULL);"));
+            assertOk(sendCommandToServer("update t set b = 'y' where a > 0;"));
+            assertOk(sendCommandToServer("delete from t where a == 1;"));
+            BinaryProtocol.Response change = receiveChange(subscription);
+            assertTrue(change.getColumnNames().equals(
+                    Arrays.asList("seq", "operation", "table", "id", "a", "b")));
+            assertTrue(change.getRows().get(0).subList(1, 6).equals(
+                    Arrays.asList("insert", "t", 1L, 2L, null)));
+            change = receiveChange(subscription);
+            assertTrue(change.getColumnNames().equals(
+                    Arrays.asList("seq", "operation", "table", "id", "b")));
+            assertTrue(change.getRows().get(0).subList(1, 5).equals(
+                    Arrays.asList("update", "t", 0L, "y")));
+            change = receiveChange(subscription);
+            assertTrue(change.getRows().get(0).subList(1, 5).equals(
+                    Arrays.asList("update", "t", 1L, "y")));
+            change = receiveChange(subscription);
+            assertTrue(change.getColumnNames().equals(
+                    Arrays.asList("seq", "operation", "table", "id")));
+            assertTrue(change.getRows().get(0).subList(1, 4).equals(
+                    Arrays.asList("delete", "t", 0L)));
+            // A change is not pushed until it is stored
+            Path blocker = Paths.get(this.dir, "databases.meta.tmp", "blocker");
+            Files.createDirectories(blocker);
+            assertError(sendCommandToServer("insert into t values (3, 'z');"));
+            Files.delete(blocker);
+            Files.delete(blocker.getParent());
+            assertOk(sendCommandToServer("insert into t values (4, 'w');"));
+            change = receiveChange(subscription);
+            assertTrue(change.getRows().get(0).subList(1, 6).equals(
+                    Arrays.asList("insert", "t", 2L, 3L, "z")));
+            change = receiveChange(subscription);
+            assertTrue(change.getRows().get(0).subList(1, 6).equals(
+                    Arrays.asList("insert", "t", 3L, 4L, "w")));
+        } finally {
+            this.server.stopChangeStream();
+        }
+    }
+
+    @Test
+    public void testAlterStoresOnlyAlteredTable() {
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table big (a);"));
+        String value = "'" + "x".repeat(100) + "'";
+        for (int i = 0; i < 50; ++i) {
+            assertOk(sendCommandToServer("insert into big values (" + value + ");"));
+        }
+        assertOk(sendCommandToServer("create table small (b);"));
+        assertOk(sendCommandToServer("insert into small values (1);"));
+        long numberOfBytesWritten = StorageFiles.getNumberOfBytesWritten();
+        assertOk(sendCommandToServer("alter table small add c;"));
+        assertTrue(StorageFiles.getNumberOfBytesWritten() - numberOfBytesWritten < 1000);
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use db;"));
+        String response = sendCommandToServer("select * from small;");
+        assertOk(response);
+        assertTrue(response.contains("c"));
+        response = sendCommandToServer("select * from big where id == 49;");
+        assertTrue(response.contains(value.substring(1, 101)));
+    }
+
+    // Altering a table writes only the meta file, whichever table it alters,
+    // and the table file written before reads the same after restarting
+    @Test
+    public void testAlterWritesNoTableFile() {
+        assertOk(sendCommandToServer("create database db;"));
+        assertOk(sendCommandToServer("use db;"));
+        assertOk(sendCommandToServer("create table big (a, b);"));
+        String value = "'" + "x".repeat(100) + "'";
+        for (int i = 0; i < 50; ++i) {
+            assertOk(sendCommandToServer("insert into big values (" + value + ", " + i + ");"));
+        }
+        long numberOfBytesWritten = StorageFiles.getNumberOfBytesWritten();
+        assertOk(sendCommandToServer("alter table big add c;"));
+        assertOk(sendCommandToServer("alter table big drop a;"));
+        assertOk(sendCommandToServer("alter table big add a;"));
+        assertTrue(StorageFiles.getNumberOfBytesWritten() - numberOfBytesWritten < 1000);
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use db;"));
+        String response = sendCommandToServer("select * from big where b == 49;");
+        assertOkHeaderRow(response, "id", "b", "c", "a");
+        assertOkUniqueRow(response, "49", "49", "NULL", "NULL");
+        assertOk(sendCommandToServer("update big set c = 1 where b == 49;"));
+        assertOk(sendCommandToServer("alter table big drop b;"));
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use db;"));
+        response = sendCommandToServer("select * from big where id == 49;");
+        assertOkHeaderRow(response, "id", "c", "a");
+        assertOkUniqueRow(response, "49", "1", "NULL");
+        assertOkCountDataRows(sendCommandToServer("select * from big where c == NULL;"), 49);
+    }
+
+    // Databases stored before words like `desc` or `cache` became keywords still load,
+    // and the words are still names except where the grammar expects them
+    @Test
+    public void testNamesOfNewKeywords() throws Exception {
+        Files.createDirectories(Paths.get(this.dir));
+        Files.writeString(Paths.get(this.dir, "databases.meta"), "{\n  cache: [\n"
+                + "    t: <2:name|desc|limit>,\n    stats: <1:a>,\n"
+                + "    orders: <0:by|for|as|close|show>\n  ]\n}");
+        Files.writeString(Paths.get(this.dir, "cache.t.tab"),
+                "id\tname\tdesc\tlimit\n0\t'a'\t2\t1\n1\t'b'\t1\t2\n");
+        Files.writeString(Paths.get(this.dir, "cache.stats.tab"), "id\ta\n0\t7\n");
+        Files.writeString(Paths.get(this.dir, "cache.orders.tab"),
+                "id\tby\tfor\tas\tclose\tshow\n");
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use cache;"));
+        String response = sendCommandToServer("select name from t order by desc desc limit 1;");
+        assertOkUniqueRow(response, "'a'");
+        response = sendCommandToServer("select limit from t where desc == 1;");
+        assertOkUniqueRow(response, "2");
+        assertOkUniqueRow(sendCommandToServer("select * from stats;"), "0", "7");
+        assertOk(sendCommandToServer("insert into orders values (1, 2, 3, 4, 5);"));
+        assertOk(sendCommandToServer("create table show (order, by);"));
+        assertOk(sendCommandToServer("create database stats;"));
+        assertOk(sendCommandToServer("show stats;"));
+        assertError(sendCommandToServer("create table where (a);"));
+        assertError(sendCommandToServer("create table u (select);"));
+
+        // Nothing is dropped once stored again
+        this.server = new DBServer(this.dir);
+        assertOk(sendCommandToServer("use cache;"));
+        assertOkCountDataRows(sendCommandToServer("select * from t;"), 2);
+        assertOkHeaderRow(sendCommandToServer("select * from orders;"),
+                "id", "by", "for", "as", "close", "show");
+        assertOkHeaderRow(sendCommandToServer("select * from show;"), "id", "order", "by");
+        assertOk(sendCommandToServer("use stats;"));
+    }
+
     @Test
     public void testPersistence() {
         String response;
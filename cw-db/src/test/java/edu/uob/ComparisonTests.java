@@ -1,6 +1,9 @@
 package edu.uob;
 
+import java.util.BitSet;
+
 import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -13,6 +16,7 @@ public class ComparisonTests {
     public static void expect(String str1, Keyword op, String str2) {
         try {
             assertTrue(compareValue(str1, op, str2));
+            assertTrue(compareInBlock(new String[] {str1}, op, str2).get(0));
         } catch (DBException dbe) {
             fail(dbe.toString());
         }
@@ -21,11 +25,65 @@ public class ComparisonTests {
     public static void expectNot(String str1, Keyword op, String str2) {
         try {
             assertFalse(compareValue(str1, op, str2));
+            assertFalse(compareInBlock(new String[] {str1}, op, str2).get(0));
         } catch (DBException dbe) {
             fail(dbe.toString());
         }
     }
 
+    // Evaluate "attr op str2" over a block whose attr column is given
+    private static BitSet compareInBlock(String[] column, Keyword op, String str2)
+            throws DBException {
+        BitSet selection = new BitSet();
+        selection.set(0, column.length);
+        new Grammar.Comparator("attr", op, str2).evaluateBlock(makeBlock(column), selection);
+        return selection;
+    }
+
+    private static Condition.Block makeBlock(String[] column) {
+        return new Condition.Block() {
+            public int size() {
+                return column.length;
+            }
+
+            public String[] getColumn(String key) {
+                return column;
+            }
+        };
+    }
+
+    private static Condition.Block makeCodedBlock(String[] dictionary, int[] codes) {
+        return new Condition.Block() {
+            public int size() {
+                return codes.length;
+            }
+
+            public String[] getColumn(String key) {
+                String[] column = new String[codes.length];
+                for (int i = 0; i < codes.length; ++i) {
+                    column[i] = dictionary[codes[i]];
+                }
+                return column;
+            }
+
+            public Condition.Dictionary getDictionary(String key) {
+                return new Condition.Dictionary() {
+                    public int size() {
+                        return dictionary.length;
+                    }
+
+                    public String getValue(int code) {
+                        return dictionary[code];
+                    }
+                };
+            }
+
+            public int[] getCodes(String key) {
+                return codes;
+            }
+        };
+    }
+
     @Test
     public void testNullAndOther() {
         expect("null", EQ, "null");
@@ -81,6 +139,13 @@ public class ComparisonTests {
         expectNot("'2.0'", LIKE, "2.00");
         expect("2.000", LIKE, "'2.0'");
         expect("2.000", LIKE, "2.0");
+        expect("'abcabcabd'", LIKE, "'abcabd'");
+        expectNot("'abcabcab'", LIKE, "'abcabd'");
+        expect("'aaab'", LIKE, "'aab'");
+        expectNot("'aaba'", LIKE, "'abb'");
+        expect("'the quick brown fox'", LIKE, "'fox'");
+        expectNot("'the quick brown fox'", LIKE, "'fox '");
+        expectNot("'ab'", LIKE, "'ab'''");
     }
 
     @Test
@@ -146,6 +211,20 @@ public class ComparisonTests {
         expect("+0.0", LE, "-0.0");
     }
 
+    @Test
+    public void testSortKeyOrdering() throws DBException {
+        String huge = "1" + "0".repeat(400);
+        assertTrue(Grammar.SortKey.of(huge).compareTo(Grammar.SortKey.of("5")) > 0);
+        assertTrue(Grammar.SortKey.of("5").compareTo(Grammar.SortKey.of(huge)) < 0);
+        assertTrue(Grammar.SortKey.of("-" + huge).compareTo(Grammar.SortKey.of("-5")) < 0);
+        assertTrue(Grammar.SortKey.of(huge).compareTo(Grammar.SortKey.of("1.5")) > 0);
+        assertTrue(Grammar.SortKey.of(huge).compareTo(
+                Grammar.SortKey.of(String.valueOf(Long.MAX_VALUE))) > 0);
+        assertEquals(0, Grammar.SortKey.of(huge).compareTo(Grammar.SortKey.of(huge)));
+        assertTrue(Grammar.SortKey.of("NULL").compareTo(Grammar.SortKey.of(huge)) < 0);
+        assertTrue(Grammar.SortKey.of("'a'").compareTo(Grammar.SortKey.of(huge)) > 0);
+    }
+
     @Test
     public void testStringOrdering() {
         expect("''", EQ, "''");
@@ -176,4 +255,53 @@ public class ComparisonTests {
         expect("'true'", GT, "+1.0");
         expect("true", GT, "'0.0'");
     }
+
+    @Test
+    public void testBlockEvaluation() throws DBException {
+        String[] values = {"null", "NULL", "true", "FALSE", "0", "-0", "+5", "5", "5.0",
+                "-2.5", "12345678901234567890", "9223372036854775807", "''", "'5'", "'abc'",
+                "'ab'", "'b'", "'5.0'", "'null'"};
+        Keyword[] ops = {EQ, NEQ, GT, GE, LT, LE, LIKE};
+        for (Keyword op : ops) {
+            for (String target : values) {
+                BitSet selection = compareInBlock(values, op, target);
+                for (int i = 0; i < values.length; ++i) {
+                    assertEquals(compareValue(values[i], op, target), selection.get(i),
+                            values[i] + " " + op + " " + target);
+                }
+            }
+        }
+
+        // Same for dictionary encoded values, where each value appears in several rows
+        int[] codes = new int[values.length * 3];
+        String[] column = new String[codes.length];
+        for (int i = 0; i < codes.length; ++i) {
+            codes[i] = (i * 7) % values.length;
+            column[i] = values[codes[i]];
+        }
+        Condition.Block codedBlock = makeCodedBlock(values, codes);
+        for (Keyword op : ops) {
+            for (String target : values) {
+                BitSet selection = new BitSet();
+                selection.set(0, codes.length);
+                new Grammar.Comparator("attr", op, target).evaluateBlock(codedBlock, selection);
+                assertEquals(compareInBlock(column, op, target), selection);
+            }
+        }
+
+        // AND/OR and negation give the same results as row by row evaluation
+        Condition cond = new Grammar.CompoundCondition(
+                new Grammar.Comparator("attr", GT, "0"), false,
+                new Grammar.CompoundCondition(new Grammar.Comparator("attr", LIKE, "'b'"),
+                        true, new Grammar.Comparator("attr", NEQ, "'abc'")));
+        for (Condition c : new Condition[] {cond, Condition.negate(cond)}) {
+            BitSet selection = new BitSet();
+            selection.set(0, values.length);
+            c.evaluateBlock(makeBlock(values), selection);
+            for (int i = 0; i < values.length; ++i) {
+                String value = values[i];
+                assertEquals(c.evaluate((key) -> value), selection.get(i), value);
+            }
+        }
+    }
 }
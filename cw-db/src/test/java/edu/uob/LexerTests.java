@@ -0,0 +1,106 @@
+package edu.uob;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static edu.uob.Grammar.Keyword.*;
+import static edu.uob.Lexer.TokenType;
+
+public class LexerTests {
+    private static List<String> texts(List<Lexer.Token> tokens) {
+        List<String> texts = new ArrayList<String>();
+        for (Lexer.Token token : tokens) {
+            texts.add(token.getText());
+        }
+        return texts;
+    }
+
+    @Test
+    public void testWhitespace() throws DBException {
+        assertEquals(0, Lexer.lex("").size());
+        assertEquals(0, Lexer.lex(" \t\r\n\f\u000B").size());
+        assertEquals(List.of("SELECT", "*", "FROM", "t", ";"),
+                texts(Lexer.lex("\tSELECT\n*  FROM\r\nt ;  ")));
+        assertThrows(DBException.class, () -> Lexer.lex(null));
+    }
+
+    @Test
+    public void testSymbols() throws DBException {
+        assertEquals(List.of("a", "==", "1", "AND", "(", "b", "!=", "2", ")", ";"),
+                texts(Lexer.lex("a==1 AND(b!=2);")));
+        assertEquals(List.of("a", ">=", "1", ",", "b", "<=", "-2", ",", "c", ">", "3"),
+                texts(Lexer.lex("a>=1,b<=-2,c>3")));
+        // `=` only pairs with a following `=`, so `a = = b` is two ASSIGNs
+        List<Lexer.Token> tokens = Lexer.lex("a = = b =?");
+        assertTrue(tokens.get(1).isKeyword(ASSIGN));
+        assertTrue(tokens.get(2).isKeyword(ASSIGN));
+        assertTrue(tokens.get(4).isKeyword(ASSIGN));
+        assertTrue(tokens.get(5).isKeyword(PLACEHOLDER));
+        assertTrue(Lexer.lex("<<=").get(0).isKeyword(LT));
+        assertTrue(Lexer.lex("<<=").get(1).isKeyword(LE));
+        assertEquals(TokenType.OTHER, Lexer.lex("!").get(0).getType());
+    }
+
+    @Test
+    public void testStringLiterals() throws DBException {
+        List<Lexer.Token> tokens = Lexer.lex("name=='Bob  Smith',''");
+        assertEquals(List.of("name", "==", "'Bob  Smith'", ",", "''"), texts(tokens));
+        assertEquals(TokenType.STRING_LITERAL, tokens.get(2).getType());
+        assertTrue(tokens.get(2).isAttributeValue());
+        assertEquals(TokenType.STRING_LITERAL, tokens.get(4).getType());
+        // Symbols and keywords inside quotes are not cut into tokens
+        assertEquals(List.of("'a==b;(SELECT)'"), texts(Lexer.lex("'a==b;(SELECT)'")));
+        assertEquals(List.of("x", "'y'", "z"), texts(Lexer.lex("x'y'z")));
+        assertEquals(TokenType.OTHER, Lexer.lex("'tab\there'").get(0).getType());
+        assertThrows(Grammar.GrammarException.class, () -> Lexer.lex("name == 'Bob;"));
+        assertThrows(Grammar.GrammarException.class, () -> Lexer.lex("'"));
+    }
+
+    @Test
+    public void testWords() throws DBException {
+        List<Lexer.Token> tokens = Lexer.lex("select Null abc1 a_b 12 -3 +4.5 6. .7 1e3");
+        assertTrue(tokens.get(0).isKeyword(SELECT));
+        assertTrue(tokens.get(1).isKeyword(NULL));
+        assertTrue(tokens.get(1).isAttributeValue());
+        assertEquals(TokenType.PLAIN_TEXT, tokens.get(2).getType());
+        assertTrue(tokens.get(2).isValidName());
+        assertEquals(TokenType.OTHER, tokens.get(3).getType());
+        assertFalse(tokens.get(3).isValidName());
+        assertEquals(TokenType.INTEGER_LITERAL, tokens.get(4).getType());
+        assertEquals(12, tokens.get(4).getLongValue());
+        assertTrue(tokens.get(4).isPlainText());
+        assertEquals(-3, tokens.get(5).getLongValue());
+        assertFalse(tokens.get(5).isPlainText());
+        assertEquals(TokenType.FLOAT_LITERAL, tokens.get(6).getType());
+        assertEquals(4.5, tokens.get(6).getDoubleValue());
+        assertEquals(TokenType.OTHER, tokens.get(7).getType());
+        assertEquals(TokenType.OTHER, tokens.get(8).getType());
+        assertEquals(TokenType.PLAIN_TEXT, tokens.get(9).getType());
+        // Words reserved since the start can not be names, newer keywords can
+        tokens = Lexer.lex("where desc LIMIT");
+        assertFalse(tokens.get(0).isValidName());
+        assertTrue(tokens.get(1).isKeyword(DESC));
+        assertTrue(tokens.get(1).isValidName());
+        assertTrue(tokens.get(2).isValidName());
+    }
+
+    @Test
+    public void testIntegerRange() throws DBException {
+        Lexer.Token max = Lexer.lex("9223372036854775807").get(0);
+        assertTrue(max.hasLongValue());
+        assertEquals(Long.MAX_VALUE, max.getLongValue());
+        Lexer.Token min = Lexer.lex("-9223372036854775808").get(0);
+        assertTrue(min.hasLongValue());
+        assertEquals(Long.MIN_VALUE, min.getLongValue());
+        Lexer.Token tooLarge = Lexer.lex("9223372036854775808").get(0);
+        assertEquals(TokenType.INTEGER_LITERAL, tooLarge.getType());
+        assertFalse(tooLarge.hasLongValue());
+        assertEquals(9223372036854775808.0, tooLarge.getDoubleValue());
+    }
+}
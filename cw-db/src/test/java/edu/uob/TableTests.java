@@ -0,0 +1,343 @@
+package edu.uob;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import static edu.uob.Grammar.Keyword.*;
+
+public class TableTests {
+    @Test
+    public void testScanAcrossBlocks() throws DBException {
+        Table table = new Table();
+        table.addAttrField("mark");
+        for (int i = 0; i < 5000; ++i) {
+            List<String> attributes = new ArrayList<String>();
+            attributes.add(String.valueOf(i % 10));
+            table.addEntity(attributes);
+        }
+        Condition cond = new Grammar.Comparator("mark", EQ, "3");
+        List<Table.Entity> chosen = table.chooseEntities(cond);
+        assertEquals(500, chosen.size());
+        assertEquals(4993, chosen.get(499).getId());
+        chosen = table.chooseEntities(cond, 200, 3);
+        assertEquals(3, chosen.size());
+        assertEquals(2003, chosen.get(0).getId());
+        assertEquals(2023, chosen.get(2).getId());
+        chosen = table.chooseOrderedEntities(cond, "id", true, 150, 2);
+        assertEquals(3493, chosen.get(0).getId());
+        assertEquals(3483, chosen.get(1).getId());
+        chosen = table.chooseOrderedEntities(cond, "mark", false, 499, -1);
+        assertEquals(1, chosen.size());
+        assertEquals(4993, chosen.get(0).getId());
+        chosen = table.chooseEntitiesInIdRange(cond, 1020, 3000, false, 3);
+        assertEquals(1023, chosen.get(0).getId());
+        assertEquals(1043, chosen.get(2).getId());
+        chosen = table.chooseEntitiesInIdRange(cond, 1020, 2053, true, 2);
+        assertEquals(2043, chosen.get(0).getId());
+        assertEquals(2033, chosen.get(1).getId());
+        assertEquals(0, table.chooseEntitiesInIdRange(cond, 1024, 1033, false, -1).size());
+        assertTrue(table.deleteEntities(Condition.negate(cond)));
+        assertEquals(500, table.getNumberOfEntities());
+    }
+
+    @Test
+    public void testDeleteWithTombstones() throws DBException {
+        Table table = new Table();
+        table.addAttrField("mark");
+        for (int i = 0; i < 3000; ++i) {
+            List<String> attributes = new ArrayList<String>();
+            attributes.add(String.valueOf(i));
+            table.addEntity(attributes);
+        }
+        assertTrue(table.deleteEntities(new Grammar.Comparator("mark", LT, "1500")));
+        assertFalse(table.deleteEntities(new Grammar.Comparator("mark", LT, "1500")));
+        assertTrue(table.deleteEntities(new Grammar.Comparator("id", EQ, "2000")));
+        assertEquals(1499, table.getNumberOfEntities());
+        assertEquals(1499, table.chooseEntities(new Grammar.AlwaysTrueCondition()).size());
+        List<Table.Entity> chosen = table.chooseOrderedEntities(
+                new Grammar.Comparator("mark", LE, "2001"), "mark", true, 0, 3);
+        assertEquals(2001, chosen.get(0).getId());
+        assertEquals(1999, chosen.get(1).getId());
+        assertEquals(1998, chosen.get(2).getId());
+        int numberIterated = 0;
+        for (Table.Entity entity : table) {
+            assertTrue(entity.getId() >= 1500 && entity.getId() != 2000);
+            numberIterated++;
+        }
+        assertEquals(1499, numberIterated);
+        assertFalse(table.exportToString(" ").contains("\n2000 "));
+
+        // Deleted entities stay deleted after altering the table
+        table.addAttrField("pass");
+        assertEquals(1499, table.getNumberOfEntities());
+        assertEquals(1499, table.chooseEntities(new Grammar.Comparator("pass", EQ, "NULL")).size());
+    }
+
+    @Test
+    public void testMetadataOnlyAlter() throws DBException {
+        Table table = new Table();
+        table.addAttrField("name");
+        table.addAttrField("mark");
+        for (int i = 0; i < 3000; ++i) {
+            table.addEntity(Arrays.asList("'s" + i + "'", String.valueOf(i)));
+        }
+        table.addAttrField("pass");
+        assertEquals(3000,
+                table.chooseEntities(new Grammar.Comparator("pass", EQ, "NULL")).size());
+        Table.AttrFieldSetter setter = table.getAttrFieldSetter(
+                List.of(Map.entry("pass", "TRUE")));
+        for (Table.Entity entity : table.chooseEntities(
+                new Grammar.Comparator("mark", GE, "2990"))) {
+            setter.setSelectedAttrValues(entity);
+        }
+        table.addEntity(Arrays.asList("'new'", "3000", "FALSE"));
+        table.dropAttrField("name");
+        assertEquals(List.of("mark", "pass"), table.getAttributeNames());
+        assertEquals("(2990,2990,TRUE)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "2990")).get(0).toString());
+        assertEquals("(3000,3000,FALSE)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "3000")).get(0).toString());
+
+        // Compaction rebuilds the storage without the dropped attribute
+        assertTrue(table.deleteEntities(new Grammar.Comparator("mark", LT, "2000")));
+        assertEquals(1001, table.getNumberOfEntities());
+        assertEquals(10,
+                table.chooseEntities(new Grammar.Comparator("pass", EQ, "TRUE")).size());
+        assertEquals("(2000,2000,null)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "2000")).get(0).toString());
+        assertEquals("(3000,3000,FALSE)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "3000")).get(0).toString());
+        table.addAttrField("grade");
+        table.addEntity(Arrays.asList("3001", "TRUE", "'A'"));
+        assertTrue(table.exportToString(" ").contains("\n3001 3001 TRUE 'A'"));
+    }
+
+    @Test
+    public void testDroppedColumnsReclaimed() throws DBException {
+        Table table = new Table();
+        for (String attrName : List.of("a", "b", "c", "d", "e", "f")) {
+            table.addAttrField(attrName);
+        }
+        for (int i = 0; i < 100; ++i) {
+            table.addEntity(Arrays.asList("1", "2", "3", "4", "5", String.valueOf(i)));
+        }
+        table.dropAttrField("a");
+        table.dropAttrField("c");
+        table.dropAttrField("b");
+        table.dropAttrField("e");
+        // Dropping never rebuilds the storage, however many attributes are dropped
+        assertEquals(4, table.getNumberOfDroppedColumns());
+        assertEquals(List.of("d", "f"), table.getAttributeNames());
+        assertEquals("(42,4,42)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "42")).get(0).toString());
+        // The next deletion compacts the storage without the dropped attributes,
+        // though few entities were deleted
+        assertTrue(table.deleteEntities(new Grammar.Comparator("id", EQ, "0")));
+        assertEquals(0, table.getNumberOfDroppedColumns());
+        assertEquals(99, table.getNumberOfEntities());
+        assertEquals("(42,4,42)", table.chooseEntities(
+                new Grammar.Comparator("id", EQ, "42")).get(0).toString());
+        table.dropAttrField("d");
+        assertEquals(1, table.getNumberOfDroppedColumns());
+        assertEquals("(99,99)", table.chooseEntities(
+                new Grammar.Comparator("f", EQ, "99")).get(0).toString());
+    }
+
+    @Test
+    public void testDictionaryRebuilt() throws DBException {
+        Table table = new Table();
+        table.addAttrField("name");
+        table.addAttrField("mark");
+        for (int i = 0; i < 2000; ++i) {
+            table.addEntity(Arrays.asList("'n" + (i % 4) + "'", String.valueOf(i % 10)));
+        }
+        assertEquals(5, table.getDictionarySize("name"));
+        assertEquals(11, table.getDictionarySize("mark"));
+
+        // Values replaced by updates are dropped as the dictionary grows
+        List<Table.Entity> entities = table.chooseEntities(new Grammar.AlwaysTrueCondition());
+        for (int i = 0; i < 10000; ++i) {
+            Table.AttrFieldSetter setter = table.getAttrFieldSetter(
+                    List.of(Map.entry("name", "'u" + i + "'")));
+            setter.setSelectedAttrValues(entities.get(i % 2000));
+        }
+        assertTrue(table.getDictionarySize("name") < 4096);
+        List<Table.Entity> chosen =
+                table.chooseEntities(new Grammar.Comparator("name", EQ, "'u9999'"));
+        assertEquals(1, chosen.size());
+        assertEquals("(1999,'u9999',9)", chosen.get(0).toString());
+        assertEquals(0, table.chooseEntities(new Grammar.Comparator("name", EQ, "'n1'")).size());
+
+        // Values only deleted entities had are dropped once they are compacted away
+        assertTrue(table.deleteEntities(new Grammar.Comparator("mark", LT, "6")));
+        assertEquals(4, table.getDictionarySize("mark"));
+        assertEquals(800, table.getDictionarySize("name"));
+        assertEquals(200, table.chooseEntities(new Grammar.Comparator("mark", EQ, "7")).size());
+        assertEquals("(1999,'u9999',9)", table.chooseEntities(
+                new Grammar.Comparator("name", EQ, "'u9999'")).get(0).toString());
+    }
+
+    @Test
+    public void testOffHeapStorage() throws DBException {
+        System.setProperty("cwdb.offHeapStorage", "true");
+        Table table;
+        try {
+            table = new Table();
+        } finally {
+            System.clearProperty("cwdb.offHeapStorage");
+        }
+        table.addAttrField("name");
+        table.addAttrField("mark");
+        for (int i = 0; i < 1000; ++i) {
+            table.addEntity(Arrays.asList("'s" + (i % 7) + "'", String.valueOf(i)));
+        }
+        assertTrue(table.deleteEntities(new Grammar.Comparator("mark", GE, "100")));
+        assertEquals(100, table.getNumberOfEntities());
+        table.addAttrField("pass");
+        Table.AttrFieldSetter setter = table.getAttrFieldSetter(
+                List.of(Map.entry("pass", "TRUE")));
+        Condition cond = new Grammar.Comparator("name", EQ, "'s3'");
+        for (Table.Entity entity : table.chooseEntities(cond)) {
+            setter.setSelectedAttrValues(entity);
+        }
+        table.dropAttrField("name");
+        List<Table.Entity> chosen =
+                table.chooseEntities(new Grammar.Comparator("pass", EQ, "TRUE"));
+        assertEquals(14, chosen.size());
+        assertEquals("(3,3,TRUE)", chosen.get(0).toString());
+        assertEquals("(94,94,TRUE)", chosen.get(13).toString());
+        assertEquals("(99,99,null)", table.chooseEntities(new Grammar.Comparator("id", EQ, "99"))
+                .get(0).toString());
+
+        // Values of a column with as many distinct values as entities are off the heap too
+        System.setProperty("cwdb.offHeapStorage", "true");
+        try {
+            table = new Table();
+        } finally {
+            System.clearProperty("cwdb.offHeapStorage");
+        }
+        table.addAttrField("name");
+        for (int i = 0; i < 3000; ++i) {
+            table.addEntity(Arrays.asList(i == 1234 ? "'caf\u00e9'" : "'u" + i + "'"));
+        }
+        assertTrue(table.deleteEntities(new Grammar.Comparator("id", GE, "1400")));
+        assertEquals(1400, table.getDictionarySize("name"));
+        assertEquals("(1234,'caf\u00e9')", table.chooseEntities(
+                new Grammar.Comparator("name", EQ, "'caf\u00e9'")).get(0).toString());
+        assertEquals("(1399,'u1399')", table.chooseEntities(
+                new Grammar.Comparator("name", LIKE, "'u1399'")).get(0).toString());
+    }
+
+    @Test
+    public void testCompressedTableFile() throws DBException, IOException {
+        Table table = new Table();
+        table.addAttrField("name");
+        table.addAttrField("mark");
+        for (int i = 0; i < 10000; ++i) {
+            table.addEntity(Arrays.asList("'student" + (i % 100) + "'", String.valueOf(i % 71)));
+        }
+        Path tableFile = Files.createTempFile("table", ".tab");
+        try {
+            System.setProperty("cwdb.compressTables", "true");
+            String meta;
+            try {
+                meta = table.storeToFile(tableFile);
+            } finally {
+                System.clearProperty("cwdb.compressTables");
+            }
+            byte[] data = Files.readAllBytes(tableFile);
+            assertTrue(BlockCompression.isCompressed(data));
+            assertTrue(data.length * 4 < table.exportToString("\t").length());
+
+            Table loadedTable = Table.createFromMetaString(meta);
+            loadedTable.loadFromFile(tableFile.toFile());
+            assertEquals(table.exportToString("\t"), loadedTable.exportToString("\t"));
+        } finally {
+            Files.delete(tableFile);
+        }
+    }
+
+    private static List<Long> getIds(List<Table.Entity> entities) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Table.Entity entity : entities) {
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPartitionedTable() throws DBException {
+        Table table = new Table();
+        Table partitionedTable = new Table();
+        for (Table t : Arrays.asList(table, partitionedTable)) {
+            t.addAttrField("name");
+            t.addAttrField("mark");
+        }
+        partitionedTable.partitionBy("mark", 8);
+        for (int i = 0; i < 3000; ++i) {
+            String mark = String.valueOf(i % 50);
+            if (i % 7 == 0) {
+                mark = i % 2 == 0 ? mark + ".0" : "'" + mark + "'";
+            }
+            List<String> attributes = Arrays.asList("'student" + (i % 13) + "'", mark);
+            table.addEntity(attributes);
+            partitionedTable.addEntity(attributes);
+        }
+        assertEquals(3000, partitionedTable.getNumberOfEntities());
+        assertThrows(DBException.class, () -> partitionedTable.partitionBy("name", 2));
+
+        // Values equal to the required one are all in the partition looked at
+        List<Condition> conds = Arrays.asList(new Grammar.AlwaysTrueCondition(),
+                new Grammar.Comparator("mark", EQ, "3"),
+                new Grammar.Comparator("mark", EQ, "'14'"),
+                new Grammar.Comparator("mark", EQ, "21.0"),
+                new Grammar.CompoundCondition(new Grammar.Comparator("name", EQ, "'student5'"),
+                        true, new Grammar.Comparator("MARK", EQ, "+28")),
+                new Grammar.CompoundCondition(new Grammar.Comparator("mark", EQ, "7"),
+                        false, new Grammar.Comparator("mark", GT, "45")));
+        for (Condition cond : conds) {
+            List<Long> ids = getIds(table.chooseEntities(cond));
+            assertEquals(ids, getIds(partitionedTable.chooseEntities(cond)));
+            assertEquals(ids.subList(2, 5), getIds(partitionedTable.chooseEntities(cond, 2, 3)));
+            assertEquals(getIds(table.chooseOrderedEntities(cond, "id", true, 1, 4)),
+                    getIds(partitionedTable.chooseOrderedEntities(cond, "id", true, 1, 4)));
+            assertEquals(getIds(table.chooseOrderedEntities(cond, "mark", true, 3, 10)),
+                    getIds(partitionedTable.chooseOrderedEntities(cond, "mark", true, 3, 10)));
+            assertEquals(getIds(table.chooseOrderedEntities(cond, "name", false, 0, -1)),
+                    getIds(partitionedTable.chooseOrderedEntities(cond, "name", false, 0, -1)));
+            assertEquals(getIds(table.chooseEntitiesInIdRange(cond, 100, 2100, true, 7)),
+                    getIds(partitionedTable.chooseEntitiesInIdRange(cond, 100, 2100, true, 7)));
+        }
+        assertEquals(60, partitionedTable.chooseEntities(conds.get(1)).size());
+
+        Condition deleted = new Grammar.Comparator("mark", LT, "10");
+        assertTrue(table.deleteEntities(deleted));
+        assertTrue(partitionedTable.deleteEntities(deleted));
+        assertFalse(partitionedTable.deleteEntities(deleted));
+        assertEquals(table.getNumberOfEntities(), partitionedTable.getNumberOfEntities());
+        List<Long> iteratedIds = new ArrayList<Long>();
+        for (Table.Entity entity : partitionedTable) {
+            iteratedIds.add(entity.getId());
+        }
+        iteratedIds.sort(null);
+        assertEquals(getIds(table.chooseEntities(new Grammar.AlwaysTrueCondition())), iteratedIds);
+
+        assertThrows(DBException.class, () -> partitionedTable.getAttrFieldSetter(
+                List.of(Map.entry("mark", "1"))));
+        assertThrows(DBException.class, () -> partitionedTable.dropAttrField("mark"));
+        Table loadedTable = Table.createFromMetaString(partitionedTable.toString());
+        assertTrue(loadedTable.isPartitioned());
+        assertEquals(8, loadedTable.getNumberOfPartitions());
+    }
+}